@@ -1,13 +1,17 @@
 import java.awt.BorderLayout;
 import java.awt.Color;
+import java.awt.Cursor;
 import java.awt.Dimension;
 import java.awt.FlowLayout;
 import java.awt.Font;
+import java.awt.FontMetrics;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
 import java.awt.GridLayout;
+import java.awt.Insets;
 import java.awt.Point;
 import java.awt.Rectangle;
+import java.awt.Toolkit;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.KeyAdapter;
@@ -17,12 +21,21 @@ import java.awt.event.MouseEvent;
 import java.awt.geom.RoundRectangle2D;
 import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collections;
 import java.util.GregorianCalendar;
-import java.util.TreeSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.concurrent.ExecutionException;
 
 import javax.swing.BorderFactory;
 import javax.swing.BoxLayout;
 import javax.swing.JButton;
+import javax.swing.JCheckBox;
+import javax.swing.JComboBox;
 import javax.swing.JComponent;
 import javax.swing.JDialog;
 import javax.swing.JFrame;
@@ -36,9 +49,13 @@ import javax.swing.JTextArea;
 import javax.swing.JTextField;
 import javax.swing.SpinnerListModel;
 import javax.swing.SpinnerNumberModel;
+import javax.swing.SwingUtilities;
+import javax.swing.SwingWorker;
+import javax.swing.Timer;
 import javax.swing.border.BevelBorder;
 import javax.swing.border.EtchedBorder;
 import javax.swing.border.SoftBevelBorder;
+import javax.swing.border.TitledBorder;
 import javax.swing.event.AncestorEvent;
 import javax.swing.event.AncestorListener;
 import javax.swing.event.ChangeEvent;
@@ -51,7 +68,7 @@ import javax.swing.event.ChangeListener;
  * @author Iain Davis
  * @version 1.0
  */
-public class CalendarAppFrame extends JFrame implements ChangeListener{
+public class CalendarAppFrame extends JFrame implements CalendarModelListener{
 	CalendarAppFrame(CalendarModel model_in)
 	{
 		model = model_in;
@@ -61,13 +78,21 @@ public class CalendarAppFrame extends JFrame implements ChangeListener{
 		schedulePanel = new SchedulePanel(model);
 		
 		// attach views to model
-		model.attachListener(calendarPanel);
-		model.attachListener(schedulePanel);
-		model.attachListener(this);
+		model.attachModelListener(calendarPanel);
+		model.attachModelListener(schedulePanel);
+		model.attachModelListener(this);
 		
 		// make a reference to (this) top-level frame accessible to nested classes
 		frame = this;
 		
+		// deliver event reminders while the frame is open
+		reminders = new ReminderScheduler(model, new 
+				ReminderListener()
+				{@Override
+					public void reminderDue(CalendarEvent event) {showReminder(event);}
+				});
+		reminders.start();
+		
 		// update the title bar of this frame with the date currently selected in the model
 		updateTitle();
 		
@@ -96,7 +121,7 @@ public class CalendarAppFrame extends JFrame implements ChangeListener{
 	 * Utility method - method listens to the model to ensure the title bar always represents
 	 * 						the currently selected date.
 	 */
-	@Override public void stateChanged(ChangeEvent e) {updateTitle();}
+	@Override public void modelChanged(CalendarModelEvent e) {if(e.isSelectionChanged()) updateTitle();}
 	
 	/**
 	 * Utility method - updates the frame's title bar with the currently selected date
@@ -104,6 +129,31 @@ public class CalendarAppFrame extends JFrame implements ChangeListener{
 	public void updateTitle()
 	{setTitle(DAYS.values()[model.getSelectedDate().get(Calendar.DAY_OF_WEEK) - 1] + " - " +  model.getFormattedDate());}
 	
+	/**
+	 * Utility method - sounds a beep and pops up a (non-modal) message about an event whose
+	 * 						reminder is due. Called on the reminder thread, so the work is
+	 * 						handed to the event dispatch thread
+	 * @param event		the event about to start
+	 */
+	private void showReminder(final CalendarEvent event)
+	{
+		SwingUtilities.invokeLater(new 
+				Runnable()
+				{@Override
+					public void run()
+					{
+						Toolkit.getDefaultToolkit().beep();
+						ZoneOffsets zone = model.getDisplayOffsets();
+						String when = event.getStartMillis() > System.currentTimeMillis() 
+								? "starts at " + zone.formatTime(event.getStartMillis()) : "is starting now";
+						JDialog dialog = new JOptionPane(event.getTitle() + " " + when, 
+								JOptionPane.INFORMATION_MESSAGE).createDialog(frame, "Reminder");
+						dialog.setModal(false);
+						dialog.setVisible(true);
+					}
+				});
+	}
+	
 	
 	// fields
 	private static CreateEventDialog ned;
@@ -114,6 +164,7 @@ public class CalendarAppFrame extends JFrame implements ChangeListener{
 	private static SchedulePanel schedulePanel;		// indirect Observer
 	
 	private static CalendarAppFrame frame; // direct observer - reference visible to nested classes
+	private static ReminderScheduler reminders;
 	
 	// enumerated types visible to all nested classes
 	private enum DAYS    {Sunday("SU"), Monday("MO"), Tuesday("TU"), Wednesday("WE"), Thursday("TH"), Friday("FR"), Saturday("SA");
@@ -131,6 +182,20 @@ public class CalendarAppFrame extends JFrame implements ChangeListener{
 						}
 	private enum MONTHS  {January, Feburary, March, April, May, June, July, August, September, October, November, December};
 	private enum SEGMENTS {AM, PM};
+	private enum REPEATS {Never, Daily, Weekly, Monthly, Yearly};
+	private enum REMINDERS {None("No reminder", CalendarEvent.NO_REMINDER), AtStart("At start", 0), 
+							Five("5 min before", 5), Ten("10 min before", 10), Fifteen("15 min before", 15), 
+							Thirty("30 min before", 30), Hour("1 hour before", 60), Day("1 day before", 24 * 60);
+							private REMINDERS(String label_in, int minutes_in)
+							{label = label_in; minutes = minutes_in;};
+							
+							@Override
+							public String toString()
+							{return label;}
+							
+							public final String label;
+							public final int minutes;	// CalendarEvent.getReminderMinutes()
+						}
 	
 	/**
 	 * This JPanel subclass encapsulates the top-most bar of the CalendarAppFrame containing the
@@ -183,6 +248,9 @@ public class CalendarAppFrame extends JFrame implements ChangeListener{
 			navButtons.add(nextYear_btn);
 			
 			
+			rightPanel.add(zone_cmb);
+			rightPanel.add(searchStatus_lbl);
+			rightPanel.add(search_txt);
 			rightPanel.add(quit_btn);
 		}
 		
@@ -219,10 +287,38 @@ public class CalendarAppFrame extends JFrame implements ChangeListener{
 					{@Override
 						public void mouseClicked(MouseEvent e) 
 						{
+							reminders.stop();
 							model.flushToDisk();
 							frame.dispose();
 						}});
 			
+			// choosing a time zone redisplays the calendar in it; the model recounts the days of
+			// every calendar, so that runs off the event dispatch thread
+			zone_cmb.setSelectedItem(TimeZone.getDefault().getID());
+			zone_cmb.addActionListener(new
+					ActionListener()
+					{@Override
+						public void actionPerformed(ActionEvent e)
+						{
+							final TimeZone zone = TimeZone.getTimeZone((String) zone_cmb.getSelectedItem());
+							new SwingWorker<Void, Void>()
+							{
+								@Override
+								protected Void doInBackground() {
+									model.setDisplayZone(zone);
+									return null;
+								}
+							}.execute();
+						}
+					});
+			
+			// pressing Enter in the search box jumps to the next matching event
+			search_txt.addActionListener(new
+					ActionListener()
+					{@Override
+						public void actionPerformed(ActionEvent e) {search();}
+					});
+			
 			// initialize toolTip text
 			prevYear_btn.setToolTipText("Go back one year");
 			prevMonth_btn.setToolTipText("Go back one month");
@@ -233,6 +329,86 @@ public class CalendarAppFrame extends JFrame implements ChangeListener{
 			nextYear_btn.setToolTipText("Go forward one year");
 			
 			quit_btn.setToolTipText("Save events and exit the program");
+			search_txt.setToolTipText("Search event titles and descriptions; press Enter again for the next match");
+			zone_cmb.setToolTipText("Show times in this time zone");
+		}
+		
+		/**
+		 * Utility method - lists the time zones offered for display: the region-based zones of
+		 * 		the tz database (e.g. "Europe/Paris"), UTC, and the default zone, sorted by id
+		 * @return	an array of zone ids
+		 */
+		private static String[] displayZoneIds()
+		{
+			ArrayList<String> ids = new ArrayList<String>();
+			for(String id : TimeZone.getAvailableIDs())
+			{
+				if(id.indexOf('/') > 0 && !id.startsWith("Etc/") && !id.startsWith("SystemV/")) ids.add(id);
+			}
+			ids.add("UTC");
+			String defaultId = TimeZone.getDefault().getID();
+			if(!ids.contains(defaultId)) ids.add(defaultId);
+			Collections.sort(ids);
+			return ids.toArray(new String[ids.size()]);
+		}
+		
+		/**
+		 * Utility method - finds the next event matching the search box, from the selected date
+		 * 		(or, when the same search is repeated on the day of the last match, from just
+		 * 		after that match), wrapping around to the earliest match if there are no more.
+		 * 		The search runs off the event dispatch thread, and the selected date moves to the
+		 * 		day of the match when it completes
+		 */
+		private static void search()
+		{
+			final String query = search_txt.getText().trim();
+			if(query.isEmpty()) return;
+			
+			GregorianCalendar selected = model.getSelectedDate();
+			final long from;
+			if(lastMatch != null && query.equals(lastQuery)
+					&& CalendarSnapshot.dayStart(selected) <= lastMatch.getStartMillis()
+					&& lastMatch.getStartMillis() < CalendarSnapshot.dayEnd(selected))
+				from = lastMatch.getStartMillis() + 1;
+			else
+				from = CalendarSnapshot.dayStart(selected);
+			
+			final int generation = ++searchGeneration;
+			new SwingWorker<CalendarEvent, Void>()
+			{
+				@Override
+				protected CalendarEvent doInBackground() {
+					List<CalendarEvent> found = model.searchEvents(query, from, 1);
+					if(found.isEmpty()) found = model.searchEvents(query, Long.MIN_VALUE, 1);
+					return found.isEmpty() ? null : found.get(0);
+				}
+				
+				@Override
+				protected void done() {
+					if(generation != searchGeneration) return;
+					
+					CalendarEvent match;
+					try {
+						match = get();
+					} catch (InterruptedException e) {
+						return;
+					} catch (ExecutionException e) {
+						e.printStackTrace();
+						return;
+					}
+					
+					lastQuery = query;
+					lastMatch = match;
+					if(match == null)
+					{
+						searchStatus_lbl.setText("No matches");
+						return;
+					}
+					searchStatus_lbl.setText(match.getStartMillis() < from ? "Wrapped" : "");
+					GregorianCalendar day = model.getDisplayOffsets().toCalendar(match.getStartMillis());
+					model.goToDate(day.get(Calendar.YEAR), day.get(Calendar.MONTH), day.get(Calendar.DAY_OF_MONTH));
+				}
+			}.execute();
 		}
 		
 		// fields
@@ -244,11 +420,19 @@ public class CalendarAppFrame extends JFrame implements ChangeListener{
 		private final static NavButton nextMonth_btn = new NavButton(">>", Calendar.MONTH, 1);
 		private final static NavButton nextYear_btn  = new NavButton(">>>", Calendar.YEAR, 1);
 		private final static JButton quit_btn        = new JButton("Quit");
+		private final static JTextField search_txt   = new JTextField(12);
+		private final static JLabel searchStatus_lbl = new JLabel();
+		private final static JComboBox<String> zone_cmb = new JComboBox<String>(displayZoneIds());
 		
 		private final static JPanel leftPanel = new JPanel();
 		private final static JPanel rightPanel = new JPanel();
 		
 		private final static ArrayList<NavButton> navButtons = new ArrayList<NavButton>();
+		
+		// the last search, so that repeating it finds the next match
+		private static String lastQuery;
+		private static CalendarEvent lastMatch;
+		private static int searchGeneration;	// discards the results of superseded searches
 	}
 	
 	/** 
@@ -257,7 +441,7 @@ public class CalendarAppFrame extends JFrame implements ChangeListener{
 	 * 		and the button for creating new events.
 	 * @author Iain Davis
 	 */
-	private static class CalendarPanel extends JPanel implements ChangeListener
+	private static class CalendarPanel extends JPanel implements CalendarModelListener
 	{
 		/**
 		 * Default constructor
@@ -283,9 +467,10 @@ public class CalendarAppFrame extends JFrame implements ChangeListener{
 		{
 			setLayout(new BoxLayout(this, BoxLayout.Y_AXIS));
 			add(buttonPanel);
-			initDaysGrid();
+			daysGrid = new MonthGrid(model);
 			gridPanel.add(daysGrid);
 			add(gridPanel);
+			add(calendarsPanel);
 			buttonPanel.add(create_btn);
 		}
 		
@@ -309,66 +494,31 @@ public class CalendarAppFrame extends JFrame implements ChangeListener{
 							ned.showNewEventDialog();
 						}
 					});
-		}
-		
-		/**
-		 * Utility method - performs initial setup of the actual calendar display panel.
-		 * 						Contains both layout and behavior setup actions to avoid
-		 * 						unnecessary loop-duplication
-		 */
-		private void initDaysGrid()
-		{
-			// create row of headers
-			for(int i = 0; i < 7; i++)
-			{
-				dayLabels[0][i] = new JLabel();
-				dayLabels[0][i].setHorizontalAlignment(JLabel.CENTER);
-				dayLabels[0][i].setVerticalAlignment(JLabel.BOTTOM);
-				dayLabels[0][i].setPreferredSize(new Dimension(40, 30));
-				dayLabels[0][i].setText(DAYS.getAbbreviations()[i]);
-				dayLabels[0][i].setOpaque(true);
-				daysGrid.add(dayLabels[0][i]);
-			}
 			
-			// create and perform default formatting of calendar grid
-			for(int week = 1; week < 7; week++)
+			// one show/hide toggle per calendar, when there is more than one to overlay
+			List<String> calendarNames = model.getCalendarNames();
+			if(calendarNames.size() > 1)
 			{
-				for(int dayOfWeek = 0; dayOfWeek < 7; dayOfWeek++)
+				calendarsPanel.setBorder(BorderFactory.createTitledBorder("Calendars"));
+				for(final String name : calendarNames)
 				{
-					dayLabels[week][dayOfWeek] = new JLabel();
-					dayLabels[week][dayOfWeek].setPreferredSize(new Dimension(40, 40));
-					dayLabels[week][dayOfWeek].setHorizontalAlignment(JLabel.RIGHT);
-					dayLabels[week][dayOfWeek].setVerticalAlignment(JLabel.TOP);
-					dayLabels[week][dayOfWeek].setBorder(BorderFactory.createLineBorder(Color.LIGHT_GRAY));
-					dayLabels[week][dayOfWeek].setOpaque(true);
-					daysGrid.add(dayLabels[week][dayOfWeek]);
-					
-					// initialize dayLabel click behavior
-					dayLabels[week][dayOfWeek].addMouseListener(new 
-							MouseAdapter()
+					final JCheckBox toggle = new JCheckBox(name, model.isCalendarVisible(name));
+					toggle.addActionListener(new 
+							ActionListener()
 							{
-								@Override 
-								public void mouseClicked(MouseEvent e)
-								{
-									if(((JLabel)e.getSource()).isEnabled())
-									{
-										int year = model.getSelectedDate().get(Calendar.YEAR);
-										int month = model.getSelectedDate().get(Calendar.MONTH);
-										int day = Integer.parseInt(((JLabel)e.getSource()).getText());
-										model.goToDate(year, month, day);
-									}}});
+								@Override
+								public void actionPerformed(ActionEvent e) {
+									model.setCalendarVisible(name, toggle.isSelected());
+								}
+							});
+					calendarsPanel.add(toggle);
 				}
 			}
-		} // initDaysGrid()
+		}
 		
 		/**
 		 * Utility method - update calendar grid to represent the month and year in which 
-		 * 						the client-provided date is found, including formatting 
-		 * 						identifying:
-		 * 							- days in the current month
-		 * 							- days before or after the current month
-		 * 							- highlights on days with events
-		 * 							- an identifying marker on the currently selected date
+		 * 						the client-provided date is found (see MonthGrid.display())
 		 * @param targetDate	a GregorianCalendar instance representing the client-supplied date
 		 * @precondition		targetDate is non-null
 		 */
@@ -377,86 +527,325 @@ public class CalendarAppFrame extends JFrame implements ChangeListener{
 			// handle precondition
 			if(targetDate == null) return;
 			
-			// update calendar header
-			daysGrid.setBorder(BorderFactory.createTitledBorder(
-					MONTHS.values()[targetDate.get(Calendar.MONTH)] 
-					+ " " + targetDate.get(Calendar.YEAR)));
+			// fetch event counts for the whole grid at once rather than querying each day
+			daysGrid.display(targetDate, model.getMonthGridOccupancy(targetDate), 
+					model.getMonthGridContinuations(targetDate));
 			
-			// get a copy of the date, set it to the first day of the month. If that day is
-			// not already a Sunday, back up to the prior Sunday (a day in the previous month)
-			GregorianCalendar CalendarWalker = (GregorianCalendar) targetDate.clone();
-			CalendarWalker.set(Calendar.DAY_OF_MONTH, 1);
-			
-			while(CalendarWalker.get(Calendar.DAY_OF_WEEK) != 1) 
-				CalendarWalker.add(Calendar.DAY_OF_MONTH, -1);
-			
-
-			// step through each day present on the counter and format it accordingly	
-			for(int row = 1; row < 7; row++)
-			{
-				for(int col = 0; col < 7; col++)
-				{	
-					// days before or after end of month
-					if(CalendarWalker.get(Calendar.MONTH) != targetDate.get(Calendar.MONTH))
-					{
-						dayLabels[row][col].setForeground(Color.GRAY);
-						dayLabels[row][col].setBackground(Color.LIGHT_GRAY);
-						dayLabels[row][col].setBorder(BorderFactory.createLineBorder(Color.GRAY));
-						dayLabels[row][col].setFont(new Font("ARIAL", Font.PLAIN, 18));
-						dayLabels[row][col].setEnabled(false);
-						
-						if(model.hasEvents(CalendarWalker))
-						{dayLabels[row][col].setBackground(new Color(0x94AAAA));}
-					}
-					// days during the current month that are not also the current selected date
-					else if (CalendarWalker.get(Calendar.DAY_OF_MONTH) == targetDate.get(Calendar.DAY_OF_MONTH))
-					{
-						dayLabels[row][col].setForeground(Color.RED);
-						dayLabels[row][col].setBackground(Color.WHITE);
-						dayLabels[row][col].setBorder(BorderFactory.createLineBorder(Color.BLACK, 3));
-						dayLabels[row][col].setFont(new Font("ARIAL", Font.BOLD, 18));
-						dayLabels[row][col].setEnabled(true);
-						if(model.hasEvents(CalendarWalker))
-						{dayLabels[row][col].setBackground(new Color(0xC8F0EF));}
-					}
-					else // current selected date
-					{
-						dayLabels[row][col].setForeground(Color.BLACK);
-						dayLabels[row][col].setBackground(Color.WHITE);
-						dayLabels[row][col].setBorder(BorderFactory.createLineBorder(Color.LIGHT_GRAY));
-						dayLabels[row][col].setFont(new Font("ARIAL", Font.PLAIN, 18));
-						dayLabels[row][col].setEnabled(true);
-						if(model.hasEvents(CalendarWalker))
-						{dayLabels[row][col].setBackground(new Color(0xC8F0EF));}
-					}
-					
-					// apply numbering of current day
-					dayLabels[row][col].setText(Integer.toString(CalendarWalker.get(Calendar.DAY_OF_MONTH)));
-					// increment walker in preparation of processing the next day
-					CalendarWalker.add(Calendar.DAY_OF_MONTH, 1);
-				}
-			}
+			// remember the span of time covered by the grid so changes outside it can be ignored
+			gridStart = daysGrid.getGridStart();
+			gridEnd = daysGrid.getGridEnd();
 		}
 		
 		/**
 		 * Utility method - prompts update of daysGrid with the currently selected date
-		 * 						from the model
+		 * 						from the model, unless the change only involves events that
+		 * 						fall outside the displayed grid
 		 */
 		@Override
-		public void stateChanged(ChangeEvent d) {
-			displayDate(model.getSelectedDate());
-		} // stateChanged()
+		public void modelChanged(CalendarModelEvent e) {
+			if(e.isSelectionChanged() || e.eventsTouch(gridStart, gridEnd))
+				displayDate(model.getSelectedDate());
+		} // modelChanged()
 		
 		// component fields
 		private final static JButton    create_btn = new JButton("Create");
-		private final static JLabel[][] dayLabels = new JLabel[7][7];
 		private final static JPanel     buttonPanel = new JPanel(new FlowLayout(FlowLayout.LEFT));
-		private final static JPanel     daysGrid  = new JPanel(new GridLayout(7,7));
+		private static MonthGrid        daysGrid;
 		private final static JPanel		gridPanel = new JPanel();
+		private final static JPanel		calendarsPanel = new JPanel(new GridLayout(0, 2));
 		
 		// other fields
 		private final static Color      buttonColor = new Color(0xED, 0x6A, 0x5A);
 		private static CalendarModel model;
+		private static long gridStart;	// first instant shown on the grid
+		private static long gridEnd;	// first instant after the grid
+	}
+	
+	/**
+	 * This JComponent subclass paints the month view of the CalendarPanel: a row of day
+	 * 		headings over six weeks of days, each day shaded by how many events it holds,
+	 * 		with a bar joining the days of any event that runs over several of them.
+	 * 		The whole grid is a single component; the geometry of its cells is worked out
+	 * 		when it is laid out, the fonts and colours are made once, and each change of
+	 * 		date or events repaints only the cells that look different as a result. Clicks
+	 * 		are mapped to cells here rather than by a listener on each one.
+	 * @author Iain Davis
+	 */
+	private static class MonthGrid extends JComponent
+	{
+		/**
+		 * Default constructor
+		 * @param model_in		the model whose selected date is changed by clicking a day
+		 */
+		private MonthGrid(CalendarModel model_in)
+		{
+			model = model_in;
+			setBorder(title);
+			setOpaque(true);
+			setBackground(Color.WHITE);
+			
+			addMouseListener(new 
+					MouseAdapter()
+					{
+						@Override 
+						public void mouseClicked(MouseEvent e)
+						{
+							int cell = cellAt(e.getX(), e.getY());
+							if(cell < 0 || !inMonth[cell]) return;
+							model.goToDate(year, month, dayNumbers[cell]);
+						}
+					});
+		}
+		
+		/**
+		 * Mutator method - shows the month in which the client-provided date is found, marking:
+		 * 						- days before or after the month (greyed out)
+		 * 						- the number of events on each day (by depth of shading)
+		 * 						- days joined by events that run from one into the next (by
+		 * 							a bar along the bottom of the days)
+		 * 						- the selected date (in red, with a heavy border)
+		 * @param targetDate	a GregorianCalendar representing the selected date
+		 * @param occupancy		the number of events on each of the 42 days of the grid, as
+		 * 							returned by CalendarModel.getMonthGridOccupancy()
+		 * @param continuations	the number of events carried over into each of the 42 days
+		 * 							and the day after, as returned by
+		 * 							CalendarModel.getMonthGridContinuations()
+		 */
+		private void display(GregorianCalendar targetDate, int[] occupancy, int[] continuations)
+		{
+			int newYear = targetDate.get(Calendar.YEAR), newMonth = targetDate.get(Calendar.MONTH);
+			boolean newMonthShown = newYear != year || newMonth != month || gridStart == Long.MIN_VALUE;
+			year = newYear;
+			month = newMonth;
+			
+			// the grid starts on the Sunday on or before the first of the month
+			GregorianCalendar walker = (GregorianCalendar) targetDate.clone();
+			walker.set(Calendar.DAY_OF_MONTH, 1);
+			walker.set(Calendar.HOUR_OF_DAY, 0);
+			walker.set(Calendar.MINUTE, 0);
+			walker.set(Calendar.SECOND, 0);
+			walker.set(Calendar.MILLISECOND, 0);
+			int lead = walker.get(Calendar.DAY_OF_WEEK) - Calendar.SUNDAY;
+			int daysInMonth = walker.getActualMaximum(Calendar.DAY_OF_MONTH);
+			walker.add(Calendar.DAY_OF_MONTH, -lead);
+			int daysInPrevious = walker.getActualMaximum(Calendar.DAY_OF_MONTH);
+			gridStart = walker.getTimeInMillis();
+			walker.add(Calendar.DAY_OF_MONTH, 42);
+			gridEnd = walker.getTimeInMillis();
+			
+			int selected = lead + targetDate.get(Calendar.DAY_OF_MONTH) - 1;
+			for(int cell = 0; cell < 42; cell++)
+			{
+				int day = cell - lead + 1;
+				boolean current = day >= 1 && day <= daysInMonth;
+				if(day < 1) day += daysInPrevious;
+				else if(day > daysInMonth) day -= daysInMonth;
+				int style = (current ? 0 : OUTSIDE) | (cell == selected ? SELECTED : 0) | heatLevel(occupancy[cell])
+						| (continuations[cell] > 0 ? CONTINUED : 0) | (continuations[cell + 1] > 0 ? CONTINUES : 0);
+				
+				if(newMonthShown || day != dayNumbers[cell] || style != styles[cell])
+				{
+					dayNumbers[cell] = day;
+					inMonth[cell] = current;
+					styles[cell] = style;
+					if(!newMonthShown) repaint(cellBounds(cell));
+				}
+			}
+			
+			if(newMonthShown)
+			{
+				title.setTitle(MONTHS.values()[month] + " " + year);
+				revalidate();
+				repaint();
+			}
+		} // display()
+		
+		/**
+		 * Accessor method
+		 * @return	the first instant shown on the grid, in epoch milliseconds
+		 */
+		private long getGridStart()
+		{return gridStart;}
+		
+		/**
+		 * Accessor method
+		 * @return	the first instant after the grid, in epoch milliseconds
+		 */
+		private long getGridEnd()
+		{return gridEnd;}
+		
+		/**
+		 * Accessor method
+		 * @return	the size of the cells plus the border, whose title may change its height
+		 */
+		@Override
+		public Dimension getPreferredSize()
+		{
+			Insets insets = getInsets();
+			return new Dimension(insets.left + 7 * CELL_SIZE + insets.right,
+					insets.top + HEADER_HEIGHT + 6 * CELL_SIZE + insets.bottom);
+		}
+		
+		/**
+		 * Utility method - works out the position of each row and column of cells within the
+		 * 						border, centring the grid if the component is larger than
+		 * 						it needs to be
+		 */
+		@Override
+		public void doLayout()
+		{
+			Insets insets = getInsets();
+			int left = insets.left + Math.max(0, (getWidth() - insets.left - insets.right - 7 * CELL_SIZE) / 2);
+			for(int col = 0; col <= 7; col++) {columnX[col] = left + col * CELL_SIZE;}
+			rowY[0] = insets.top;
+			for(int row = 1; row <= 7; row++) {rowY[row] = insets.top + HEADER_HEIGHT + (row - 1) * CELL_SIZE;}
+		}
+		
+		/**
+		 * Utility method - paints the cells that fall within the area being repainted
+		 */
+		@Override
+		protected void paintComponent(Graphics g)
+		{
+			Rectangle clip = g.getClipBounds();
+			if(clip == null) clip = new Rectangle(0, 0, getWidth(), getHeight());
+			g.setColor(getBackground());
+			g.fillRect(clip.x, clip.y, clip.width, clip.height);
+			
+			// day headings
+			if(clip.y < rowY[1])
+			{
+				g.setColor(Color.BLACK);
+				g.setFont(HEADER_FONT);
+				FontMetrics fm = g.getFontMetrics();
+				for(int col = 0; col < 7; col++)
+				{
+					String heading = DAYS.getAbbreviations()[col];
+					g.drawString(heading, columnX[col] + (CELL_SIZE - fm.stringWidth(heading)) / 2,
+							rowY[1] - fm.getDescent() - 2);
+				}
+			}
+			
+			// days
+			for(int cell = 0; cell < 42; cell++)
+			{
+				int x = columnX[cell % 7], y = rowY[cell / 7 + 1];
+				if(!clip.intersects(x, y, CELL_SIZE, CELL_SIZE)) continue;
+				int style = styles[cell];
+				boolean outside = (style & OUTSIDE) != 0, selected = (style & SELECTED) != 0;
+				
+				g.setColor((outside ? OUTSIDE_HEAT : HEAT)[style & HEAT_MASK]);
+				g.fillRect(x, y, CELL_SIZE, CELL_SIZE);
+				
+				// the bar of a multi-day event runs from the middle of its first day to the
+				// middle of its last, across the days between
+				if((style & (CONTINUED | CONTINUES)) != 0)
+				{
+					int left = (style & CONTINUED) != 0 ? x : x + CELL_SIZE / 2;
+					int right = (style & CONTINUES) != 0 ? x + CELL_SIZE : x + CELL_SIZE / 2;
+					g.setColor(outside ? Color.GRAY : SPAN_COLOR);
+					g.fillRect(left, y + CELL_SIZE - SPAN_INSET - SPAN_HEIGHT, right - left, SPAN_HEIGHT);
+				}
+				
+				g.setColor(outside ? Color.GRAY : selected ? Color.RED : Color.BLACK);
+				g.setFont(selected ? SELECTED_FONT : DAY_FONT);
+				FontMetrics fm = g.getFontMetrics();
+				String number = DAY_NUMBERS[dayNumbers[cell]];
+				g.drawString(number, x + CELL_SIZE - 3 - fm.stringWidth(number), y + fm.getAscent());
+				
+				if(selected)
+				{
+					g.setColor(Color.BLACK);
+					for(int i = 0; i < 3; i++) {g.drawRect(x + i, y + i, CELL_SIZE - 1 - 2 * i, CELL_SIZE - 1 - 2 * i);}
+				}
+				else
+				{
+					g.setColor(outside ? Color.GRAY : Color.LIGHT_GRAY);
+					g.drawRect(x, y, CELL_SIZE - 1, CELL_SIZE - 1);
+				}
+			}
+		} // paintComponent()
+		
+		/**
+		 * Utility method
+		 * @return	the index of the day cell containing a point, or -1 if there is none
+		 */
+		private int cellAt(int x, int y)
+		{
+			if(x < columnX[0] || x >= columnX[7] || y < rowY[1] || y >= rowY[7]) return -1;
+			return (y - rowY[1]) / CELL_SIZE * 7 + (x - columnX[0]) / CELL_SIZE;
+		}
+		
+		/**
+		 * Utility method
+		 * @return	the area taken up by a day cell
+		 */
+		private Rectangle cellBounds(int cell)
+		{return new Rectangle(columnX[cell % 7], rowY[cell / 7 + 1], CELL_SIZE, CELL_SIZE);}
+		
+		/**
+		 * Utility method - maps a day's event count to a depth of shading: none, then one
+		 * 						level per doubling of the count
+		 */
+		private static int heatLevel(int count)
+		{return Math.min(HEAT_MASK, 32 - Integer.numberOfLeadingZeros(count));}
+		
+		/**
+		 * Utility method - builds the shades from a colour for days with one event to a
+		 * 						darker one for the busiest days
+		 * @param none		the colour of a day with no events
+		 * @param light		the colour of a day with one event
+		 * @param dark		the colour of the busiest days
+		 */
+		private static Color[] heatShades(Color none, Color light, Color dark)
+		{
+			Color[] shades = new Color[HEAT_MASK + 1];
+			shades[0] = none;
+			for(int level = 1; level <= HEAT_MASK; level++)
+			{
+				float f = (level - 1) / (float) (HEAT_MASK - 1);
+				shades[level] = new Color(
+						Math.round(light.getRed() + f * (dark.getRed() - light.getRed())),
+						Math.round(light.getGreen() + f * (dark.getGreen() - light.getGreen())),
+						Math.round(light.getBlue() + f * (dark.getBlue() - light.getBlue())));
+			}
+			return shades;
+		}
+		
+		// fields
+		private final CalendarModel model;
+		private final TitledBorder title = BorderFactory.createTitledBorder("");
+		private final int[] columnX = new int[8];		// left edge of each column, and the right edge of the last
+		private final int[] rowY = new int[8];			// top edge of the headings and of each week, and the bottom edge of the last
+		private final int[] dayNumbers = new int[42];	// day of the month shown in each cell
+		private final boolean[] inMonth = new boolean[42];
+		private final int[] styles = new int[42];		// heat level of each cell, plus the style flags below
+		private int year;
+		private int month;
+		private long gridStart = Long.MIN_VALUE;	// first instant shown on the grid
+		private long gridEnd = Long.MIN_VALUE;		// first instant after the grid
+		
+		private static final int CELL_SIZE = 40;
+		private static final int HEADER_HEIGHT = 30;
+		private static final int HEAT_MASK = 7;		// the highest heat level, for 64 or more events
+		private static final int OUTSIDE = 8;		// style flag for days before or after the month
+		private static final int SELECTED = 16;		// style flag for the selected date
+		private static final int CONTINUED = 32;	// style flag for days an event runs into from the day before
+		private static final int CONTINUES = 64;	// style flag for days an event runs on from into the day after
+		private static final int SPAN_HEIGHT = 4;	// thickness of the bar joining the days of an event
+		private static final int SPAN_INSET = 5;	// gap between that bar and the bottom of the cell
+		private static final Color SPAN_COLOR = new Color(0x2F7F7A);
+		private static final Font DAY_FONT = new Font("ARIAL", Font.PLAIN, 18);
+		private static final Font SELECTED_FONT = DAY_FONT.deriveFont(Font.BOLD);
+		private static final Font HEADER_FONT = new Font("ARIAL", Font.BOLD, 12);
+		private static final Color[] HEAT = heatShades(Color.WHITE, new Color(0xC8F0EF), new Color(0x4FA9A4));
+		private static final Color[] OUTSIDE_HEAT = heatShades(Color.LIGHT_GRAY, new Color(0x94AAAA), new Color(0x5E7474));
+		private static final String[] DAY_NUMBERS = new String[32];
+		static
+		{
+			for(int day = 1; day < DAY_NUMBERS.length; day++) {DAY_NUMBERS[day] = Integer.toString(day);}
+		}
+		private static final long serialVersionUID = -5654245055516303367L;
 	}
 	
 	/**
@@ -466,7 +855,7 @@ public class CalendarAppFrame extends JFrame implements ChangeListener{
 	 * @author Iain Davis
 	 *
 	 */
-	private class SchedulePanel extends JPanel implements ChangeListener
+	private class SchedulePanel extends JPanel implements CalendarModelListener
 	{
 		/**
 		 * Default constructor
@@ -505,12 +894,15 @@ public class CalendarAppFrame extends JFrame implements ChangeListener{
 			scheduleLayers.setLayout(null);
 			scheduleLayers.setPreferredSize(new Dimension(600, 960));
 			
-			refreshSchedulePage();
+			buildSchedulePage();
 		}
 		
-		private void refreshSchedulePage()
+		/**
+		 * Utility method - lays out the static hour grid behind the event markers. The grid
+		 * 						never changes, so it is built once when the panel is laid out
+		 */
+		private void buildSchedulePage()
 		{
-			scheduleLayers.removeAll();
 			JTextArea leftBlock;
 			JTextArea rightBlock;
 			StringBuffer sb;
@@ -555,33 +947,79 @@ public class CalendarAppFrame extends JFrame implements ChangeListener{
 			header.setText(dayOfWeek + " " + month + "/" + dayOfMonth);
 		}
 		
+		/**
+		 * Utility method - reconciles the event markers on the schedule with the events on the
+		 * 						model's currently selected date. Markers for events that are
+		 * 						no longer shown are removed, markers are created only for newly
+		 * 						shown events, and markers that are still valid are left alone.
+		 * 						An event that runs over several days is shown by the part of
+		 * 						it that falls on the selected date, so on moving to a different
+		 * 						day every marker is made afresh
+		 */
 		private void loadScheduleEvents()
 		{
-			// TODO finish this method
-			refreshSchedulePage();
+			Set<CalendarEvent> daysEvents = Collections.newSetFromMap(new IdentityHashMap<CalendarEvent, Boolean>());
+			daysEvents.addAll(model.getEvents(model.getSelectedDate()));
+			boolean changed = false;
+			
+			// only reset the scroll position when moving to a different day
+			GregorianCalendar day = model.getSelectedDate();
+			day.set(Calendar.HOUR_OF_DAY, 0);
+			day.set(Calendar.MINUTE, 0);
+			day.set(Calendar.SECOND, 0);
+			day.set(Calendar.MILLISECOND, 0);
+			boolean newDay = day.getTimeInMillis() != dayStart;
+			if(newDay)
+			{
+				dayStart = day.getTimeInMillis();
+				day.add(Calendar.DAY_OF_MONTH, 1);
+				dayEnd = day.getTimeInMillis();
+			}
 			
-			TreeSet<CalendarEvent> daysEvents = 
-					(TreeSet<CalendarEvent>) model.getEvents(model.getSelectedDate());
+			// drop markers for events that have left the selected day
+			Iterator<Map.Entry<CalendarEvent, EventMarker>> shown = markers.entrySet().iterator();
+			while(shown.hasNext())
+			{
+				Map.Entry<CalendarEvent, EventMarker> entry = shown.next();
+				if(newDay || !daysEvents.contains(entry.getKey()))
+				{
+					scheduleLayers.remove(entry.getValue());
+					shown.remove();
+					changed = true;
+				}
+			}
 			
+			// add markers for events that have just arrived
 			for(CalendarEvent ce : daysEvents)
 			{
-				EventMarker em = new EventMarker(ce);
-
+				if(markers.containsKey(ce)) continue;
+				
+				EventMarker em = new EventMarker(ce, dayStart, dayEnd);
+				markers.put(ce, em);
 				scheduleLayers.add(em, EVENTS_LAYER);
+				changed = true;
 			}
 			
-
-			scheduleLayers.scrollRectToVisible(new Rectangle(0,200,10,10));
+			if(changed) scheduleLayers.repaint();
+			if(newDay) scheduleLayers.scrollRectToVisible(new Rectangle(0,200,10,10));
 		}
 		
 		/**
-		 * Listener method - receives notifications from model
+		 * Listener method - receives notifications from model. Event changes are only acted
+		 * 						upon when they could touch the day on display
 		 */
 		@Override
-		public void stateChanged(ChangeEvent e) 
+		public void modelChanged(CalendarModelEvent e) 
 		{
-			updateHeader();
-			loadScheduleEvents();
+			if(e.isSelectionChanged())
+			{
+				updateHeader();
+				loadScheduleEvents();
+			}
+			else if(e.eventsTouch(dayStart, dayEnd))
+			{
+				loadScheduleEvents();
+			}
 		}
 		
 		// Component fields
@@ -595,6 +1033,9 @@ public class CalendarAppFrame extends JFrame implements ChangeListener{
 		
 		// other fields
 		private CalendarModel model;
+		private final IdentityHashMap<CalendarEvent, EventMarker> markers = new IdentityHashMap<CalendarEvent, EventMarker>();
+		private long dayStart = Long.MIN_VALUE;	// first instant of the day on display
+		private long dayEnd = Long.MIN_VALUE;	// first instant of the following day
 		final int PAGE_LAYER = 1;
 		final int EVENTS_LAYER = 0;
 	}
@@ -654,6 +1095,10 @@ public class CalendarAppFrame extends JFrame implements ChangeListener{
 			eventTitlePanel.add(eventTitle_lbl);
 			eventTitlePanel.add(eventTitle_txt);
 			
+			eventNotesPanel.setLayout(new BoxLayout(eventNotesPanel, BoxLayout.X_AXIS));
+			eventNotesPanel.add(eventNotes_lbl);
+			eventNotesPanel.add(eventNotes_txt);
+			
 			eventDatePanel.setLayout(new FlowLayout(FlowLayout.LEFT));
 			eventDatePanel.add(eventMonth_spn);
 			eventDatePanel.add(eventDay_spn);
@@ -675,12 +1120,29 @@ public class CalendarAppFrame extends JFrame implements ChangeListener{
 			eventEndPanel.add(endHour_spn);
 			eventEndPanel.add(endMinute_spn);
 			eventEndPanel.add(endSegment_spn);
+			eventEndPanel.add(endDays_spn);
+			eventEndPanel.add(endDays_lbl);
+			endDays_spn.setPreferredSize(new Dimension(45, 20));
+			
+			eventRepeatPanel.setLayout(new FlowLayout(FlowLayout.LEFT));
+			eventRepeatPanel.add(repeat_spn);
+			eventRepeatPanel.add(repeatCount_spn);
+			eventRepeatPanel.add(repeatCount_lbl);
+			repeat_spn.setPreferredSize(new Dimension(75, 20));
+			repeatCount_spn.setPreferredSize(new Dimension(45, 20));
+			
+			eventReminderPanel.setLayout(new FlowLayout(FlowLayout.LEFT));
+			eventReminderPanel.add(reminder_spn);
+			reminder_spn.setPreferredSize(new Dimension(110, 20));
 			
 			eventOptionsPanel.add(eventDatePanel);
 			eventOptionsPanel.add(eventStartPanel);
 			eventOptionsPanel.add(eventEndPanel);
+			eventOptionsPanel.add(eventRepeatPanel);
+			eventOptionsPanel.add(eventReminderPanel);
 			
 			topLevelPanel.add(eventTitlePanel);
+			topLevelPanel.add(eventNotesPanel);
 			topLevelPanel.add(eventOptionsPanel);
 			topLevelPanel.add(status_txt);
 		} // layoutDialogComponents()
@@ -699,10 +1161,13 @@ public class CalendarAppFrame extends JFrame implements ChangeListener{
 			
 			setTitle("Create New Event");
 			eventTitle_txt.setText("Untitled Event");
+			eventNotes_txt.setText("");
 			topLevelPanel.setBorder(BorderFactory.createTitledBorder("Create a new event:"));
 			eventDatePanel.setBorder(BorderFactory.createTitledBorder("date"));
 			eventStartPanel.setBorder(BorderFactory.createTitledBorder("start"));
 			eventEndPanel.setBorder(BorderFactory.createTitledBorder("end"));
+			eventRepeatPanel.setBorder(BorderFactory.createTitledBorder("repeat"));
+			eventReminderPanel.setBorder(BorderFactory.createTitledBorder("remind"));
 			
 			eventMonth_spn.setValue(MONTHS.values()[selectedDate.get(Calendar.MONTH)]);
 			
@@ -724,6 +1189,12 @@ public class CalendarAppFrame extends JFrame implements ChangeListener{
 			endHour_spn.setValue(0);
 			endMinute_spn.setValue(0);
 			endSegment_spn.setValue(SEGMENTS.AM);
+			endDays_spn.setValue(0);
+			prefillFreeSlot(selectedDate);
+			
+			repeat_spn.setValue(REPEATS.Never);
+			repeatCount_spn.setValue(0);
+			reminder_spn.setValue(REMINDERS.None);
 			
 			status_txt.setForeground(Color.RED);
 			Font currentFont = status_txt.getFont();
@@ -745,12 +1216,7 @@ public class CalendarAppFrame extends JFrame implements ChangeListener{
 					ActionListener()
 					{@Override
 						public void actionPerformed(ActionEvent e) {
-							model.addEvent(new 
-									CalendarEvent((GregorianCalendar)eventStart.clone(), 
-												  (GregorianCalendar)eventEnd.clone(), 
-												  eventTitle_txt.getText()));
-							// TODO remove debugging statement
-							model.printEvents();
+							model.addEvent(buildEvent(eventTitle_txt.getText()));
 							dispose();
 						}});
 			
@@ -771,11 +1237,13 @@ public class CalendarAppFrame extends JFrame implements ChangeListener{
 						{@Override
 							public void stateChanged(ChangeEvent arg0) {
 								validateSpinners();
-								checkForConflicts();								
-								updateStatus();
+								scheduleConflictCheck();
 							}});
 			} // for(spinners)
 			
+			// conflict checks wait for the spinners to settle, then run once
+			conflictTimer.setRepeats(false);
+			
 			// whenever the title changes, confirms the change results in a valid title
 			//		or displays an error message and disables the save key
 			eventTitle_txt.addKeyListener(new 
@@ -802,13 +1270,70 @@ public class CalendarAppFrame extends JFrame implements ChangeListener{
 			spinners.add(endHour_spn);
 			spinners.add(endMinute_spn);
 			spinners.add(endSegment_spn);
+			spinners.add(endDays_spn);
+			spinners.add(repeat_spn);
+			spinners.add(repeatCount_spn);
+			spinners.add(reminder_spn);
+		}
+		
+		/**
+		 * Utility method - moves the start and end spinners to the first free time on the given
+		 * 						day (from now on, if it is today) with room for an event of
+		 * 						DEFAULT_DURATION, preferring working hours. If the day has no
+		 * 						room the spinners are left at midnight
+		 * @param day	the selected date
+		 */
+		private void prefillFreeSlot(GregorianCalendar day)
+		{
+			long from = Math.max(CalendarSnapshot.dayStart(day), System.currentTimeMillis());
+			long to = CalendarSnapshot.dayEnd(day) - SUGGESTION_ALIGNMENT;	// the end spinners stop at 11:45 PM
+			List<TimeSlot> slots = model.findFreeSlots(from, to, DEFAULT_DURATION, WORKING_HOURS, SUGGESTION_ALIGNMENT);
+			if(slots.isEmpty()) slots = model.findFreeSlots(from, to, DEFAULT_DURATION, null, SUGGESTION_ALIGNMENT);
+			if(slots.isEmpty()) return;
+			
+			GregorianCalendar start = model.getDisplayOffsets().toCalendar(slots.get(0).getStartMillis());
+			GregorianCalendar end = model.getDisplayOffsets().toCalendar(start.getTimeInMillis() + DEFAULT_DURATION);
+			setTimeSpinners(start, startHour_spn, startMinute_spn, startSegment_spn);
+			setTimeSpinners(end, endHour_spn, endMinute_spn, endSegment_spn);
+		}
+		
+		/**
+		 * Utility method - sets a group of hour, minute and AM/PM spinners to a time of day
+		 */
+		private static void setTimeSpinners(GregorianCalendar time, JSpinner hour_spn, JSpinner minute_spn, JSpinner segment_spn)
+		{
+			hour_spn.setValue(time.get(Calendar.HOUR));
+			minute_spn.setValue(time.get(Calendar.MINUTE));
+			segment_spn.setValue(time.get(Calendar.AM_PM) == Calendar.AM ? SEGMENTS.AM : SEGMENTS.PM);
+		}
+		
+		/**
+		 * Utility method - builds a CalendarEvent from the current values of the spinners
+		 * @param title		the title of the event
+		 * @return			a new CalendarEvent with any notes as its description, which repeats
+		 * 						if a repeat has been chosen and has the reminder chosen
+		 */
+		private CalendarEvent buildEvent(String title)
+		{
+			REPEATS repeat = (REPEATS) repeat_spn.getValue();
+			RecurrenceRule rule = null;
+			if(repeat != REPEATS.Never)
+				rule = new RecurrenceRule(RecurrenceRule.Frequency.valueOf(repeat.name().toUpperCase()), 
+						1, (Integer) repeatCount_spn.getValue(), Long.MAX_VALUE);
+			String notes = eventNotes_txt.getText().trim();
+			return new CalendarEvent(eventStart.getTimeInMillis(), eventEnd.getTimeInMillis(), title, 
+					notes.isEmpty() ? null : notes, rule, model.getDisplayOffsets().getId())
+					.withReminder(((REMINDERS) reminder_spn.getValue()).minutes);
 		}
 		
 		/**
 		 * Utility method - Collects all values from spinners, packages them into 
 		 * 						GregorianCalendar instances with the specified values,
 		 * 						and confirms they represent valid inputs for a CalendarEvent
-		 * 						constructor (e.g., start time is not after end time).
+		 * 						constructor (e.g., start time is not after end time). The
+		 * 						event ends on the start date, or as many days after it as
+		 * 						the end's day spinner says, so it may run over several days.
+		 * 						The times are by the clock of the display zone.
 		 * 		
 		 * 					Also sets a boolean field that remembers the result - saves a 
 		 * 						change in the text input field prompting an unnecessary 
@@ -819,7 +1344,6 @@ public class CalendarAppFrame extends JFrame implements ChangeListener{
 		 */
 		private boolean validateSpinners()
 		{
-			// CalendarApp assumes start and end times occur on the same day
 			Integer year = (Integer) eventYear_spn.getValue();
 			Integer month = ((MONTHS) eventMonth_spn.getValue()).ordinal();
 			Integer day = (Integer) eventDay_spn.getValue();
@@ -828,7 +1352,10 @@ public class CalendarAppFrame extends JFrame implements ChangeListener{
 			Integer hour = (Integer) startHour_spn.getValue();
 			hour = segment.equals("AM") ? hour : hour + 12;
 			Integer minute = (Integer) startMinute_spn.getValue();
-												
+			
+			TimeZone zone = model.getDisplayOffsets().getTimeZone();
+			eventStart.setTimeZone(zone);
+			eventEnd.setTimeZone(zone);
 			eventStart.set(year, month, day, hour, minute);
 			
 			segment = endSegment_spn.getValue().toString();
@@ -837,6 +1364,7 @@ public class CalendarAppFrame extends JFrame implements ChangeListener{
 			minute = (Integer) endMinute_spn.getValue();
 			
 			eventEnd.set(year,  month, day, hour, minute);
+			eventEnd.add(Calendar.DAY_OF_MONTH, (Integer) endDays_spn.getValue());
 			
 			// perform actual validation
 			if(eventStart.after(eventEnd))
@@ -875,26 +1403,79 @@ public class CalendarAppFrame extends JFrame implements ChangeListener{
 			return true;
 		} // validateTitle()
 		
+		/**
+		 * Utility method - (re)starts the countdown to a conflict check. Each spinner change
+		 * 						pushes the check back, so holding down a spinner arrow does
+		 * 						not start a check for every value it passes through
+		 */
+		private void scheduleConflictCheck()
+		{
+			conflictCheckPending = true;
+			updateStatus();
+			conflictTimer.restart();
+		}
+		
 		/**
 		 * Utility method - Constructs a scratch CalendarEvent using the current values 
-		 * 						and checks the model for scheduling conflicts.
-		 * @return			true if model contains conflicting events
-		 * 						false otherwise
+		 * 						and checks the model for scheduling conflicts on a background
+		 * 						thread, so a large calendar cannot stall the dialog. The same
+		 * 						query finds the nearest free time to suggest. Any check still
+		 * 						in progress is cancelled, and results from a cancelled check
+		 * 						are ignored
 		 */
-		private boolean checkForConflicts()
+		private void checkForConflicts()
 		{
-			noConflicts = false;
-			scratch = new CalendarEvent(eventStart, eventEnd, null);
-			if(model.hasConflictingEvent(scratch))
+			conflictTimer.stop();
+			if(conflictWorker != null) conflictWorker.cancel(true);
+			
+			final int generation = ++conflictGeneration;
+			if(!validSpinners)
 			{
-				errorMessages.add("This event conflicts with an existing event in the calendar.");
-				noConflicts = false;
+				// nothing sensible to check until the times are valid
+				conflictCheckPending = false;
 				updateStatus();
-				return false;
+				return;
 			}
-			noConflicts = true;
+			
+			conflictCheckPending = true;
 			updateStatus();
-			return true;
+			scratch = buildEvent(null);
+			final CalendarEvent proposed = scratch;
+			
+			conflictWorker = new 
+					SwingWorker<CalendarEvent, Void>()
+					{
+						@Override
+						protected CalendarEvent doInBackground() {
+							// no alternative time is suggested for a repeating event
+							if(proposed.isRecurring())
+								return model.hasConflictingEvent(proposed) ? null : proposed;
+							return model.findNearestFreeSlot(proposed, SUGGESTION_ALIGNMENT);
+						}
+						
+						@Override
+						protected void done() {
+							if(isCancelled() || generation != conflictGeneration) return;
+							
+							CalendarEvent nearest;
+							try {
+								nearest = get();
+							} catch (InterruptedException e) {
+								return;
+							} catch (ExecutionException e) {
+								e.printStackTrace();
+								return;
+							}
+							
+							conflictCheckPending = false;
+							noConflicts = nearest == proposed;
+							suggestion = noConflicts ? null : nearest;
+							if(!noConflicts)
+								errorMessages.add("This event conflicts with an existing event in the calendar.");
+							updateStatus();
+						}
+					};
+			conflictWorker.execute();
 		} // checkForConflicts()
 		
 		/**
@@ -905,7 +1486,7 @@ public class CalendarAppFrame extends JFrame implements ChangeListener{
 		private void updateStatus()
 		{
 			StringBuffer sb = new StringBuffer();
-			if(validTitle && validSpinners && noConflicts)
+			if(validTitle && validSpinners && noConflicts && !conflictCheckPending)
 			{
 				save_btn.setEnabled(true);
 			}
@@ -913,7 +1494,14 @@ public class CalendarAppFrame extends JFrame implements ChangeListener{
 			{
 				if(!validTitle) sb.append("This event requires a title\n");
 				if(!validSpinners) sb.append("Start time must not be after end time\n");
-				if(!noConflicts) sb.append("There is a conflicting event in the calendar already.");
+				if(validSpinners && conflictCheckPending) sb.append("Checking for conflicts...");
+				else if(validSpinners && !noConflicts)
+				{
+					sb.append("There is a conflicting event in the calendar already.");
+					if(suggestion != null)
+						sb.append("\nNearest free time: " + model.getDisplayOffsets().formatTime(suggestion.getStartMillis())
+								+ " - " + model.getDisplayOffsets().formatTime(suggestion.getEndMillis()));
+				}
 				save_btn.setEnabled(false);
 			}
 			status_txt.setText(sb.toString());
@@ -936,6 +1524,8 @@ public class CalendarAppFrame extends JFrame implements ChangeListener{
 		// Component fields
 		private static final JLabel eventTitle_lbl = new JLabel("Title:  ");
 		private static final JTextField eventTitle_txt = new JTextField("Untitled Event", 35);
+		private static final JLabel eventNotes_lbl = new JLabel("Notes:  ");
+		private static final JTextField eventNotes_txt = new JTextField("", 35);
 		private static final JTextArea status_txt = new JTextArea(3, 50);
 				
 		private static final JSpinner eventMonth_spn = new JSpinner(new SpinnerListModel(MONTHS.values()));
@@ -947,15 +1537,24 @@ public class CalendarAppFrame extends JFrame implements ChangeListener{
 		private static final JSpinner endHour_spn = new JSpinner(new SpinnerNumberModel(0, 0, 11, 1));
 		private static final JSpinner endMinute_spn = new JSpinner(new SpinnerNumberModel(0, 0, 45, 15));
 		private static final JSpinner endSegment_spn = new JSpinner(new SpinnerListModel(SEGMENTS.values()));
+		private static final JSpinner endDays_spn = new JSpinner(new SpinnerNumberModel(0, 0, 366, 1));
+		private static final JLabel endDays_lbl = new JLabel("days later");
+		private static final JSpinner repeat_spn = new JSpinner(new SpinnerListModel(REPEATS.values()));
+		private static final JSpinner repeatCount_spn = new JSpinner(new SpinnerNumberModel(0, 0, 999, 1));
+		private static final JLabel repeatCount_lbl = new JLabel("times (0: no end)");
+		private static final JSpinner reminder_spn = new JSpinner(new SpinnerListModel(REMINDERS.values()));
 
 		private final ArrayList<JSpinner> spinners = new ArrayList<JSpinner>();
 		
 		private static final JPanel topLevelPanel = new JPanel();
 		private static final JPanel eventTitlePanel = new JPanel();
+		private static final JPanel eventNotesPanel = new JPanel();
 		private static final JPanel eventOptionsPanel = new JPanel();
 		private static final JPanel eventDatePanel = new JPanel();
 		private static final JPanel eventStartPanel = new JPanel();
 		private static final JPanel eventEndPanel = new JPanel();
+		private static final JPanel eventRepeatPanel = new JPanel();
+		private static final JPanel eventReminderPanel = new JPanel();
 		
 		private static final JButton save_btn = new JButton("Save");
 		private static final JButton cancel_btn = new JButton("Cancel");
@@ -964,6 +1563,23 @@ public class CalendarAppFrame extends JFrame implements ChangeListener{
 		
 		// other fields
 		private CalendarEvent scratch;
+		private CalendarEvent suggestion;	// nearest conflict-free alternative to scratch, if any
+		
+		// asynchronous conflict checking
+		private static final int CONFLICT_CHECK_DELAY = 250;	// milliseconds of quiet before checking
+		private static final long SUGGESTION_ALIGNMENT = 15 * 60 * 1000;	// spinners move in 15 minutes
+		
+		// the time a new event is given by default
+		private static final long DEFAULT_DURATION = 60 * 60 * 1000;
+		private static final WorkingHours WORKING_HOURS = new WorkingHours(9 * 60, 17 * 60);
+		private SwingWorker<CalendarEvent, Void> conflictWorker;
+		private int conflictGeneration;
+		private boolean conflictCheckPending;
+		private final Timer conflictTimer = new Timer(CONFLICT_CHECK_DELAY, new 
+				ActionListener()
+				{@Override
+					public void actionPerformed(ActionEvent e) {checkForConflicts();}
+				});
 		
 		private static final GregorianCalendar eventStart = new GregorianCalendar();
 		private static final GregorianCalendar eventEnd = new GregorianCalendar();
@@ -1023,32 +1639,55 @@ public class CalendarAppFrame extends JFrame implements ChangeListener{
 		private int value;
 	}
 
+	/**
+	 * This JLabel subclass marks one event on the schedule, at the height of its times of day.
+	 * 		An event that runs over several days is marked by the segment that falls on the
+	 * 		day shown: from the top of the schedule if it began on an earlier day, and to the
+	 * 		bottom if it goes on into the next
+	 * @author Iain Davis
+	 */
 	private class EventMarker extends JLabel
 	{
-		private EventMarker(CalendarEvent event_in)
+		/**
+		 * Constructor
+		 * @param event_in		the event to mark
+		 * @param dayStart_in	the first instant of the day on display
+		 * @param dayEnd_in		the first instant of the following day
+		 */
+		private EventMarker(CalendarEvent event_in, long dayStart_in, long dayEnd_in)
 		{ 
 			//super();
 			event = event_in;
+			continuedFrom = event.getStartMillis() < dayStart_in;
+			continuesTo = event.getEndMillis() > dayEnd_in;
 			setBackground(new Color(0x88D3C5));
 			setBorder(BorderFactory.createEtchedBorder(EtchedBorder.LOWERED));
 			sb = new StringBuffer();
 			
-			sb.append(CalendarModel.getFormattedTime(event.getStart()));
-			sb.append(" - " + CalendarModel.getFormattedTime(event.getEnd()));
+			// times are shown by the display zone's clock, looked up in its offset table
+			ZoneOffsets zone = model.getDisplayOffsets();
+			int startMinute = zone.getMinuteOfDay(event.getStartMillis());
+			
+			// times on other days than the one shown carry their dates
+			if(continuedFrom) sb.append("\u25B2 " + CalendarModel.getFormattedDate(zone.toCalendar(event.getStartMillis())) + " ");
+			sb.append(zone.formatTime(event.getStartMillis()));
+			sb.append(" - ");
+			if(continuesTo) sb.append(CalendarModel.getFormattedDate(zone.toCalendar(event.getEndMillis())) + " ");
+			sb.append(zone.formatTime(event.getEndMillis()));
 			sb.append(":  " + event.getTitle());
+			if(continuesTo) sb.append(" \u25BC");
 			setText(sb.toString());
 			
 			setToolTipText(sb.toString());
 			
 			setOpaque(true);
 			
-			double start_h = event.getStart().get(Calendar.HOUR_OF_DAY);
-			double start_m = event.getStart().get(Calendar.MINUTE);
-			double start_y = 2.0/3.0 * (start_h*60 + start_m); 
+			// only the part of the event on the day shown
+			double start_y = 0;
+			if(!continuedFrom) start_y = 2.0/3.0 * startMinute;
 			
-			double end_h = event.getEnd().get(Calendar.HOUR_OF_DAY);
-			double end_m = event.getEnd().get(Calendar.MINUTE);
-			double end_y = 2.0/3.0 * (end_h*60 + end_m);
+			double end_y = 2.0/3.0 * 24 * 60;
+			if(event.getEndMillis() < dayEnd_in) end_y = 2.0/3.0 * zone.getMinuteOfDay(event.getEndMillis());
 			
 			double height = end_y - start_y;
 			if(Math.abs(height) <= 0.00001)
@@ -1056,7 +1695,7 @@ public class CalendarAppFrame extends JFrame implements ChangeListener{
 				setText("");
 				height = 6.0;
 				
-				if(event.getStart().get(Calendar.HOUR_OF_DAY) != 0)
+				if(startMinute >= 60)
 				{
 					start_y -= 3;
 				}
@@ -1071,10 +1710,11 @@ public class CalendarAppFrame extends JFrame implements ChangeListener{
 						public void mouseClicked(MouseEvent e)
 						{
 							final int DELETE = 0;
-							final int OKAY = 1;
+							final int DELETE_ALL = 1;	// occurrences of repeating events only
 							System.out.println("====EVENT CLICKED====");
 							System.out.println(event.toString());
 							
+							boolean repeating = event.getSeries() != null;
 							int result = JOptionPane.showOptionDialog(
 												frame, 
 												event.toString(), 
@@ -1082,21 +1722,106 @@ public class CalendarAppFrame extends JFrame implements ChangeListener{
 												JOptionPane.DEFAULT_OPTION, 
 												JOptionPane.PLAIN_MESSAGE, 
 												null, 
-												new String[] {"Delete", "OK"}, 
+												repeating ? new String[] {"Delete", "Delete all", "OK"} 
+														: new String[] {"Delete", "OK"}, 
 												"OK");
 							
 							if(result == DELETE)
 							{
 								model.deleteEvent(event);
 							}
+							else if(repeating && result == DELETE_ALL)
+							{
+								model.deleteEvent(event.getSeries());
+							}
 						}
 						
 						private final JButton delete_btn = new JButton();
 						private final JButton ok_btn = new JButton();
 					});
+			
+			// dragging the marker moves the event; dragging its bottom edge changes its end
+			MouseAdapter dragger = new
+					MouseAdapter()
+					{
+						@Override
+						public void mouseMoved(MouseEvent e)
+						{setCursor(Cursor.getPredefinedCursor(onResizeEdge(e) ? Cursor.S_RESIZE_CURSOR : Cursor.MOVE_CURSOR));}
+						
+						@Override
+						public void mousePressed(MouseEvent e)
+						{
+							pressY = e.getYOnScreen();
+							pressBounds = getBounds();
+							resizing = onResizeEdge(e);
+						}
+						
+						@Override
+						public void mouseDragged(MouseEvent e)
+						{
+							if(pressBounds == null) return;
+							int dy = (int) Math.round(snapMinutes(e) * 2.0 / 3.0);
+							if(resizing)
+								setSize(pressBounds.width, Math.max(MIN_HEIGHT, pressBounds.height + dy));
+							else
+								setLocation(pressBounds.x, Math.max(0, Math.min(960 - pressBounds.height, pressBounds.y + dy)));
+						}
+						
+						@Override
+						public void mouseReleased(MouseEvent e)
+						{
+							if(pressBounds == null) return;
+							Rectangle original = pressBounds;
+							pressBounds = null;
+							long delta = snapMinutes(e) * MILLIS_PER_MINUTE;
+							if(delta == 0) {setBounds(original); return;}
+							
+							long start = event.getStartMillis(), end = event.getEndMillis();
+							CalendarEvent changed = resizing
+									? event.withTimes(start, Math.max(start + SNAP_MINUTES * MILLIS_PER_MINUTE, end + delta))
+									: event.withTimes(start + delta, end + delta);
+							
+							// on success the schedule reloads, replacing this marker
+							if(!model.updateEvent(event, changed))
+							{
+								setBounds(original);
+								JOptionPane.showMessageDialog(frame, 
+										"The event cannot be " + (resizing ? "resized" : "moved") 
+											+ " there: it would conflict with another event.", 
+										event.getTitle(), 
+										JOptionPane.WARNING_MESSAGE);
+							}
+						}
+						
+						/**
+						 * Utility method - converts the distance dragged so far into minutes,
+						 * 						rounded to the nearest SNAP_MINUTES
+						 */
+						private long snapMinutes(MouseEvent e)
+						{return Math.round((e.getYOnScreen() - pressY) * 1.5 / SNAP_MINUTES) * SNAP_MINUTES;}
+						
+						/**
+						 * Boolean utility method - checks whether the mouse is over the bottom
+						 * 								edge, when that is the end of the event
+						 */
+						private boolean onResizeEdge(MouseEvent e)
+						{return !continuesTo && e.getY() >= getHeight() - RESIZE_MARGIN;}
+					};
+			addMouseListener(dragger);
+			addMouseMotionListener(dragger);
 		}
 		
 		private StringBuffer sb;
 		private CalendarEvent event;
+		private final boolean continuedFrom;	// true if the event began before the day shown
+		private final boolean continuesTo;		// true if the event ends after the day shown
+		private int pressY;					// screen y-coordinate at which the current drag began
+		private Rectangle pressBounds;		// the marker's bounds when it began, or null if no drag
+		private boolean resizing;			// true if the drag changes the end time only
+		
+		private static final int SNAP_MINUTES = 15;		// drags move times in steps of this size
+		private static final int RESIZE_MARGIN = 4;		// height of the grip along the bottom edge
+		private static final int MIN_HEIGHT = 6;
+		private static final long MILLIS_PER_MINUTE = 60 * 1000L;
 	}
 }
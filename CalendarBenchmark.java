@@ -0,0 +1,213 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Comparator;
+import java.util.GregorianCalendar;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Consumer;
+
+import benchmark.CalendarOperations;
+
+/**
+ * The model operations the user interface calls on every click - getEvents(date),
+ * 		hasEvents(date), hasConflictingEvent(), addEvent(), flushToDisk() and loading the
+ * 		events file, plus the CalendarEvent comparators - against a synthetic calendar of a
+ * 		given size.
+ *
+ * JMH will not generate benchmarks for a class in the default package, and a class in a
+ * 		package cannot name this one, so benchmark.ModelBenchmark holds the @Benchmark methods
+ * 		and the @Param sizes, loads this class by name, and calls these through the
+ * 		CalendarOperations interface.
+ *
+ * Usage (see pom.xml):
+ * 		mvn package
+ * 		java -jar target/benchmarks.jar [JMH options, e.g. -p size=1000,100000 or getEvents]
+ *
+ * @author Iain Davis
+ */
+public class CalendarBenchmark implements CalendarOperations {
+	/**
+	 * Constructor - builds a synthetic calendar of the given size in a scratch directory, and
+	 * 		writes it to disk
+	 * @param size_in	the number of events in the calendar
+	 */
+	public CalendarBenchmark(int size_in) throws IOException
+	{
+		size = size_in;
+		scratch = Files.createTempDirectory("calendar-bench").toFile();
+		eventsFile = new File(scratch, "events.dat");
+
+		// keep the model's start-up messages out of the results
+		PrintStream console = System.out;
+		System.setOut(new PrintStream(new OutputStream() {
+			@Override public void write(int b) {}
+		}));
+		try
+		{
+			model = new CalendarModel(eventsFile);
+			synthetic = syntheticEvents(size);
+			model.mutate(new
+					Consumer<CalendarModel.Batch>()
+					{@Override
+						public void accept(CalendarModel.Batch batch) {for(CalendarEvent ce : synthetic) {batch.add(ce);}}
+					});
+			model.flushToDisk();
+		}
+		finally {System.setOut(console);}
+
+		random = new Random(42);
+		firstDay = synthetic.get(0).getStartMillis();
+		lastDay = synthetic.get(synthetic.size() - 1).getStartMillis();
+	}
+
+	/**
+	 * Mutator method - removes the scratch directory
+	 */
+	@Override
+	public void close()
+	{
+		model.flushToDisk();	// waits for any compaction still writing there
+		for(File f : scratch.listFiles()) {f.delete();}
+		scratch.delete();
+	}
+
+	/**
+	 * Utility method - the events of a random date
+	 */
+	@Override
+	public int getEvents()
+	{return model.getEvents(randomDate()).size();}
+
+	/**
+	 * Utility method - whether a random date has events
+	 */
+	@Override
+	public boolean hasEvents()
+	{return model.hasEvents(randomDate());}
+
+	/**
+	 * Utility method - the per-day counts of the month grid around a random date
+	 */
+	@Override
+	public int[] getMonthGridOccupancy()
+	{return model.getMonthGridOccupancy(randomDate());}
+
+	/**
+	 * Utility method - checks a half-hour event at a random time for conflicts
+	 */
+	@Override
+	public boolean hasConflictingEvent()
+	{
+		long start = randomTime();
+		return model.hasConflictingEvent(new CalendarEvent(start, start + HOUR / 2, "probe"));
+	}
+
+	/**
+	 * Utility method - adds an event into a free slot (before the first event of the day -
+	 * 						see syntheticEvents()) and deletes it again, so the size of the
+	 * 						calendar stays constant (and the journal write of each change is
+	 * 						included)
+	 */
+	@Override
+	public boolean addAndDeleteEvent()
+	{
+		GregorianCalendar day = randomDate();
+		day.set(Calendar.HOUR_OF_DAY, 0);
+		day.set(Calendar.MINUTE, 0);
+		day.set(Calendar.SECOND, 0);
+		day.set(Calendar.MILLISECOND, 0);
+		long start = day.getTimeInMillis() + random.nextInt((int) (FREE_HOURS / SLOT)) * SLOT;
+		CalendarEvent ce = new CalendarEvent(start, start + SLOT, "probe");
+		if(!model.addEvent(ce)) throw new IllegalStateException("probe slot was not free: " + ce);
+		return model.deleteEvent(ce);
+	}
+
+	/**
+	 * Utility method - compares two random events by start time
+	 */
+	@Override
+	public int compareByStart()
+	{return BY_START.compare(synthetic.get(random.nextInt(size)), synthetic.get(random.nextInt(size)));}
+
+	/**
+	 * Utility method - compares two random events by end time
+	 */
+	@Override
+	public int compareByEnd()
+	{return BY_END.compare(synthetic.get(random.nextInt(size)), synthetic.get(random.nextInt(size)));}
+
+	/**
+	 * Utility method - writes the whole calendar to disk
+	 */
+	@Override
+	public void flushToDisk()
+	{model.flushToDisk();}
+
+	/**
+	 * Utility method - reads the whole events file back
+	 */
+	@Override
+	public int readInEvents() throws IOException
+	{return EventFileFormat.read(eventsFile).size();}
+
+	/**
+	 * Utility method - generates a calendar of non-overlapping events: one to five events of
+	 * 						15 to 90 minutes on each day, on 15-minute boundaries, starting in
+	 * 						January 2000 and running for as many days as the size requires.
+	 * 						The hours before FREE_HOURS are left empty every day (the last
+	 * 						event ends by 19:15), so the add benchmark always has room
+	 */
+	static List<CalendarEvent> syntheticEvents(int size)
+	{
+		Random random = new Random(size);
+		List<CalendarEvent> result = new ArrayList<CalendarEvent>(size);
+		GregorianCalendar day = new GregorianCalendar(2000, Calendar.JANUARY, 1);
+
+		while(result.size() < size)
+		{
+			int perDay = 1 + random.nextInt(5);
+			long slot = day.getTimeInMillis() + FREE_HOURS;	// first event no earlier than 8am
+			for(int i = 0; i < perDay && result.size() < size; i++)
+			{
+				long start = slot + random.nextInt(4) * SLOT;
+				long end = start + (1 + random.nextInt(6)) * SLOT;
+				result.add(new CalendarEvent(start, end, TITLES[random.nextInt(TITLES.length)]));
+				slot = end;
+			}
+			day.add(Calendar.DAY_OF_MONTH, 1);
+		}
+		return result;
+	}
+
+	private GregorianCalendar randomDate()
+	{
+		GregorianCalendar gc = new GregorianCalendar();
+		gc.setTimeInMillis(randomTime());
+		return gc;
+	}
+
+	private long randomTime()
+	{return firstDay + (long) (random.nextDouble() * (lastDay - firstDay));}
+
+	private static final String[] TITLES = {"Stand-up", "Review", "Lunch", "Planning", "1:1", "Lab", "Lecture"};
+	private static final long MINUTE = 60 * 1000;
+	private static final long SLOT = 15 * MINUTE;
+	private static final long HOUR = 60 * MINUTE;
+	private static final long FREE_HOURS = 8 * HOUR;	// each day up to 8am has no events
+	private static final Comparator<CalendarEvent> BY_START = CalendarEvent.getComparator(CalendarEvent.Field.EVENT_START);
+	private static final Comparator<CalendarEvent> BY_END = CalendarEvent.getComparator(CalendarEvent.Field.EVENT_END);
+
+	private final int size;			// events in the calendar
+	private File scratch;
+	private File eventsFile;
+	private CalendarModel model;
+	private List<CalendarEvent> synthetic;
+	private Random random;
+	private long firstDay;
+	private long lastDay;
+}
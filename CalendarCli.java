@@ -0,0 +1,412 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Command-line front end to CalendarModel, for scripted and batch work on an events file
+ * 		without starting the graphical user interface (AWT is never initialized).
+ *
+ * Usage:
+ * 		java -cp <classes> CalendarCli [--file events.dat] [--calendar name] <command> [arguments]
+ *
+ * Without --calendar, commands work on all of the model's calendars (and import adds to the
+ * 		default calendar); with it, on the named calendar alone (import creates it if needed).
+ *
+ * Commands:
+ * 		query <from> <to>		lists the events overlapping [from, to) as CSV
+ * 		free <from> <to> <min>	lists the free slots of at least min minutes in [from, to)
+ * 		import <file>			adds the events in a CSV or iCalendar (.ics) file, reporting any
+ * 								that conflict
+ * 		export <file | ->		writes every event as CSV, or as iCalendar to a file named
+ * 								*.ics (to standard output, as CSV, for "-")
+ * 		conflicts				lists pairs of stored events that conflict with each other
+ * 		stats					prints the number of events and the span of time they cover
+ *
+ * Times are written "yyyy-MM-dd HH:mm" in the default time zone. CSV lines have the form
+ * 		start,end,title - the title is the last field and may itself contain commas.
+ *
+ * @author Iain Davis
+ */
+public class CalendarCli {
+	public static void main(String[] args)
+	{
+		System.setProperty("java.awt.headless", "true");
+
+		File file = new File("events.dat");
+		String calendar = null;
+		int next = 0;
+		while(next + 1 < args.length && args[next].startsWith("--"))
+		{
+			if(args[next].equals("--file")) file = new File(args[next + 1]);
+			else if(args[next].equals("--calendar")) calendar = args[next + 1];
+			else usage();
+			next += 2;
+		}
+		if(next >= args.length) usage();
+
+		String command = args[next++];
+		int status = 0;
+		try {
+			if(command.equals("query") && args.length - next == 2)
+			{
+				CalendarModel model = open(file, calendar, false);
+				status = query(model, parseTime(args[next]), parseTime(args[next + 1]));
+			}
+			else if(command.equals("free") && args.length - next == 3)
+			{
+				CalendarModel model = open(file, calendar, false);
+				status = free(model, parseTime(args[next]), parseTime(args[next + 1]), parseMinutes(args[next + 2]));
+			}
+			else if(command.equals("import") && args.length - next == 1)
+			{
+				CalendarModel model = open(file, calendar, true);
+				File source = new File(args[next]);
+				status = isICalendar(args[next]) ? importICalendar(model, calendar, source)
+						: importEvents(model, calendar, source);
+			}
+			else if(command.equals("export") && args.length - next == 1)
+			{
+				CalendarModel model = open(file, calendar, false);
+				status = exportEvents(model, args[next]);
+			}
+			else if(command.equals("conflicts") && args.length == next)
+			{
+				CalendarModel model = open(file, calendar, false);
+				status = reportConflicts(model);
+			}
+			else if(command.equals("stats") && args.length == next)
+			{
+				CalendarModel model = open(file, calendar, false);
+				status = stats(model);
+			}
+			else usage();
+		} catch (ParseException e) {
+			System.err.println("Bad time \"" + e.getMessage() + "\"; expected " + TIME_PATTERN);
+			status = 2;
+		} catch (IOException e) {
+			e.printStackTrace();
+			status = 1;
+		}
+		System.exit(status);
+	} // main()
+
+	/**
+	 * Utility method - loads the model and, if a calendar was named, hides every other calendar
+	 * 						so that the queries see that one alone
+	 * @param create	true to create the named calendar if it does not exist
+	 */
+	private static CalendarModel open(File file, String calendar, boolean create)
+	{
+		CalendarModel model = new CalendarModel(file);
+		if(calendar == null) return model;
+
+		if(!model.getCalendarNames().contains(calendar) && !(create && model.addCalendar(calendar)))
+		{
+			System.err.println("No calendar \"" + calendar + "\" (names may use letters, digits, '_' and '-')");
+			System.exit(2);
+		}
+		for(String name : model.getCalendarNames()) {model.setCalendarVisible(name, name.equals(calendar));}
+		return model;
+	}
+
+	/**
+	 * Utility method - prints the events overlapping a span of time
+	 */
+	private static int query(CalendarModel model, long from, long to) throws IOException
+	{
+		Writer out = standardOut();
+		for(CalendarEvent ce : model.getEventsBetween(from, to)) {writeLine(out, ce);}
+		out.flush();
+		return 0;
+	}
+
+	/**
+	 * Utility method - prints the free time in a span, as "start,end" lines. Conflict checks
+	 * 						consider every calendar, so free time does too, whatever --calendar
+	 * 						says
+	 */
+	private static int free(CalendarModel model, long from, long to, long duration) throws IOException
+	{
+		Writer out = standardOut();
+		for(TimeSlot slot : model.findFreeSlots(from, to, duration, null, MILLIS_PER_MINUTE))
+		{
+			out.write(formatTime(slot.getStartMillis()) + "," + formatTime(slot.getEndMillis()));
+			out.write('\n');
+		}
+		out.flush();
+		return 0;
+	}
+
+	/**
+	 * Utility method - reads events from a CSV file and adds them to the model in batches,
+	 * 						so that memory use stays bounded however large the file is
+	 * @return	0 if every event was added, 1 if some were rejected or could not be read
+	 */
+	private static int importEvents(CalendarModel model, String calendar, File csv) throws IOException
+	{
+		BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(csv), StandardCharsets.UTF_8));
+		int lineNumber = 0, read = 0, rejected = 0, malformed = 0;
+		List<CalendarEvent> chunk = new ArrayList<CalendarEvent>(IMPORT_BATCH_SIZE);
+		String target = calendar == null ? CalendarModel.DEFAULT_CALENDAR : calendar;
+		try
+		{
+			String line;
+			while((line = in.readLine()) != null)
+			{
+				lineNumber++;
+				if(line.trim().isEmpty()) continue;
+				try {
+					chunk.add(parseLine(line));
+					read++;
+				} catch (ParseException e) {
+					System.err.println(csv + ":" + lineNumber + ": cannot parse \"" + line + "\"");
+					malformed++;
+				}
+				if(chunk.size() == IMPORT_BATCH_SIZE)
+				{
+					rejected += reportRejected(model.addEvents(target, chunk));
+					chunk.clear();
+				}
+			}
+			if(!chunk.isEmpty()) rejected += reportRejected(model.addEvents(target, chunk));
+		}
+		finally {in.close();}
+		model.flushToDisk();
+
+		System.err.println("Imported " + (read - rejected) + " of " + read + " events ("
+				+ rejected + " conflicting, " + malformed + " unreadable lines)");
+		return rejected == 0 && malformed == 0 ? 0 : 1;
+	} // importEvents()
+
+	/**
+	 * Utility method - reads events from an iCalendar file and adds them to the model a chunk
+	 * 						at a time as they are parsed (see ICalendarFormat.read())
+	 * @return	0 if every event was added, 1 if some were rejected or could not be read
+	 */
+	private static int importICalendar(final CalendarModel model, final String calendar, File ics) throws IOException
+	{
+		final int[] rejected = new int[1], malformed = new int[1];
+		final String source = ics.toString();
+		final String target = calendar == null ? CalendarModel.DEFAULT_CALENDAR : calendar;
+		ICalendarFormat.Loader loader = new
+				ICalendarFormat.Loader()
+				{
+					@Override
+					public List<CalendarEvent> add(List<CalendarEvent> events)
+					{
+						List<CalendarEvent> notAdded = model.addEvents(target, events);
+						rejected[0] += reportRejected(notAdded);
+						return notAdded;
+					}
+
+					@Override
+					public boolean update(CalendarEvent occurrence, CalendarEvent updated)
+					{return model.updateEvent(occurrence, updated);}
+
+					@Override
+					public boolean delete(CalendarEvent occurrence)
+					{return model.deleteEvent(occurrence);}
+
+					@Override
+					public void unreadable(int lineNumber, String reason)
+					{
+						System.err.println(source + ":" + lineNumber + ": cannot read event: " + reason);
+						malformed[0]++;
+					}
+				};
+		
+		Reader in = new InputStreamReader(new FileInputStream(ics), StandardCharsets.UTF_8);
+		int read;
+		try {read = ICalendarFormat.read(in, loader);}
+		finally {in.close();}
+		model.flushToDisk();
+
+		System.err.println("Imported " + (read - rejected[0]) + " of " + read + " events ("
+				+ rejected[0] + " conflicting, " + malformed[0] + " unreadable or conflicting changes)");
+		return rejected[0] == 0 && malformed[0] == 0 ? 0 : 1;
+	} // importICalendar()
+
+	/**
+	 * Utility method - writes every event in the model as CSV, or as iCalendar if the
+	 * 						destination is a .ics file
+	 */
+	private static int exportEvents(CalendarModel model, String destination) throws IOException
+	{
+		Writer out = destination.equals("-") ? standardOut() : new BufferedWriter(new
+				OutputStreamWriter(new FileOutputStream(destination), StandardCharsets.UTF_8), 1 << 16);
+		try
+		{
+			if(out != standardOut && isICalendar(destination)) ICalendarFormat.write(out, model.getAllEvents());
+			else for(CalendarEvent ce : model.getAllEvents()) {writeLine(out, ce);}
+		}
+		finally
+		{
+			if(out == standardOut) out.flush();
+			else out.close();
+		}
+		return 0;
+	}
+
+	/**
+	 * Utility method - sweeps the events in start-time order, keeping the end times of the
+	 * 						events still running in a heap, and prints each pair that conflicts
+	 * 						(overlapping time-spans, or starts in the same minute). Files
+	 * 						written by the model should have none; this finds damage or
+	 * 						hand-edited data
+	 * @return	0 if there were no conflicts, 1 otherwise
+	 */
+	private static int reportConflicts(CalendarModel model) throws IOException
+	{
+		Writer out = standardOut();
+		PriorityQueue<CalendarEvent> running = new PriorityQueue<CalendarEvent>(11,
+				CalendarEvent.getComparator(CalendarEvent.Field.EVENT_END));
+		CalendarEvent previous = null;
+		int conflicts = 0;
+
+		for(CalendarEvent ce : model.getAllEvents())
+		{
+			while(!running.isEmpty() && running.peek().getEndMillis() <= ce.getStartMillis()) {running.poll();}
+
+			for(CalendarEvent other : running)
+			{
+				writePair(out, other, ce);
+				conflicts++;
+			}
+			// a same-minute start that does not overlap (e.g. a zero-length event) is not in the heap
+			if(previous != null && previous.getEndMillis() <= ce.getStartMillis()
+					&& Math.floorDiv(previous.getStartMillis(), MILLIS_PER_MINUTE)
+						== Math.floorDiv(ce.getStartMillis(), MILLIS_PER_MINUTE))
+			{
+				writePair(out, previous, ce);
+				conflicts++;
+			}
+
+			running.add(ce);
+			previous = ce;
+		}
+		out.flush();
+		System.err.println(conflicts + " conflicts");
+		return conflicts == 0 ? 0 : 1;
+	} // reportConflicts()
+
+	/**
+	 * Utility method - prints the size and extent of the calendar
+	 */
+	private static int stats(CalendarModel model) throws IOException
+	{
+		long first = Long.MAX_VALUE, last = Long.MIN_VALUE;
+		int count = 0;
+		for(CalendarEvent ce : model.getAllEvents())
+		{
+			if(count++ == 0) first = ce.getStartMillis();
+			last = Math.max(last, ce.getEndMillis());
+		}
+
+		System.out.println("events: " + count);
+		if(count > 0)
+		{
+			System.out.println("first:  " + formatTime(first));
+			System.out.println("last:   " + formatTime(last));
+		}
+		return 0;
+	}
+
+	private static boolean isICalendar(String fileName)
+	{return fileName.toLowerCase().endsWith(".ics");}
+
+	private static int reportRejected(List<CalendarEvent> rejected)
+	{
+		for(CalendarEvent ce : rejected)
+		{System.err.println("Conflict, not imported: " + formatLine(ce));}
+		return rejected.size();
+	}
+
+	private static CalendarEvent parseLine(String line) throws ParseException
+	{
+		String[] fields = line.split(",", 3);
+		if(fields.length < 2) throw new ParseException(line, 0);
+		long start = parseTime(fields[0]);
+		long end = parseTime(fields[1]);
+		if(end < start) throw new ParseException(line, 0);
+		return new CalendarEvent(start, end, fields.length == 3 ? fields[2] : "");
+	}
+
+	private static long parseTime(String s) throws ParseException
+	{
+		try {return timeFormat.parse(s.trim()).getTime();}
+		catch (ParseException e) {throw new ParseException(s, e.getErrorOffset());}
+	}
+
+	private static long parseMinutes(String s)
+	{
+		try {
+			long minutes = Long.parseLong(s.trim());
+			if(minutes >= 0) return minutes * MILLIS_PER_MINUTE;
+		} catch (NumberFormatException e) {}
+		System.err.println("Bad duration \"" + s + "\"; expected a number of minutes");
+		System.exit(2);
+		return 0;
+	}
+
+	private static String formatTime(long millis)
+	{return timeFormat.format(new Date(millis));}
+
+	private static String formatLine(CalendarEvent ce)
+	{
+		return formatTime(ce.getStartMillis()) + "," + formatTime(ce.getEndMillis()) + ","
+				+ (ce.getTitle() == null ? "" : ce.getTitle());
+	}
+
+	private static void writeLine(Writer out, CalendarEvent ce) throws IOException
+	{
+		out.write(formatLine(ce));
+		out.write('\n');
+	}
+
+	private static void writePair(Writer out, CalendarEvent a, CalendarEvent b) throws IOException
+	{
+		out.write(formatLine(a));
+		out.write(" | ");
+		out.write(formatLine(b));
+		out.write('\n');
+	}
+
+	private static Writer standardOut()
+	{
+		if(standardOut == null)
+			standardOut = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8), 1 << 16);
+		return standardOut;
+	}
+
+	private static void usage()
+	{
+		System.err.println("usage: CalendarCli [--file events.dat] [--calendar name] <command> [arguments]");
+		System.err.println("  query <from> <to>       events overlapping [from, to), times as \"" + TIME_PATTERN + "\"");
+		System.err.println("  free <from> <to> <min>  free slots of at least min minutes in [from, to)");
+		System.err.println("  import <file>           add events from an .ics file or CSV lines \"start,end,title\"");
+		System.err.println("  export <file | ->       write every event as CSV, or as iCalendar to a .ics file");
+		System.err.println("  conflicts               list stored events that conflict");
+		System.err.println("  stats                   count the events and their span");
+		System.exit(2);
+	}
+
+	private static final String TIME_PATTERN = "yyyy-MM-dd HH:mm";
+	private static final SimpleDateFormat timeFormat = new SimpleDateFormat(TIME_PATTERN);
+	private static final int IMPORT_BATCH_SIZE = 50000;
+	private static final long MILLIS_PER_MINUTE = 60 * 1000;
+	private static Writer standardOut;
+}
@@ -1,13 +1,132 @@
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
 import java.util.Comparator;
 import java.util.GregorianCalendar;
+import java.util.TimeZone;
+import java.util.concurrent.ThreadLocalRandom;
 
 public class CalendarEvent implements Serializable {
 	public CalendarEvent(GregorianCalendar eventStart, GregorianCalendar eventEnd, String eventTitle)
 	{
-		start = eventStart;
-		end = eventEnd;
+		this(eventStart.getTimeInMillis(), eventEnd.getTimeInMillis(), eventTitle);
+	}
+	
+	/**
+	 * Constructor - builds an event directly from epoch-millisecond timestamps, in the default
+	 * 					time zone
+	 * @param startMillis	the event start time in milliseconds since the epoch
+	 * @param endMillis		the event end time in milliseconds since the epoch
+	 * @param eventTitle	the title of the event
+	 */
+	public CalendarEvent(long startMillis, long endMillis, String eventTitle)
+	{
+		id = newId();
+		start = startMillis;
+		end = endMillis;
 		title = eventTitle;
+		zone = TimeZone.getDefault().getID();
+		reminder = NO_REMINDER;
+	}
+	
+	/**
+	 * Constructor - builds a repeating event. The event is stored once and its occurrences are
+	 * 					worked out from the rule when they are asked for
+	 * @param startMillis	the start time of the first occurrence, in milliseconds since the epoch
+	 * @param endMillis		the end time of the first occurrence, in milliseconds since the epoch
+	 * @param eventTitle	the title of the event
+	 * @param recurrence_in	the RecurrenceRule (null for an event that does not repeat)
+	 */
+	public CalendarEvent(long startMillis, long endMillis, String eventTitle, RecurrenceRule recurrence_in)
+	{
+		this(startMillis, endMillis, eventTitle, null, recurrence_in);
+	}
+	
+	/**
+	 * Constructor - builds an event with a longer-form description
+	 * @param startMillis		the start time (of the first occurrence), in milliseconds since the epoch
+	 * @param endMillis			the end time (of the first occurrence), in milliseconds since the epoch
+	 * @param eventTitle		the title of the event
+	 * @param eventDescription	the description of the event (null for none)
+	 * @param recurrence_in		the RecurrenceRule (null for an event that does not repeat)
+	 */
+	public CalendarEvent(long startMillis, long endMillis, String eventTitle, String eventDescription,
+			RecurrenceRule recurrence_in)
+	{
+		this(startMillis, endMillis, eventTitle);
+		description = eventDescription;
+		recurrence = recurrence_in;
+	}
+	
+	/**
+	 * Constructor - builds an event that belongs to a given time zone: the zone its times were
+	 * 					entered in, which a repeating event keeps the local time of day of
+	 * @param startMillis		the start time (of the first occurrence), in milliseconds since the epoch
+	 * @param endMillis			the end time (of the first occurrence), in milliseconds since the epoch
+	 * @param eventTitle		the title of the event
+	 * @param eventDescription	the description of the event (null for none)
+	 * @param recurrence_in		the RecurrenceRule (null for an event that does not repeat)
+	 * @param zoneId_in			the id of the time zone, e.g. "America/New_York" (see
+	 * 								TimeZone.getTimeZone())
+	 */
+	public CalendarEvent(long startMillis, long endMillis, String eventTitle, String eventDescription,
+			RecurrenceRule recurrence_in, String zoneId_in)
+	{
+		this(startMillis, endMillis, eventTitle, eventDescription, recurrence_in);
+		if(zoneId_in != null) zone = zoneId_in;
+	}
+	
+	/**
+	 * Constructor - rebuilds a stored event with the id it was given when first created
+	 * @param id_in				the event id (NO_ID to give the event a new one)
+	 * @param startMillis		the start time (of the first occurrence), in milliseconds since the epoch
+	 * @param endMillis			the end time (of the first occurrence), in milliseconds since the epoch
+	 * @param eventTitle		the title of the event
+	 * @param eventDescription	the description of the event (null for none)
+	 * @param recurrence_in		the RecurrenceRule (null for an event that does not repeat)
+	 * @param zoneId_in			the id of the event's time zone (null for the default zone)
+	 */
+	CalendarEvent(long id_in, long startMillis, long endMillis, String eventTitle, String eventDescription,
+			RecurrenceRule recurrence_in, String zoneId_in)
+	{
+		this(startMillis, endMillis, eventTitle, eventDescription, recurrence_in, zoneId_in);
+		if(id_in != NO_ID) id = id_in;
+	}
+	
+	/**
+	 * Constructor - rebuilds a stored event with its id and reminder
+	 * @param id_in				the event id (NO_ID to give the event a new one)
+	 * @param startMillis		the start time (of the first occurrence), in milliseconds since the epoch
+	 * @param endMillis			the end time (of the first occurrence), in milliseconds since the epoch
+	 * @param eventTitle		the title of the event
+	 * @param eventDescription	the description of the event (null for none)
+	 * @param recurrence_in		the RecurrenceRule (null for an event that does not repeat)
+	 * @param zoneId_in			the id of the event's time zone (null for the default zone)
+	 * @param reminder_in		the minutes before the start to remind at (NO_REMINDER for none)
+	 */
+	CalendarEvent(long id_in, long startMillis, long endMillis, String eventTitle, String eventDescription,
+			RecurrenceRule recurrence_in, String zoneId_in, int reminder_in)
+	{
+		this(id_in, startMillis, endMillis, eventTitle, eventDescription, recurrence_in, zoneId_in);
+		if(reminder_in >= 0 && reminder_in <= MAX_REMINDER_MINUTES) reminder = reminder_in;
+	}
+	
+	/**
+	 * Constructor - builds one occurrence of a repeating event
+	 * @param series_in		the repeating event
+	 * @param startMillis	the start time of the occurrence
+	 */
+	private CalendarEvent(CalendarEvent series_in, long startMillis)
+	{
+		this(startMillis, startMillis + (series_in.end - series_in.start), series_in.title);
+		id = series_in.id;
+		description = series_in.description;
+		zone = series_in.zone;
+		reminder = series_in.reminder;
+		series = series_in;
 	}
 	
 	public enum Field {EVENT_START, EVENT_END}
@@ -42,8 +161,11 @@ public class CalendarEvent implements Serializable {
 	private static class ComparatorByStart implements Comparator<CalendarEvent>, Serializable
 	{@Override
 		public int compare(CalendarEvent thisOne, CalendarEvent thatOne) {
-			return thisOne.getStart().compareTo(thatOne.getStart());
+			int result = Long.compare(thisOne.start, thatOne.start);
+			return result != 0 ? result : Long.compare(thisOne.id, thatOne.id);
 		}
+	
+		private static final long serialVersionUID = -5452570833306470073L;
 	}
 	
 	/**
@@ -55,21 +177,76 @@ public class CalendarEvent implements Serializable {
 	private static class ComparatorByEnd implements Serializable, Comparator<CalendarEvent>
 	{@Override
 		public int compare(CalendarEvent thisOne, CalendarEvent thatOne) {
-			return thisOne.getEnd().compareTo(thatOne.getEnd());
+			int result = Long.compare(thisOne.end, thatOne.end);
+			if(result == 0) result = Long.compare(thisOne.start, thatOne.start);
+			return result != 0 ? result : Long.compare(thisOne.id, thatOne.id);
 		}
+	
+		private static final long serialVersionUID = -7527402804673572412L;
 	}
 	
+	/**
+	 * Accessor method - the id stays with an event for its whole life, through being saved,
+	 * 						reloaded and changed, and is shared by the occurrences of a
+	 * 						repeating event
+	 * @return	the event id, which is never NO_ID
+	 */
+	protected long getId(){return id;}
+	
+	/**
+	 * Accessor method - the GregorianCalendar is materialized on demand from the stored
+	 * 						timestamp, in the event's time zone, so callers are free to modify it
+	 * @return	a new GregorianCalendar object representing the event start time.
+	 */
+	protected GregorianCalendar getStart(){return toCalendar(start);}
+	
+	/**
+	 * Accessor method - the GregorianCalendar is materialized on demand from the stored
+	 * 						timestamp, in the event's time zone, so callers are free to modify it
+	 * @return	a new GregorianCalendar object representing the event end time.
+	 */
+	protected GregorianCalendar getEnd(){return toCalendar(end);}
+	
+	/**
+	 * Accessor method - the times themselves are instants, the same in every zone; the zone
+	 * 						is the one they were entered in, which decides the local time of
+	 * 						day a repeating event keeps
+	 * @return	the id of the event's time zone, e.g. "Europe/Paris"
+	 */
+	public String getZoneId(){return zone;}
+	
 	/**
 	 * Accessor method
-	 * @return	a copy of the GregorianCalendar object representing the event start time.
+	 * @return	the number of minutes before the start at which to remind of the event, or
+	 * 				NO_REMINDER if it has no reminder
 	 */
-	protected GregorianCalendar getStart(){return (GregorianCalendar) start.clone();}
+	public int getReminderMinutes(){return reminder;}
+	
+	/**
+	 * Boolean accessor method
+	 * @return	true if the event (or, for an occurrence, its series) has a reminder
+	 * 			false otherwise
+	 */
+	public boolean hasReminder(){return reminder != NO_REMINDER;}
 	
 	/**
 	 * Accessor method
-	 * @return	a copy of the GregorianCalendar object representing the event end time.
+	 * @return	the time at which to remind of the event, in epoch milliseconds (meaningless if
+	 * 				it has no reminder)
+	 */
+	long getReminderMillis(){return start - reminder * MINUTE;}
+	
+	/**
+	 * Accessor method - allocation-free alternative to getStart()
+	 * @return	the event start time in milliseconds since the epoch
+	 */
+	protected long getStartMillis(){return start;}
+	
+	/**
+	 * Accessor method - allocation-free alternative to getEnd()
+	 * @return	the event end time in milliseconds since the epoch
 	 */
-	protected GregorianCalendar getEnd(){return (GregorianCalendar) end.clone();}
+	protected long getEndMillis(){return end;}
 	
 	/**
 	 * Accessor method
@@ -77,6 +254,131 @@ public class CalendarEvent implements Serializable {
 	 */
 	protected String getTitle(){return title;}	// Strings immutable => okay to pass reference to private member
 	
+	/**
+	 * Accessor method
+	 * @return a String holding the longer-form description of this event, or null if it has none
+	 */
+	protected String getDescription(){return description;}
+	
+	/**
+	 * Accessor method
+	 * @return	the RecurrenceRule of a repeating event, or null if the event does not repeat
+	 * 				(occurrences of a repeating event return null as well)
+	 */
+	protected RecurrenceRule getRecurrence(){return recurrence;}
+	
+	/**
+	 * Accessor method
+	 * @return	for an occurrence of a repeating event, the repeating event itself; otherwise null
+	 */
+	protected CalendarEvent getSeries(){return series;}
+	
+	/**
+	 * Boolean accessor method
+	 * @return	true if this is a repeating event (rather than a single event or one occurrence)
+	 * 			false otherwise
+	 */
+	protected boolean isRecurring(){return recurrence != null;}
+	
+	/**
+	 * Accessor method - for a repeating event, the end of its last occurrence
+	 * @return	the end time of the last occurrence in epoch milliseconds, Long.MAX_VALUE if the
+	 * 				event repeats for ever, or getEndMillis() if it does not repeat
+	 */
+	long getSeriesEndMillis()
+	{
+		if(recurrence == null) return end;
+		long lastStart = recurrence.getLastStart(start, getZoneOffsets().getTimeZone());
+		return lastStart == Long.MAX_VALUE ? Long.MAX_VALUE : lastStart + (end - start);
+	}
+	
+	/**
+	 * Utility method - builds the occurrence of this repeating event that starts at a given time
+	 * @param startMillis	the start time of the occurrence
+	 * @return				a new CalendarEvent whose getSeries() is this event
+	 */
+	CalendarEvent occurrenceAt(long startMillis)
+	{return new CalendarEvent(this, startMillis);}
+	
+	/**
+	 * Accessor method
+	 * @return	the shared offset table of the event's time zone
+	 */
+	ZoneOffsets getZoneOffsets()
+	{return ZoneOffsets.of(zone);}
+	
+	/**
+	 * Utility method - builds a copy of this repeating event that skips one occurrence
+	 * @param occurrenceStart	the start time of the occurrence to skip
+	 * @return					a new CalendarEvent with the same times, title and rule, plus
+	 * 								the exception
+	 */
+	CalendarEvent withException(long occurrenceStart)
+	{return new CalendarEvent(id, start, end, title, description, recurrence.withException(occurrenceStart), zone, reminder);}
+
+	/**
+	 * Utility method - builds a copy of this event moved or resized to new times, for passing
+	 * 					to CalendarModel.updateEvent(). A repeating event keeps its id and
+	 * 					rule, its skipped occurrences moving with it; an occurrence becomes a
+	 * 					single event of its own, with a new id
+	 * @param startMillis	the new start time (of the first occurrence), in epoch milliseconds
+	 * @param endMillis		the new end time (of the first occurrence), in epoch milliseconds
+	 * @return				a new CalendarEvent with the same title and description
+	 */
+	public CalendarEvent withTimes(long startMillis, long endMillis)
+	{
+		if(series != null) return new CalendarEvent(NO_ID, startMillis, endMillis, title, description, null, zone, reminder);
+		if(recurrence == null) return new CalendarEvent(id, startMillis, endMillis, title, description, null, zone, reminder);
+
+		long[] exceptions = recurrence.getExceptions();
+		for(int i = 0; i < exceptions.length; i++) {exceptions[i] += startMillis - start;}
+		return new CalendarEvent(id, startMillis, endMillis, title, description, recurrence.withExceptions(exceptions), zone, reminder);
+	}
+
+	/**
+	 * Utility method - builds a copy of this event with a different reminder, for passing to
+	 * 					CalendarModel.updateEvent(). As with withTimes(), an occurrence
+	 * 					becomes a single event of its own
+	 * @param minutes	the minutes before the start to remind at, 0 to MAX_REMINDER_MINUTES, or
+	 * 						NO_REMINDER for none
+	 * @return			a new CalendarEvent that is otherwise the same
+	 * @throws IllegalArgumentException	if minutes is out of range
+	 */
+	public CalendarEvent withReminder(int minutes)
+	{
+		if(minutes != NO_REMINDER && (minutes < 0 || minutes > MAX_REMINDER_MINUTES))
+			throw new IllegalArgumentException("Reminder must be 0 to " + MAX_REMINDER_MINUTES + " minutes before the start: " + minutes);
+		long newId = series != null ? NO_ID : id;
+		return new CalendarEvent(newId, start, end, title, description, recurrence, zone, minutes);
+	}
+
+	/**
+	 * Boolean utility method - events are equal when they are the same event, i.e. have the
+	 * 							same id, even if one is a changed copy of the other. The
+	 * 							occurrences of a repeating event are told apart by start time
+	 * @param o		the object to compare with
+	 * @return		true if o is a CalendarEvent for the same event or occurrence
+	 * 				false otherwise
+	 */
+	@Override
+	public boolean equals(Object o)
+	{
+		if(this == o) return true;
+		if(!(o instanceof CalendarEvent)) return false;
+		
+		CalendarEvent other = (CalendarEvent) o;
+		if(id != other.id || (series == null) != (other.series == null)) return false;
+		return series == null || start == other.start;
+	}
+	
+	/**
+	 * Utility method
+	 * @return	a hash code consistent with equals()
+	 */
+	@Override
+	public int hashCode()
+	{return Long.hashCode(id) ^ (series == null ? 0 : Long.hashCode(start));}
+	
 	/**
 	 * Utility method - gets a summary of this instance
 	 * @return		a String representing a summary of this instance's fields
@@ -85,15 +387,91 @@ public class CalendarEvent implements Serializable {
 	{
 		StringBuffer sb = new StringBuffer();
 		sb.append("TITLE: " + title + "\n");
-		sb.append("DATE: "  + CalendarModel.getFormattedDate(start) + "\n");
-		sb.append("START: " + CalendarModel.getFormattedTime(start) + "\n");
-		sb.append("END: "   + CalendarModel.getFormattedTime(end) + "\n");
+		sb.append("DATE: "  + CalendarModel.getFormattedDate(getStart()) + "\n");
+		sb.append("START: " + CalendarModel.getFormattedTime(getStart()) + "\n");
+		sb.append("END: "   + CalendarModel.getFormattedTime(getEnd()) + "\n");
+		RecurrenceRule rule = series != null ? series.recurrence : recurrence;
+		if(rule != null) sb.append("REPEATS: " + rule + "\n");
+		if(!zone.equals(TimeZone.getDefault().getID())) sb.append("ZONE: " + zone + "\n");
+		if(reminder != NO_REMINDER) sb.append("REMINDER: " + reminder + " min before\n");
 		
 		return sb.toString();
 	}
+	
+	/**
+	 * Utility method - generates a new event id. Ids are random rather than sequential, so
+	 * 						that events created independently (in different calendars, or by
+	 * 						different copies of the program) do not collide
+	 */
+	private static long newId()
+	{
+		long newId;
+		do {newId = ThreadLocalRandom.current().nextLong();} while(newId == NO_ID);
+		return newId;
+	}
+	
+	/**
+	 * Utility method - builds a GregorianCalendar (in the event's time zone) set to the given time
+	 */
+	private GregorianCalendar toCalendar(long millis)
+	{return getZoneOffsets().toCalendar(millis);}
+	
+	/**
+	 * Serialization hook - writes the timestamps as GregorianCalendar objects so the serial
+	 * 		form stays identical to the one used before events stored primitive timestamps.
+	 * 		The calendars carry the event's time zone
+	 */
+	private void writeObject(ObjectOutputStream out) throws IOException
+	{
+		ObjectOutputStream.PutField fields = out.putFields();
+		fields.put("start", toCalendar(start));
+		fields.put("end", toCalendar(end));
+		fields.put("description", description);
+		fields.put("title", title);
+		out.writeFields();
+	}
+	
+	/**
+	 * Serialization hook - reads the GregorianCalendar fields of the serial form and keeps
+	 * 		only their timestamps
+	 */
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException
+	{
+		ObjectInputStream.GetField fields = in.readFields();
+		GregorianCalendar startField = (GregorianCalendar) fields.get("start", null);
+		GregorianCalendar endField = (GregorianCalendar) fields.get("end", null);
+		if(startField == null || endField == null)
+			throw new InvalidObjectException("CalendarEvent is missing its start or end time");
+		
+		id = newId();	// the serial form has no id
+		start = startField.getTimeInMillis();
+		end = endField.getTimeInMillis();
+		zone = startField.getTimeZone().getID();
+		reminder = NO_REMINDER;		// nor a reminder
+		description = (String) fields.get("description", null);
+		title = (String) fields.get("title", null);
+	}
 
-	private GregorianCalendar start;
-	private GregorianCalendar end;
-	private String description; // not used yet - may add longer-form description if time allows
+	private long id;
+	private long start;
+	private long end;
+	private String description;	// null if none
 	private String title;
+	private String zone;	// the id of the time zone
+	private int reminder;	// minutes before the start, or NO_REMINDER
+	private RecurrenceRule recurrence;	// null unless this event repeats
+	private CalendarEvent series;		// for an occurrence, the repeating event it belongs to
+	
+	static final long NO_ID = 0;	// the id of no event, e.g. in records written before events had ids
+	public static final int NO_REMINDER = -1;
+	public static final int MAX_REMINDER_MINUTES = 7 * 24 * 60;	// a week
+	private static final long MINUTE = 60 * 1000;
+	
+	// serial form predates the switch to primitive timestamps - see writeObject()/readObject()
+	private static final ObjectStreamField[] serialPersistentFields = {
+			new ObjectStreamField("start", GregorianCalendar.class),
+			new ObjectStreamField("end", GregorianCalendar.class),
+			new ObjectStreamField("description", String.class),
+			new ObjectStreamField("title", String.class)};
+	private static final long serialVersionUID = -7082321942126755718L;
 }
@@ -1,25 +1,80 @@
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
-import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.GregorianCalendar;
-import java.util.SortedSet;
-import java.util.TreeSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.TimeZone;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
 
+import javax.swing.SwingUtilities;
 import javax.swing.event.ChangeEvent;
 import javax.swing.event.ChangeListener;
 
+/**
+ * The calendar's data: the selected date and one or more calendars of events (e.g. one per
+ * 		team or room), with the indexes that answer the views' queries.
+ *
+ * Each calendar is a CalendarShard persisted in its own file: the default calendar in the
+ * 		file the model is opened with (e.g. "events.dat"), and any others alongside it, named
+ * 		after it (e.g. "events-room101.dat" for the calendar "room101"). The views overlay the
+ * 		calendars that are currently visible; queries that return events are run against
+ * 		each calendar in parallel and the sorted results merged. Conflict checks always take
+ * 		every calendar into account, visible or not.
+ *
+ * The model is safe for use by several threads at once. Every change publishes new,
+ * 		immutable CalendarSnapshots; queries read whichever snapshots are current and never
+ * 		take the model's lock, so the event dispatch thread is not held up by a long import
+ * 		or sync running on another thread. Changes to the events are serialized on the
+ * 		model's monitor. (In paged mode a query that needs a page not yet in memory does
+ * 		lock that calendar while it loads the page.)
+ *
+ * @author Iain Davis
+ */
 public class CalendarModel {
+	/**
+	 * Default constructor - loads the calendars stored in "events.dat" (and any files named
+	 * 							after it) in the working directory
+	 */
 	public CalendarModel()
 	{
-		readInEvents();
-		notifyListeners();
+		this(new File(DEFAULT_SNAPSHOT_FILE));
+	}
+	
+	/**
+	 * Constructor - loads the default calendar from the given file, and any further calendars
+	 * 					from files named after it in the same directory. Each instance has its
+	 * 					own state, so several models can be used side by side, and a model with
+	 * 					no listeners never touches AWT or Swing, so it can be driven headless
+	 * 					from scripts or batch jobs
+	 * @param snapshotFile_in	the default calendar's events file; its journal is kept
+	 * 								alongside it, with the extension replaced by ".journal"
+	 */
+	public CalendarModel(File snapshotFile_in)
+	{
+		snapshotFile = snapshotFile_in;
+		calendars.add(new CalendarShard(DEFAULT_CALENDAR, snapshotFile, selectedDate.getTimeInMillis(), displayZone));
+		
+		// further calendars are the files "<base>-<name><extension>" in the same directory
+		File directory = snapshotFile.getAbsoluteFile().getParentFile();
+		String[] fileNames = directory.list();
+		if(fileNames == null) return;
+		Arrays.sort(fileNames);
+		for(String fileName : fileNames)
+		{
+			String name = calendarNameOf(fileName);
+			if(name != null && findCalendar(name) == null)
+				calendars.add(new CalendarShard(name, new File(directory, fileName), selectedDate.getTimeInMillis(), displayZone));
+		}
 	}
 
 	/**
@@ -30,66 +85,335 @@ public class CalendarModel {
 	{return (GregorianCalendar) selectedDate.clone();}
 	
 	/**
-	 * Accessor method - gets the events portion of the current model state
-	 * @return
+	 * Accessor method - the selected date, the day views and the month grid's counts are all
+	 * 						in this zone
+	 * @return	a new TimeZone representing the zone the calendar is displayed in (the default
+	 * 				zone unless setDisplayZone() has been called)
+	 */
+	public TimeZone getDisplayZone()
+	{return (TimeZone) displayZone.getTimeZone().clone();}
+	
+	/**
+	 * Accessor method - allocation-free alternative to getDisplayZone(), for placing many
+	 * 						events on the clock at once
+	 * @return	the shared offset table of the display zone
+	 */
+	ZoneOffsets getDisplayOffsets()
+	{return displayZone;}
+	
+	/**
+	 * Mutator method - displays the calendar in a different time zone. The events themselves
+	 * 					do not change (their times are instants, and each keeps its own zone);
+	 * 					the selected date keeps its date and time of day by the new zone's
+	 * 					clock, and each calendar recounts its events against the new zone's
+	 * 					days. Listeners are told the selection changed
+	 * @param zone_in	the time zone, which must be one known by its id (see
+	 * 						TimeZone.getTimeZone())
 	 */
-	SortedSet<CalendarEvent> getEvents()
+	public synchronized void setDisplayZone(TimeZone zone_in)
 	{
-		GregorianCalendar lowBoundDate = (GregorianCalendar) selectedDate.clone();
-		lowBoundDate.set(Calendar.HOUR_OF_DAY, 0);
-		lowBoundDate.set(Calendar.MINUTE, 0);
-		lowBoundDate.set(Calendar.SECOND, 0);
-		lowBoundDate.set(Calendar.MILLISECOND, 0);
+		ZoneOffsets zone = ZoneOffsets.of(zone_in);
+		if(zone == displayZone) return;
 		
-		GregorianCalendar highBoundDate = (GregorianCalendar) lowBoundDate.clone();
-		highBoundDate.add(Calendar.DAY_OF_MONTH, 1);
+		displayZone = zone;
+		for(CalendarShard shard : calendars) {shard.setDisplayZone(zone);}
 		
-		CalendarEvent lowBound = new CalendarEvent(lowBoundDate, lowBoundDate, null);
-		CalendarEvent highBound = new CalendarEvent(highBoundDate, highBoundDate, null);
-		return events.subSet(lowBound, highBound);
+		GregorianCalendar oldSelection;
+		synchronized(selectionLock)
+		{
+			oldSelection = selectedDate;
+			GregorianCalendar newSelection = new GregorianCalendar(zone.getTimeZone());
+			newSelection.clear();
+			newSelection.set(oldSelection.get(Calendar.YEAR), oldSelection.get(Calendar.MONTH),
+					oldSelection.get(Calendar.DAY_OF_MONTH), oldSelection.get(Calendar.HOUR_OF_DAY),
+					oldSelection.get(Calendar.MINUTE));
+			selectedDate = newSelection;
+		}
+		notifySelectionChanged(oldSelection);
 	}
 	
 	/**
-	 * Utility method - gets the subset of events that are scheduled on the given date
+	 * Accessor method - gets the events portion of the current model state
+	 * @return
+	 */
+	List<CalendarEvent> getEvents()
+	{return getEvents(selectedDate);}
+	
+	/**
+	 * Utility method - gets the events in visible calendars that are scheduled on the given
+	 * 					date, including those that began on an earlier day and run into it
 	 * @param date_in	A GregorianCalendar representing the desired date. Time fields are ignored
-	 * @return			The subset of the set of all events that consists of all events on the given date
+	 * @return			An unmodifiable List of all events on the given date ordered by start
+	 * 						time, taken from the current snapshots (later changes to the model
+	 * 						do not affect it)
 	 * @precondition	date_in is an initialized GregorianCalendar
 	 */
-	SortedSet<CalendarEvent> getEvents(GregorianCalendar date_in)
+	List<CalendarEvent> getEvents(GregorianCalendar date_in)
 	{
 		if(date_in == null) return null;
 		
-		// get a copy of the current date and set it to the earliest time value for the given day
-		GregorianCalendar lowBoundDate = (GregorianCalendar) date_in.clone();
-		lowBoundDate.set(Calendar.HOUR_OF_DAY, 0);
-		lowBoundDate.set(Calendar.MINUTE, 0);
-		lowBoundDate.set(Calendar.SECOND, 0);
-		lowBoundDate.set(Calendar.MILLISECOND, 0);
-		
-		// get a copy of the lower bound date and set it to the earliest time value for the next day
-		GregorianCalendar highBoundDate = (GregorianCalendar) lowBoundDate.clone();
-		highBoundDate.add(Calendar.DAY_OF_MONTH, 1);
-		
-		// retrieve the set all events following the lower bound (inclusive) and preceding
-		// the upper bound (exclusive)
-		CalendarEvent lowBound = new CalendarEvent(lowBoundDate, lowBoundDate, null);
-		CalendarEvent highBound = new CalendarEvent(highBoundDate, highBoundDate, null);
-		return events.subSet(lowBound, highBound);
+		final long dayStart = CalendarSnapshot.dayStart(date_in);
+		final long dayEnd = CalendarSnapshot.dayEnd(date_in);
+		return Collections.unmodifiableList(fanOut(visibleCalendars(), new 
+				ShardQuery()
+				{@Override
+					public List<CalendarEvent> query(CalendarShard shard)
+					{return shard.residentSnapshot(dayStart, dayEnd).getEventsTouching(dayStart, dayEnd);}
+				}));
 	} // getEvents() 		(subset)
 	
 	/**
 	 * Boolean accessor method checks whether any events exist on the given date
 	 * @param date_in	A GregorianCalendar representing the date about which the client is enquiring
-	 * @return			true if model has any events on the given date
+	 * @return			true if model has any events on the given date in a visible calendar
 	 * 					false if model has no events on the given date
 	 */
 	public boolean hasEvents(GregorianCalendar date_in)
 	{
-		SortedSet<CalendarEvent> eventsOnDate = getEvents(date_in);
-		return eventsOnDate.size() != 0;
+		if(date_in == null) return false;
+		
+		// a single lookup per calendar - too little work to be worth farming out
+		long millis = date_in.getTimeInMillis();
+		for(CalendarShard shard : visibleCalendars())
+		{
+			if(shard.residentSnapshot(millis, millis).hasEvents(date_in)) return true;
+		}
+		return false;
 	}
 	
-	
+	/**
+	 * Accessor method - gets the number of events on each day of the six-week grid used to
+	 * 						display the month containing the given date, over all visible
+	 * 						calendars
+	 * @param date_in	a GregorianCalendar representing any date in the desired month
+	 * @return			an array of 42 event counts, one per grid cell in row-major order,
+	 * 						starting with the Sunday on or before the first of the month
+	 * @precondition	date_in is non-null
+	 */
+	public int[] getMonthGridOccupancy(GregorianCalendar date_in)
+	{
+		// the grid reaches at most a week into the previous month and 42 days from its start
+		GregorianCalendar gridStart = (GregorianCalendar) date_in.clone();
+		gridStart.set(Calendar.DAY_OF_MONTH, 1);
+		gridStart.add(Calendar.DAY_OF_MONTH, -7);
+		GregorianCalendar gridEnd = (GregorianCalendar) gridStart.clone();
+		gridEnd.add(Calendar.DAY_OF_MONTH, DayOccupancyIndex.GRID_DAYS + 7);
+		
+		int[] total = new int[DayOccupancyIndex.GRID_DAYS];
+		for(CalendarShard shard : visibleCalendars())
+		{
+			int[] counts = shard.residentSnapshot(gridStart.getTimeInMillis(), gridEnd.getTimeInMillis())
+					.getMonthGridOccupancy(date_in);
+			for(int i = 0; i < total.length; i++) {total[i] += counts[i];}
+		}
+		return total;
+	}
+
+	/**
+	 * Accessor method - gets the number of events carried over from the day before into each
+	 * 						day of the six-week grid used to display the month containing the
+	 * 						given date, over all visible calendars (see
+	 * 						CalendarSnapshot.getMonthGridContinuations())
+	 * @param date_in	a GregorianCalendar representing any date in the desired month
+	 * @return			an array of 43 counts, one per grid cell in row-major order and the
+	 * 						last for the day after the grid
+	 * @precondition	date_in is non-null
+	 */
+	public int[] getMonthGridContinuations(GregorianCalendar date_in)
+	{
+		GregorianCalendar gridStart = (GregorianCalendar) date_in.clone();
+		gridStart.set(Calendar.DAY_OF_MONTH, 1);
+		gridStart.add(Calendar.DAY_OF_MONTH, -7);
+		GregorianCalendar gridEnd = (GregorianCalendar) gridStart.clone();
+		gridEnd.add(Calendar.DAY_OF_MONTH, DayOccupancyIndex.GRID_DAYS + 8);
+		
+		int[] total = new int[DayOccupancyIndex.GRID_DAYS + 1];
+		for(CalendarShard shard : visibleCalendars())
+		{
+			int[] counts = shard.residentSnapshot(gridStart.getTimeInMillis(), gridEnd.getTimeInMillis())
+					.getMonthGridContinuations(date_in);
+			for(int i = 0; i < total.length; i++) {total[i] += counts[i];}
+		}
+		return total;
+	}
+
+	/**
+	 * Accessor method - gets the events in visible calendars whose time-spans overlap a span
+	 * 						of time
+	 * @param start		the start of the span in epoch milliseconds (inclusive)
+	 * @param end		the end of the span in epoch milliseconds (exclusive)
+	 * @return			a List of the overlapping events, ordered by start time
+	 */
+	public List<CalendarEvent> getEventsBetween(final long start, final long end)
+	{
+		return fanOut(visibleCalendars(), new 
+				ShardQuery()
+				{@Override
+					public List<CalendarEvent> query(CalendarShard shard)
+					{return shard.residentSnapshot(start, end).getEventsBetween(start, end);}
+				});
+	}
+
+	/**
+	 * Accessor method - gets the events and occurrences in every calendar, shown or hidden,
+	 * 						whose reminders are due within a span of time (see
+	 * 						CalendarSnapshot.getRemindersDueIn()). In paged mode the pages
+	 * 						holding the events that start up to MAX_REMINDER_MINUTES after
+	 * 						the span are loaded first
+	 * @param start		the start of the span in epoch milliseconds (inclusive)
+	 * @param end		the end of the span in epoch milliseconds (exclusive)
+	 * @return			a List of the events, ordered by start time
+	 */
+	List<CalendarEvent> getRemindersDueIn(final long start, final long end)
+	{
+		final long lastStart = end + CalendarEvent.MAX_REMINDER_MINUTES * 60 * 1000L;
+		return fanOut(calendars, new 
+				ShardQuery()
+				{@Override
+					public List<CalendarEvent> query(CalendarShard shard)
+					{return shard.residentSnapshot(start, lastStart).getRemindersDueIn(start, end);}
+				});
+	}
+
+	/**
+	 * Accessor method - searches the titles and descriptions of the events in visible
+	 * 						calendars. Each word of the query must begin some word of an
+	 * 						event, ignoring case, so "team mee" finds "Team meeting"
+	 * @param query		the words to search for
+	 * @param from		the earliest start time of interest, in epoch milliseconds
+	 * @param limit		the most results wanted
+	 * @return			a List of the first matching events (and occurrences of repeating
+	 * 						events) starting at or after from, ordered by start time; empty
+	 * 						if the query has no words
+	 */
+	public List<CalendarEvent> searchEvents(String query, final long from, final int limit)
+	{
+		final List<String> prefixes = SearchIndex.tokenize(query);
+		if(prefixes.isEmpty() || limit <= 0) return new ArrayList<CalendarEvent>();
+
+		List<CalendarEvent> result = fanOut(visibleCalendars(), new
+				ShardQuery()
+				{@Override
+					public List<CalendarEvent> query(CalendarShard shard)
+					{return shard.search(prefixes, from, limit);}
+				});
+		return result.size() > limit ? new ArrayList<CalendarEvent>(result.subList(0, limit)) : result;
+	}
+
+	/**
+	 * Accessor method - gets every event in the visible calendars, including (in paged mode)
+	 * 						those not currently in memory, without loading them all at once.
+	 * 						A repeating event appears once, at its first occurrence
+	 * @return			an Iterable over the events in start-time order. Outside paged mode
+	 * 						it reads the current snapshots; in paged mode it must not be used
+	 * 						while the model is being changed
+	 */
+	public Iterable<CalendarEvent> getAllEvents()
+	{
+		List<Iterable<CalendarEvent>> sources = new ArrayList<Iterable<CalendarEvent>>();
+		for(CalendarShard shard : visibleCalendars()) {sources.add(shard.getAllEvents());}
+		return sources.size() == 1 ? sources.get(0) : EventMerge.merge(sources);
+	}
+
+	/**
+	 * Accessor method
+	 * @return			the total number of events in the visible calendars (a repeating
+	 * 						event counts once)
+	 */
+	public int getEventCount()
+	{
+		int count = 0;
+		for(CalendarShard shard : visibleCalendars()) {count += shard.getEventCount();}
+		return count;
+	}
+
+	/**
+	 * Accessor method - gets the current state of one calendar's events as an immutable
+	 * 						snapshot, for a client that needs several queries to agree with
+	 * 						one another
+	 * @param calendar	the name of the calendar
+	 * @return			the most recently published CalendarSnapshot, or null if there is no
+	 * 						such calendar. In paged mode it holds only the events currently
+	 * 						in memory
+	 */
+	public CalendarSnapshot getSnapshot(String calendar)
+	{
+		CalendarShard shard = findCalendar(calendar);
+		return shard == null ? null : shard.getSnapshot();
+	}
+
+	/**
+	 * Accessor method
+	 * @return	the most recently published CalendarSnapshot of the default calendar
+	 */
+	public CalendarSnapshot getSnapshot()
+	{return getSnapshot(DEFAULT_CALENDAR);}
+
+	/**
+	 * Accessor method
+	 * @return	the names of all calendars, the default calendar first
+	 */
+	public List<String> getCalendarNames()
+	{
+		List<String> names = new ArrayList<String>();
+		for(CalendarShard shard : calendars) {names.add(shard.getName());}
+		return names;
+	}
+
+	/**
+	 * Boolean accessor method
+	 * @param calendar	the name of a calendar
+	 * @return			true if the calendar exists and its events are shown
+	 * 					false otherwise
+	 */
+	public boolean isCalendarVisible(String calendar)
+	{
+		CalendarShard shard = findCalendar(calendar);
+		return shard != null && shard.isVisible();
+	}
+
+	/**
+	 * Mutator method - shows or hides a calendar's events in the views (and in the results of
+	 * 					the queries the views use). Hidden calendars still count when checking
+	 * 					for conflicts
+	 * @param calendar	the name of the calendar
+	 * @param visible	true to show the calendar's events
+	 */
+	public void setCalendarVisible(String calendar, boolean visible)
+	{
+		CalendarShard shard = findCalendar(calendar);
+		if(shard == null || shard.isVisible() == visible) return;
+		
+		shard.setVisible(visible);
+		notifyListeners(CalendarModelEvent.eventsChanged(this, 
+				Long.MIN_VALUE, Long.MAX_VALUE, Long.MIN_VALUE, Long.MAX_VALUE));
+	}
+
+	/**
+	 * Mutator method - creates a new, empty calendar, stored in its own file alongside the
+	 * 					default calendar's
+	 * @param calendar	the name of the new calendar: letters, digits, '_' and '-' only
+	 * @return			true if the calendar was created
+	 * 					false if the name is not allowed or already in use
+	 */
+	public synchronized boolean addCalendar(String calendar)
+	{
+		if(calendar == null || !CALENDAR_NAME.matcher(calendar).matches() || findCalendar(calendar) != null)
+			return false;
+		
+		String fileName = snapshotFile.getName();
+		int extension = fileName.lastIndexOf('.');
+		String baseName = extension > 0 ? fileName.substring(0, extension) : fileName;
+		String suffix = extension > 0 ? fileName.substring(extension) : "";
+		File file = new File(snapshotFile.getAbsoluteFile().getParentFile(), baseName + "-" + calendar + suffix);
+		
+		CalendarShard shard = new CalendarShard(calendar, file, selectedDate.getTimeInMillis(), displayZone);
+		shard.flushToDisk();	// so that the calendar is found next time, even while empty
+		calendars.add(shard);
+		return true;
+	}
+
+
 	/**
 	 * Mutator method - move the selected date by the specified
 	 * number of the specified units (months, days, years)
@@ -108,8 +432,15 @@ public class CalendarModel {
 	 */
 	public void goTo(int calendarField, int value)
 	{
-		selectedDate.add(calendarField, value);
-		notifyListeners();
+		GregorianCalendar oldSelection;
+		synchronized(selectionLock)
+		{
+			oldSelection = selectedDate;
+			GregorianCalendar newSelection = (GregorianCalendar) oldSelection.clone();
+			newSelection.add(calendarField, value);
+			selectedDate = newSelection;
+		}
+		notifySelectionChanged(oldSelection);
 		return;
 	}
 	
@@ -119,8 +450,13 @@ public class CalendarModel {
 	 */
 	public void goToToday()
 	{
-		selectedDate = new GregorianCalendar();
-		notifyListeners();
+		GregorianCalendar oldSelection;
+		synchronized(selectionLock)
+		{
+			oldSelection = selectedDate;
+			selectedDate = new GregorianCalendar(displayZone.getTimeZone());
+		}
+		notifySelectionChanged(oldSelection);
 	}
 	
 	/**
@@ -133,32 +469,294 @@ public class CalendarModel {
 	 */
 	public void goToDate(int year, int month, int date)
 	{
-		selectedDate.set(year, month, date);
-		notifyListeners();
+		GregorianCalendar oldSelection;
+		synchronized(selectionLock)
+		{
+			oldSelection = selectedDate;
+			GregorianCalendar newSelection = (GregorianCalendar) oldSelection.clone();
+			newSelection.set(year, month, date);
+			selectedDate = newSelection;
+		}
+		notifySelectionChanged(oldSelection);
 	}
 	
 	/**
-	 * Mutator method - adds an event to the model
+	 * Mutator method - adds an event to the default calendar
 	 * @param ce_in		a CalendarEvent passed in to be added
 	 * @precondition 	ce_in must be non-null and have no conflicting events previously loaded
 	 * 					in the calendar
 	 */
 	public boolean addEvent(CalendarEvent ce_in)
+	{return addEvent(DEFAULT_CALENDAR, ce_in);}
+	
+	/**
+	 * Mutator method - adds an event to the named calendar. A repeating event is added only if
+	 * 					none of its occurrences conflicts with another event (see
+	 * 					RecurringEvents.findConflicts() for how far ahead an endless one is checked)
+	 * @param calendar	the name of the calendar to add the event to
+	 * @param ce_in		a CalendarEvent passed in to be added
+	 * @return			true if the event was added
+	 * 					false if there is no such calendar or the event conflicts with an
+	 * 						event in any calendar
+	 */
+	public synchronized boolean addEvent(String calendar, CalendarEvent ce_in)
 	{
 		// validate preconditions
-		if(ce_in == null || hasConflictingEvent(ce_in)) return false;
+		CalendarShard shard = findCalendar(calendar);
+		if(shard == null || ce_in == null || conflictsAnywhere(ce_in)) return false;
 		
-		// add event and notify listeners
-		events.add(ce_in);
-		notifyListeners();
+		// add event to the calendar, record and publish it, then notify listeners
+		shard.add(ce_in);
+		shard.commit();
+		notifyListeners(CalendarModelEvent.eventsAdded(this, ce_in.getStartMillis(), ce_in.getSeriesEndMillis()));
 		return true;
 	} // addEvent()
 	
-	public boolean deleteEvent(CalendarEvent ce_in)
+	/**
+	 * Mutator method - adds many events to the default calendar at once (see addEvents(String,
+	 * 					Collection))
+	 * @param events_in		the CalendarEvents to add, in any order
+	 * @return				a List of the events that were not added because of conflicts
+	 */
+	public List<CalendarEvent> addEvents(Collection<CalendarEvent> events_in)
+	{return addEvents(DEFAULT_CALENDAR, events_in);}
+
+	/**
+	 * Mutator method - adds many events to the named calendar as a single change, for loading
+	 * 					and importing. The single events are sorted by start time once (in
+	 * 					parallel), checked in one sweep against each other and against the
+	 * 					events of every calendar that fall within their span, and indexed
+	 * 					together (see EventIntervalTree.insertAll()), rather than being checked
+	 * 					and inserted one at a time. An event is rejected, as in mutate(), if it
+	 * 					conflicts with an existing event or with an accepted event of the batch
+	 * 					that starts before it. Repeating events are checked one by one once the
+	 * 					single events are in. Listeners receive one notification
+	 * @param calendar		the name of the calendar to add the events to
+	 * @param events_in		the CalendarEvents to add, in any order (nulls are ignored)
+	 * @return				a List of the events that were not added because of conflicts (or
+	 * 							every event, if there is no such calendar)
+	 */
+	public synchronized List<CalendarEvent> addEvents(String calendar, Collection<CalendarEvent> events_in)
 	{
-		boolean result = events.remove(ce_in);
-		notifyListeners();
+		List<CalendarEvent> rejected = new ArrayList<CalendarEvent>();
+		List<CalendarEvent> single = new ArrayList<CalendarEvent>(events_in.size());
+		List<CalendarEvent> series = new ArrayList<CalendarEvent>();
+		for(CalendarEvent ce : events_in)
+		{
+			if(ce != null) (ce.isRecurring() ? series : single).add(ce);
+		}
+		CalendarShard shard = findCalendar(calendar);
+		if(shard == null)
+		{
+			rejected.addAll(single);
+			rejected.addAll(series);
+			return rejected;
+		}
+
+		CalendarEvent[] sorted = single.toArray(new CalendarEvent[single.size()]);
+		Arrays.parallelSort(sorted, CalendarEvent.getComparator(CalendarEvent.Field.EVENT_START));
+		long addedStart = Long.MAX_VALUE, addedEnd = Long.MIN_VALUE;
+		if(sorted.length > 0)
+		{
+			// everything already stored that could conflict with any of the batch
+			long latestEnd = Long.MIN_VALUE;
+			for(CalendarEvent ce : sorted) {latestEnd = Math.max(latestEnd, ce.getEndMillis());}
+			final long from = sorted[0].getStartMillis() - MILLIS_PER_MINUTE, to = latestEnd + MILLIS_PER_MINUTE;
+			List<CalendarEvent> existing = fanOut(calendars, new 
+					ShardQuery()
+					{@Override
+						public List<CalendarEvent> query(CalendarShard target)
+						{return target.residentSnapshot(from, to).getEventsBetween(from, to);}
+					});
+			
+			List<CalendarEvent> accepted = sweepConflicts(sorted, existing, rejected);
+			shard.addAll(accepted);
+			if(!accepted.isEmpty())
+			{
+				addedStart = accepted.get(0).getStartMillis();
+				for(CalendarEvent ce : accepted) {addedEnd = Math.max(addedEnd, ce.getEndMillis());}
+			}
+		}
+		for(CalendarEvent ce : series)
+		{
+			if(conflictsAnywhere(ce)) {rejected.add(ce); continue;}
+			shard.add(ce);
+			addedStart = Math.min(addedStart, ce.getStartMillis());
+			addedEnd = Math.max(addedEnd, ce.getSeriesEndMillis());
+		}
+		
+		shard.commit();
+		if(addedStart <= addedEnd) notifyListeners(CalendarModelEvent.eventsAdded(this, addedStart, addedEnd));
+		return rejected;
+	} // addEvents()
+
+	/**
+	 * Mutator method - removes an event from whichever calendar holds it. Removing an
+	 * 					occurrence of a repeating event skips just that occurrence; removing the
+	 * 					repeating event itself removes them all
+	 * @param ce_in		the CalendarEvent to be removed
+	 * @return			true if a matching event was found and removed
+	 * 					false otherwise
+	 */
+	public synchronized boolean deleteEvent(CalendarEvent ce_in)
+	{
+		for(CalendarShard shard : calendars)
+		{
+			CalendarEvent stored = shard.remove(ce_in);
+			if(stored == null) continue;
+			
+			shard.commit();
+			notifyListeners(CalendarModelEvent.eventsRemoved(this, stored.getStartMillis(), stored.getSeriesEndMillis()));
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Mutator method - changes an event in place, e.g. to move or resize it, in whichever
+	 * 					calendar holds it. The changed event is checked for conflicts with every
+	 * 					event but the one it replaces, only that one entry is reindexed, and
+	 * 					listeners receive a single notification covering both the old and new
+	 * 					times. Changing an occurrence of a repeating event skips that occurrence
+	 * 					and adds the changed copy as a single event of its own
+	 * @param original	the CalendarEvent as it stands (matched by id, as for deleteEvent())
+	 * @param updated	its replacement, usually built with original.withTimes(); must not be
+	 * 						an occurrence
+	 * @return			true if the event was found and replaced
+	 * 					false if it was not found, or updated conflicts with another event
+	 */
+	public synchronized boolean updateEvent(CalendarEvent original, CalendarEvent updated)
+	{
+		// validate preconditions
+		if(original == null || updated == null || updated.getSeries() != null) return false;
+		CalendarShard holder = null;
+		for(CalendarShard shard : calendars)
+		{
+			if(shard.contains(original)) {holder = shard; break;}
+		}
+		if(holder == null || conflictsAnywhere(updated, original)) return false;
+
+		// swap the entries, record and publish the change, then notify listeners
+		CalendarEvent removed = holder.replace(original, updated);
+		if(removed == null) return false;
+		holder.commit();
+		notifyListeners(CalendarModelEvent.eventsChanged(this, updated.getStartMillis(), updated.getSeriesEndMillis(),
+				removed.getStartMillis(), removed.getSeriesEndMillis()));
 		return true;
+	} // updateEvent()
+
+	/**
+	 * Mutator method - applies many additions and deletions as a single change. Deletions are
+	 * 					applied first; additions are then checked for conflicts in start-time
+	 * 					order against the remaining events and the additions already accepted
+	 * 					from the same batch. Listeners receive one notification covering the
+	 * 					whole batch, and readers see either none of a calendar's part of the
+	 * 					batch or all of it.
+	 * @param changes	a Consumer that records the desired changes on the Batch it is given
+	 * @return			a List of the events that could not be added because of conflicts
+	 * 						(or because their calendar does not exist); empty if every
+	 * 						addition succeeded
+	 */
+	public synchronized List<CalendarEvent> mutate(Consumer<Batch> changes)
+	{
+		Batch batch = new Batch();
+		changes.accept(batch);
+		
+		long removedStart = Long.MAX_VALUE, removedEnd = Long.MIN_VALUE;
+		for(CalendarEvent ce : batch.deletions)
+		{
+			for(CalendarShard shard : calendars)
+			{
+				CalendarEvent stored = shard.remove(ce);
+				if(stored == null) continue;
+				removedStart = Math.min(removedStart, stored.getStartMillis());
+				removedEnd = Math.max(removedEnd, stored.getSeriesEndMillis());
+				break;
+			}
+		}
+		
+		Collections.sort(batch.additions, CalendarEvent.getComparator(CalendarEvent.Field.EVENT_START));
+		List<CalendarEvent> rejected = new ArrayList<CalendarEvent>();
+		long addedStart = Long.MAX_VALUE, addedEnd = Long.MIN_VALUE;
+		for(CalendarEvent ce : batch.additions)
+		{
+			String calendar = batch.targets.get(ce);
+			CalendarShard shard = findCalendar(calendar == null ? DEFAULT_CALENDAR : calendar);
+			if(shard == null || conflictsAnywhere(ce)) {rejected.add(ce); continue;}
+			shard.add(ce);
+			addedStart = Math.min(addedStart, ce.getStartMillis());
+			addedEnd = Math.max(addedEnd, ce.getSeriesEndMillis());
+		}
+		
+		for(CalendarShard shard : calendars) {shard.commit();}
+		
+		if(addedStart <= addedEnd || removedStart <= removedEnd)
+			notifyListeners(CalendarModelEvent.eventsChanged(this, addedStart, addedEnd, removedStart, removedEnd));
+		return rejected;
+	} // mutate()
+	
+	/**
+	 * This class collects the additions and deletions making up one call to mutate()
+	 * @author Iain Davis
+	 */
+	public static class Batch
+	{
+		private Batch() {}
+		
+		/**
+		 * Mutator method - queues an event to be added to the default calendar
+		 * @param ce_in		a CalendarEvent to be added (null is ignored)
+		 */
+		public void add(CalendarEvent ce_in)
+		{if(ce_in != null) additions.add(ce_in);}
+		
+		/**
+		 * Mutator method - queues an event to be added to the named calendar
+		 * @param calendar	the name of the calendar
+		 * @param ce_in		a CalendarEvent to be added (null is ignored)
+		 */
+		public void add(String calendar, CalendarEvent ce_in)
+		{
+			if(ce_in == null) return;
+			additions.add(ce_in);
+			targets.put(ce_in, calendar);
+		}
+		
+		/**
+		 * Mutator method - queues an event to be deleted from whichever calendar holds it
+		 * @param ce_in		a CalendarEvent to be deleted (null is ignored)
+		 */
+		public void delete(CalendarEvent ce_in)
+		{if(ce_in != null) deletions.add(ce_in);}
+		
+		private final ArrayList<CalendarEvent> additions = new ArrayList<CalendarEvent>();
+		private final ArrayList<CalendarEvent> deletions = new ArrayList<CalendarEvent>();
+		private final IdentityHashMap<CalendarEvent, String> targets = new IdentityHashMap<CalendarEvent, String>();
+	}
+	
+	/**
+	 * Utility method - checks a new event against every calendar as it stands part-way through
+	 * 						a change (which may not have been published yet)
+	 */
+	private boolean conflictsAnywhere(CalendarEvent ce_in)
+	{return conflictsAnywhere(ce_in, null);}
+
+	/**
+	 * Utility method - as conflictsAnywhere(ce_in), but ignoring an event that ce_in is about to
+	 * 						replace. Ignoring a repeating event ignores all its occurrences;
+	 * 						ignoring an occurrence ignores only that one
+	 */
+	private boolean conflictsAnywhere(CalendarEvent ce_in, CalendarEvent ignored)
+	{
+		for(CalendarShard shard : calendars)
+		{
+			for(CalendarEvent conflict : shard.findUncommittedConflicts(ce_in))
+			{
+				if(ignored == null || conflict.getId() != ignored.getId()) return true;
+				if(ignored.getSeries() != null && conflict.getStartMillis() != ignored.getStartMillis()) return true;
+			}
+		}
+		return false;
 	}
 	
 	/**
@@ -166,7 +764,7 @@ public class CalendarModel {
 	 * 						already existing in the collection
 	 * @param ce_in		the client-supplied CalendarEvent
 	 * @return			true if the time-span represented by this event overlaps the time-span
-	 * 						representing any event in the collection
+	 * 						representing any event in any calendar
 	 * 					false otherwise
 	 * @precondition	ce_in is non-null
 	 */
@@ -175,44 +773,382 @@ public class CalendarModel {
 		// check preconditions
 		if(ce_in == null) return true;
 		
-		for(CalendarEvent ce : events)
+		return !getConflictingEvents(ce_in).isEmpty();
+	}
+	
+	/**
+	 * Accessor method - finds the events already in any calendar that conflict with a
+	 * 						client-supplied CalendarEvent. Events conflict when they start in
+	 * 						the same minute or when their time-spans overlap; a repeating
+	 * 						event conflicts when any of its occurrences does.
+	 * @param ce_in		the client-supplied CalendarEvent
+	 * @return			a List of the conflicting events ordered by start time (empty if
+	 * 						there are none or ce_in is null)
+	 */
+	public List<CalendarEvent> getConflictingEvents(final CalendarEvent ce_in)
+	{
+		if(ce_in == null) return new ArrayList<CalendarEvent>();
+		
+		return fanOut(calendars, new 
+				ShardQuery()
+				{@Override
+					public List<CalendarEvent> query(CalendarShard shard)
+					{return shard.residentSnapshot(ce_in.getStartMillis(), ce_in.getEndMillis()).getConflictingEvents(ce_in);}
+				});
+	}
+	
+	/**
+	 * Accessor method - finds the free time within a span: the gaps between the events of all
+	 * 						calendars, optionally restricted to working hours. The gaps are
+	 * 						found by one sweep over the events in start-time order, keeping
+	 * 						the latest end seen so far; an event blocks at least the minute it
+	 * 						starts in, since no other event may start then
+	 * @param from		the start of the span in epoch milliseconds (inclusive)
+	 * @param to		the end of the span in epoch milliseconds (exclusive)
+	 * @param duration	the shortest free time wanted, in milliseconds
+	 * @param hours		the WorkingHours to search within (by the clock of the display zone),
+	 * 						or null to search the whole span
+	 * @param alignment	the granularity, in milliseconds, that the start of each slot is
+	 * 						rounded up to (1 for none)
+	 * @return			a List of the free slots, in start-time order. Each starts at an
+	 * 						aligned time, runs until the next busy time (or the end of the span
+	 * 						or working day), and has room for an event of the given duration
+	 * @precondition	alignment is positive
+	 */
+	public List<TimeSlot> findFreeSlots(long from, final long to, long duration, WorkingHours hours, long alignment)
+	{
+		List<TimeSlot> result = new ArrayList<TimeSlot>();
+		if(to <= from) return result;
+		
+		final long queryStart = from - Math.floorMod(from, MILLIS_PER_MINUTE);
+		TimeZone zone = displayZone.getTimeZone();
+		List<CalendarEvent> busy = fanOut(calendars, new 
+				ShardQuery()
+				{@Override
+					public List<CalendarEvent> query(CalendarShard shard)
+					{return shard.residentSnapshot(queryStart, to).getEventsTouching(queryStart, to);}
+				});
+		
+		long free = from;	// the start of the free time, if any, before the next event
+		for(CalendarEvent ce : busy)
 		{
-			// events start at the same time => conflict
-			if(ce_in.getStart().get(Calendar.YEAR) == ce.getStart().get(Calendar.YEAR)
-					&& ce_in.getStart().get(Calendar.MONTH) == ce.getStart().get(Calendar.MONTH)
-					&& ce_in.getStart().get(Calendar.DAY_OF_MONTH) == ce.getStart().get(Calendar.DAY_OF_MONTH)
-					&& ce_in.getStart().get(Calendar.HOUR_OF_DAY) == ce.getStart().get(Calendar.HOUR_OF_DAY)
-					&& ce_in.getStart().get(Calendar.MINUTE) == ce.getStart().get(Calendar.MINUTE))
+			long minuteStart = ce.getStartMillis() - Math.floorMod(ce.getStartMillis(), MILLIS_PER_MINUTE);
+			if(minuteStart > free) addFreeSlots(result, free, minuteStart, duration, hours, zone, alignment);
+			free = Math.max(free, Math.max(ce.getEndMillis(), minuteStart + MILLIS_PER_MINUTE));
+			if(free >= to) return result;
+		}
+		addFreeSlots(result, free, to, duration, hours, zone, alignment);
+		return result;
+	} // findFreeSlots()
+	
+	/**
+	 * Accessor method - finds the conflict-free time closest to a proposed event, on the same
+	 * 						day and with the same duration. The day's free slots are found by
+	 * 						findFreeSlots(); the earliest fitting start after the proposed one
+	 * 						and the latest before it are the candidates, and the one nearer the
+	 * 						proposed start wins
+	 * @param ce_in		the proposed CalendarEvent
+	 * @param alignment	the granularity, in milliseconds, that suggested start times are
+	 * 						rounded to (later times round up, earlier times round down)
+	 * @return			a new CalendarEvent with the same title, description and duration at
+	 * 						the nearest free time, ce_in itself if it is already free, or null
+	 * 						if the day has no room for it
+	 * @precondition	alignment is positive
+	 */
+	public CalendarEvent findNearestFreeSlot(CalendarEvent ce_in, long alignment)
+	{
+		if(ce_in == null) return null;
+		
+		long proposed = ce_in.getStartMillis();
+		long duration = ce_in.getEndMillis() - proposed;
+		GregorianCalendar day = displayZone.toCalendar(proposed);
+		long dayStart = CalendarSnapshot.dayStart(day);
+		long dayEnd = CalendarSnapshot.dayEnd(day);
+		
+		// every calendar blocks time, so search the snapshots of all of them together
+		List<CalendarSnapshot> conflictIndexes = new ArrayList<CalendarSnapshot>();
+		for(CalendarShard shard : calendars) {conflictIndexes.add(shard.residentSnapshot(dayStart, dayEnd));}
+		if(findConflicts(conflictIndexes, proposed, ce_in.getEndMillis()).isEmpty()) return ce_in;
+		
+		// an event ending at midnight would belong to the next day, so the slots stop short of it
+		long later = Long.MAX_VALUE, earlier = Long.MIN_VALUE;
+		for(TimeSlot slot : findFreeSlots(dayStart, dayEnd - 1, duration, null, alignment))
+		{
+			long first = Math.max(slot.getStartMillis(), proposed + Math.floorMod(-proposed, alignment));
+			if(later == Long.MAX_VALUE && first + duration <= slot.getEndMillis()) later = first;
+			
+			long last = Math.min(slot.getEndMillis() - duration, proposed);
+			last -= Math.floorMod(last, alignment);
+			if(last >= slot.getStartMillis()) earlier = last;
+		}
+		
+		if(later == Long.MAX_VALUE && earlier == Long.MIN_VALUE) return null;
+		
+		long start;
+		if(later != Long.MAX_VALUE && earlier != Long.MIN_VALUE)
+			start = later - proposed <= proposed - earlier ? later : earlier;
+		else
+			start = later != Long.MAX_VALUE ? later : earlier;
+		return new CalendarEvent(start, start + duration, ce_in.getTitle(), ce_in.getDescription(), null, ce_in.getZoneId());
+	} // findNearestFreeSlot()
+	
+	/**
+	 * Utility method - adds the part of a gap between events that falls in working hours, if
+	 * 						it has room for an event of the given duration at an aligned time
+	 */
+	private static void addFreeSlots(List<TimeSlot> result, long start, long end, long duration,
+			WorkingHours hours, TimeZone zone, long alignment)
+	{
+		if(hours == null)
+		{
+			addFreeSlot(result, start, end, duration, alignment);
+			return;
+		}
+		for(TimeSlot window : hours.clip(start, end, zone))
+		{addFreeSlot(result, window.getStartMillis(), window.getEndMillis(), duration, alignment);}
+	}
+	
+	private static void addFreeSlot(List<TimeSlot> result, long start, long end, long duration, long alignment)
+	{
+		long alignedStart = start + Math.floorMod(-start, alignment);
+		if(alignedStart < end && end - alignedStart >= duration) result.add(new TimeSlot(alignedStart, end));
+	}
+	
+	/**
+	 * Utility method - decides which of a batch of new events can be added, in one walk over
+	 * 						the batch and the existing events together. Walking in start-time
+	 * 						order, every existing event and accepted new event that starts
+	 * 						before the current one has been seen, so the current one conflicts
+	 * 						with one of them exactly when the latest end seen is after its
+	 * 						start, or the latest start seen is in the same minute; it conflicts
+	 * 						with a later existing event exactly when the next one starts before
+	 * 						it ends, or in the same minute
+	 * @param sorted	the new single events, in start-time order
+	 * @param existing	the existing events and occurrences around them, in start-time order
+	 * @param rejected	a List to which the conflicting new events are added
+	 * @return			a List of the new events that do not conflict, in start-time order
+	 */
+	private static List<CalendarEvent> sweepConflicts(CalendarEvent[] sorted, List<CalendarEvent> existing,
+			List<CalendarEvent> rejected)
+	{
+		List<CalendarEvent> accepted = new ArrayList<CalendarEvent>(sorted.length);
+		long latestEnd = Long.MIN_VALUE;		// of everything seen so far
+		long latestMinute = Long.MIN_VALUE;		// in which something seen so far started
+		int next = 0;							// the first existing event not yet seen
+		for(CalendarEvent ce : sorted)
+		{
+			long start = ce.getStartMillis(), minute = Math.floorDiv(start, MILLIS_PER_MINUTE);
+			for(; next < existing.size() && existing.get(next).getStartMillis() <= start; next++)
 			{
-				return true;
+				CalendarEvent seen = existing.get(next);
+				latestEnd = Math.max(latestEnd, seen.getEndMillis());
+				latestMinute = Math.floorDiv(seen.getStartMillis(), MILLIS_PER_MINUTE);
 			}
-
-			// get references to the two events that specify their starting order
-			CalendarEvent earliest = ce_in.getStart().before(ce.getStart()) ? ce_in : ce;
-			CalendarEvent latest = earliest == ce ? ce_in : ce;
 			
-			// later event begins before earlier event ends => conflict
-			if(latest.getStart().before(earliest.getEnd())) return true;
+			boolean conflicts = latestEnd > start || latestMinute == minute;
+			if(!conflicts && next < existing.size())
+			{
+				long nextStart = existing.get(next).getStartMillis();
+				conflicts = nextStart < ce.getEndMillis() || Math.floorDiv(nextStart, MILLIS_PER_MINUTE) == minute;
+			}
+			
+			if(conflicts) {rejected.add(ce); continue;}
+			accepted.add(ce);
+			latestEnd = Math.max(latestEnd, ce.getEndMillis());
+			latestMinute = minute;
 		}
-		return false;
+		return accepted;
+	} // sweepConflicts()
+
+	/**
+	 * Utility method - collects the events conflicting with a time-span from several snapshots
+	 * @return	a List of the conflicting events, in no particular order
+	 */
+	private static List<CalendarEvent> findConflicts(List<CalendarSnapshot> indexes, long start, long end)
+	{
+		if(indexes.size() == 1) return indexes.get(0).findConflicts(start, end);
+		
+		List<CalendarEvent> result = new ArrayList<CalendarEvent>();
+		for(CalendarSnapshot index : indexes) {result.addAll(index.findConflicts(start, end));}
+		return result;
 	}
 	
 	/**
-	 * Utility method - Notifies all listeners of change in state.
+	 * Callback interface - one calendar's part of a query that is run against several
+	 * 		calendars
 	 */
-	private void notifyListeners()
+	private interface ShardQuery
 	{
-		for(ChangeListener cl: listeners) {cl.stateChanged(new ChangeEvent(this));}
-		return;
+		/** @return the calendar's matching events, in start-time order */
+		List<CalendarEvent> query(CalendarShard shard);
+	}
+	
+	/**
+	 * Utility method - runs a query against several calendars in parallel and merges their
+	 * 						results. Calendars after the first are handed to the common
+	 * 						fork/join pool while the calling thread answers for the first
+	 * @param targets	the calendars to query
+	 * @param query		the query
+	 * @return			a List of every calendar's results, in start-time order
+	 */
+	private static List<CalendarEvent> fanOut(List<CalendarShard> targets, final ShardQuery query)
+	{
+		if(targets.isEmpty()) return new ArrayList<CalendarEvent>();
+		if(targets.size() == 1) return query.query(targets.get(0));
+		
+		List<ForkJoinTask<List<CalendarEvent>>> tasks = new ArrayList<ForkJoinTask<List<CalendarEvent>>>();
+		for(final CalendarShard shard : targets.subList(1, targets.size()))
+		{
+			tasks.add(ForkJoinPool.commonPool().submit(new 
+					Callable<List<CalendarEvent>>()
+					{@Override
+						public List<CalendarEvent> call() {return query.query(shard);}
+					}));
+		}
+		
+		List<List<CalendarEvent>> results = new ArrayList<List<CalendarEvent>>(targets.size());
+		results.add(query.query(targets.get(0)));
+		for(ForkJoinTask<List<CalendarEvent>> task : tasks) {results.add(task.join());}
+		return EventMerge.merge(results);
+	}
+	
+	/**
+	 * Utility method
+	 * @return	the calendars whose events are currently shown
+	 */
+	private List<CalendarShard> visibleCalendars()
+	{
+		List<CalendarShard> result = new ArrayList<CalendarShard>(calendars.size());
+		for(CalendarShard shard : calendars)
+		{
+			if(shard.isVisible()) result.add(shard);
+		}
+		return result;
+	}
+	
+	/**
+	 * Utility method
+	 * @return	the calendar with the given name, or null if there is none
+	 */
+	private CalendarShard findCalendar(String calendar)
+	{
+		for(CalendarShard shard : calendars)
+		{
+			if(shard.getName().equals(calendar)) return shard;
+		}
+		return null;
+	}
+	
+	/**
+	 * Utility method - works out whether a file in the data directory holds a further calendar
+	 * @param fileName	the name of the file
+	 * @return			the name of the calendar stored in it, or null if it is not a
+	 * 						calendar file
+	 */
+	private String calendarNameOf(String fileName)
+	{
+		String defaultName = snapshotFile.getName();
+		int extension = defaultName.lastIndexOf('.');
+		String prefix = (extension > 0 ? defaultName.substring(0, extension) : defaultName) + "-";
+		String suffix = extension > 0 ? defaultName.substring(extension) : "";
+		
+		if(!fileName.startsWith(prefix) || !fileName.endsWith(suffix)
+				|| fileName.length() <= prefix.length() + suffix.length()) return null;
+		String name = fileName.substring(prefix.length(), fileName.length() - suffix.length());
+		return CALENDAR_NAME.matcher(name).matches() ? name : null;
+	}
+	
+	/**
+	 * Utility method - Notifies all listeners of change in state. Notifications are delivered
+	 * 						on the event dispatch thread; changes made before an earlier
+	 * 						notification has gone out are merged into it, so a burst of
+	 * 						mutations produces a single update of each view.
+	 * @param e		a CalendarModelEvent describing the change
+	 */
+	private void notifyListeners(CalendarModelEvent e)
+	{
+		if(listeners.isEmpty()) return;
+		
+		synchronized(pendingLock)
+		{
+			pendingNotification = pendingNotification == null ? e : pendingNotification.merge(e);
+			if(dispatchScheduled) return;
+			dispatchScheduled = true;
+		}
+		SwingUtilities.invokeLater(dispatcher);
+	}
+	
+	/**
+	 * Utility method - delivers the pending (merged) notification to all listeners
+	 */
+	private void dispatchPendingNotification()
+	{
+		CalendarModelEvent e;
+		synchronized(pendingLock)
+		{
+			e = pendingNotification;
+			pendingNotification = null;
+			dispatchScheduled = false;
+		}
+		if(e == null) return;
+		
+		for(CalendarModelListener cml: listeners) {cml.modelChanged(e);}
+	}
+	
+	/**
+	 * Utility method - Notifies all listeners that the selected date has moved
+	 * @param oldSelection	a GregorianCalendar representing the date selected before the move
+	 */
+	private void notifySelectionChanged(GregorianCalendar oldSelection)
+	{
+		for(CalendarShard shard : calendars) {shard.setWindow(selectedDate.getTimeInMillis());}
+		notifyListeners(CalendarModelEvent.selectionChanged(this, oldSelection, getSelectedDate()));
 	}
 	
 	/**
 	 * Utility method - adds a listener to the collection
+	 * @param newListener - an object that implements the CalendarModelListener interface
+	 * 							and wants to be told what changed in this model's state
+	 */
+	public void attachModelListener(CalendarModelListener newListener)
+	{listeners.add(newListener);}
+	
+	/**
+	 * Utility method - adds a listener to the collection. The listener is wrapped in an
+	 * 						adapter and receives a ChangeEvent for every change, whatever
+	 * 						its type
 	 * @param newListener - an object that implements the ChangeListener interface
 	 * 							and wants to be notified of changes in this model's state
 	 */
 	public void attachListener(ChangeListener newListener)
-	{listeners.add(newListener);}
+	{listeners.add(new ChangeListenerAdapter(newListener, changeEvent));}
+	
+	/**
+	 * Utility method - removes a listener from the collection
+	 * @param oldListener - a CalendarModelListener previously attached
+	 */
+	public void detachModelListener(CalendarModelListener oldListener)
+	{listeners.remove(oldListener);}
+	
+	/**
+	 * Adapter class - forwards typed model notifications to a plain ChangeListener. All
+	 * 		adapters share one ChangeEvent, since its only state is the (unchanging) source
+	 * @author Iain Davis
+	 */
+	private static class ChangeListenerAdapter implements CalendarModelListener
+	{
+		private ChangeListenerAdapter(ChangeListener listener_in, ChangeEvent changeEvent_in)
+		{
+			listener = listener_in;
+			changeEvent = changeEvent_in;
+		}
+		
+		@Override
+		public void modelChanged(CalendarModelEvent e) {listener.stateChanged(changeEvent);}
+		
+		private final ChangeListener listener;
+		private final ChangeEvent changeEvent;
+	}
 	
 	/*
 	 * The following three snippets of code are adapted from one acquired from 
@@ -274,62 +1210,47 @@ public class CalendarModel {
 	{
 		System.out.println("========CURRENT EVENTS========="); // har har
 		int num = 0;
-		for(CalendarEvent ce : events)
+		for(CalendarEvent ce : getAllEvents())
 		{
 			System.out.println(++num);
 			System.out.println(ce.toString());
 		}
 	}
 	
-	private void readInEvents()
-	{
-		File file = new File("events.dat");
-		if(file.exists())
-		{
-			try {
-				ObjectInputStream  eventsFile_in = new ObjectInputStream(new
-						FileInputStream(file));
-				events = (TreeSet<CalendarEvent>) eventsFile_in.readObject();
-				eventsFile_in.close();
-				printEvents();
-				notifyListeners();
-				
-			} catch (FileNotFoundException e) {
-				e.printStackTrace();
-			} catch (IOException e) {
-				e.printStackTrace();
-			} catch (ClassNotFoundException e) {
-				e.printStackTrace();
-			}
-		}
-		else
-		{System.out.println("The file \"events.dat\" does not exist.");}
-		
-		file = null;
-		notifyListeners();
-	}
-	
-	// data structures for model contents
-	private static GregorianCalendar selectedDate = new GregorianCalendar();
-	private static TreeSet<CalendarEvent> events = new TreeSet<CalendarEvent>(
-			CalendarEvent.getComparator(CalendarEvent.Field.EVENT_START));
+	// data structures for model contents. The selected date is replaced, never modified, so
+	// readers can use it without locking; each calendar guards its own events (see CalendarShard)
+	private volatile GregorianCalendar selectedDate = new GregorianCalendar();
+	private volatile ZoneOffsets displayZone = ZoneOffsets.of(TimeZone.getDefault());	// selectedDate is in this zone
+	private final Object selectionLock = new Object();
+	private final CopyOnWriteArrayList<CalendarShard> calendars = new CopyOnWriteArrayList<CalendarShard>();
 	
 	// data structure for listeners collection
-	private static final ArrayList<ChangeListener> listeners = new ArrayList<ChangeListener>();
+	private final CopyOnWriteArrayList<CalendarModelListener> listeners = new CopyOnWriteArrayList<CalendarModelListener>();
+	private final ChangeEvent changeEvent = new ChangeEvent(this);
+	
+	// notification coalescing
+	private final Object pendingLock = new Object();
+	private CalendarModelEvent pendingNotification;
+	private boolean dispatchScheduled;
+	private final Runnable dispatcher = new 
+			Runnable()
+			{@Override
+				public void run() {dispatchPendingNotification();}
+			};
+	
+	private static final long MILLIS_PER_MINUTE = 60 * 1000;
+	
+	// persistence
+	static final String DEFAULT_CALENDAR = "Default";
+	private static final String DEFAULT_SNAPSHOT_FILE = "events.dat";
+	private static final Pattern CALENDAR_NAME = Pattern.compile("[\\w-]+");
+	private final File snapshotFile;
 
-	public void flushToDisk() {
-		File file = new File("events.dat");
-		
-		ObjectOutputStream eventsFile_out;
-		try {
-			eventsFile_out = new ObjectOutputStream(new FileOutputStream(file));
-			eventsFile_out.writeObject(events);
-			eventsFile_out.close();
-		} catch (FileNotFoundException e) {
-			e.printStackTrace();
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
-		file = null;
+	/**
+	 * Utility method - writes a complete snapshot of every calendar to disk and empties the
+	 * 						journals (see CalendarShard.flushToDisk())
+	 */
+	public synchronized void flushToDisk() {
+		for(CalendarShard shard : calendars) {shard.flushToDisk();}
 	}
 }
@@ -0,0 +1,202 @@
+import java.util.EventObject;
+import java.util.GregorianCalendar;
+
+/**
+ * Describes a change in the state of a CalendarModel. A single notification may report any
+ * 		combination of:
+ * 			- a change of selected date (with the old and new dates)
+ * 			- events added (with the time-span covering all of them)
+ * 			- events removed (with the time-span covering all of them)
+ *
+ * Time-spans are in epoch milliseconds and inclusive at both ends, so that events with no
+ * 		duration are still covered.
+ *
+ * @author Iain Davis
+ */
+public class CalendarModelEvent extends EventObject {
+	private CalendarModelEvent(CalendarModel source, 
+			GregorianCalendar oldSelection_in, GregorianCalendar newSelection_in,
+			long addedStart_in, long addedEnd_in, long removedStart_in, long removedEnd_in)
+	{
+		super(source);
+		oldSelection = oldSelection_in;
+		newSelection = newSelection_in;
+		addedStart = addedStart_in;
+		addedEnd = addedEnd_in;
+		removedStart = removedStart_in;
+		removedEnd = removedEnd_in;
+	}
+	
+	/**
+	 * Factory method - describes a change of selected date
+	 * @param source		the model whose state changed
+	 * @param oldSelection	a GregorianCalendar representing the previously selected date
+	 * @param newSelection	a GregorianCalendar representing the newly selected date
+	 * @return				a CalendarModelEvent describing the change
+	 */
+	static CalendarModelEvent selectionChanged(CalendarModel source, 
+			GregorianCalendar oldSelection, GregorianCalendar newSelection)
+	{return new CalendarModelEvent(source, oldSelection, newSelection, EMPTY_START, EMPTY_END, EMPTY_START, EMPTY_END);}
+	
+	/**
+	 * Factory method - describes the addition of events
+	 * @param source		the model whose state changed
+	 * @param start			the earliest start time of the added events
+	 * @param end			the latest end time of the added events
+	 * @return				a CalendarModelEvent describing the change
+	 */
+	static CalendarModelEvent eventsAdded(CalendarModel source, long start, long end)
+	{return new CalendarModelEvent(source, null, null, start, end, EMPTY_START, EMPTY_END);}
+	
+	/**
+	 * Factory method - describes the removal of events
+	 * @param source		the model whose state changed
+	 * @param start			the earliest start time of the removed events
+	 * @param end			the latest end time of the removed events
+	 * @return				a CalendarModelEvent describing the change
+	 */
+	static CalendarModelEvent eventsRemoved(CalendarModel source, long start, long end)
+	{return new CalendarModelEvent(source, null, null, EMPTY_START, EMPTY_END, start, end);}
+	
+	/**
+	 * Factory method - describes a set of additions and removals applied together
+	 * @param source		the model whose state changed
+	 * @param addedStart	the earliest start time of the added events
+	 * @param addedEnd		the latest end time of the added events (less than addedStart if
+	 * 							no events were added)
+	 * @param removedStart	the earliest start time of the removed events
+	 * @param removedEnd	the latest end time of the removed events (less than removedStart
+	 * 							if no events were removed)
+	 * @return				a CalendarModelEvent describing the change
+	 */
+	static CalendarModelEvent eventsChanged(CalendarModel source, 
+			long addedStart, long addedEnd, long removedStart, long removedEnd)
+	{return new CalendarModelEvent(source, null, null, addedStart, addedEnd, removedStart, removedEnd);}
+	
+	/**
+	 * Utility method - combines this change with one that followed it into a single
+	 * 						notification. The selection runs from the earliest old date to
+	 * 						the latest new date, and the event time-spans are unioned
+	 * @param later		a CalendarModelEvent describing a change that happened after this one
+	 * @return			a CalendarModelEvent describing both changes
+	 */
+	CalendarModelEvent merge(CalendarModelEvent later)
+	{
+		return new CalendarModelEvent(getModel(),
+				isSelectionChanged() ? oldSelection : later.oldSelection,
+				later.isSelectionChanged() ? later.newSelection : newSelection,
+				Math.min(addedStart, later.addedStart), Math.max(addedEnd, later.addedEnd),
+				Math.min(removedStart, later.removedStart), Math.max(removedEnd, later.removedEnd));
+	}
+	
+	/**
+	 * Accessor method
+	 * @return	the model whose state changed
+	 */
+	public CalendarModel getModel()
+	{return (CalendarModel) getSource();}
+	
+	/**
+	 * Accessor method
+	 * @return	true if the selected date changed
+	 */
+	public boolean isSelectionChanged()
+	{return newSelection != null;}
+	
+	/**
+	 * Accessor method
+	 * @return	a copy of the previously selected date, or null if the selection did not change
+	 */
+	public GregorianCalendar getOldSelection()
+	{return oldSelection == null ? null : (GregorianCalendar) oldSelection.clone();}
+	
+	/**
+	 * Accessor method
+	 * @return	a copy of the newly selected date, or null if the selection did not change
+	 */
+	public GregorianCalendar getNewSelection()
+	{return newSelection == null ? null : (GregorianCalendar) newSelection.clone();}
+	
+	/**
+	 * Accessor method
+	 * @return	true if any events were added
+	 */
+	public boolean hasAddedEvents()
+	{return addedStart <= addedEnd;}
+	
+	/**
+	 * Accessor method
+	 * @return	true if any events were removed
+	 */
+	public boolean hasRemovedEvents()
+	{return removedStart <= removedEnd;}
+	
+	/**
+	 * Accessor method
+	 * @return	the earliest start time of the added events (meaningless if none were added)
+	 */
+	public long getAddedStart()
+	{return addedStart;}
+	
+	/**
+	 * Accessor method
+	 * @return	the latest end time of the added events (meaningless if none were added)
+	 */
+	public long getAddedEnd()
+	{return addedEnd;}
+	
+	/**
+	 * Accessor method
+	 * @return	the earliest start time of the removed events (meaningless if none were removed)
+	 */
+	public long getRemovedStart()
+	{return removedStart;}
+	
+	/**
+	 * Accessor method
+	 * @return	the latest end time of the removed events (meaningless if none were removed)
+	 */
+	public long getRemovedEnd()
+	{return removedEnd;}
+	
+	/**
+	 * Utility method - checks whether events added or removed by this change could fall
+	 * 						within a window of time a view is displaying
+	 * @param start		the start of the window in epoch milliseconds (inclusive)
+	 * @param end		the end of the window in epoch milliseconds (exclusive)
+	 * @return			true if an added or removed event may overlap the window
+	 * 					false otherwise
+	 */
+	public boolean eventsTouch(long start, long end)
+	{
+		return (hasAddedEvents() && addedStart < end && addedEnd >= start)
+				|| (hasRemovedEvents() && removedStart < end && removedEnd >= start);
+	}
+	
+	/**
+	 * Utility method - gets a summary of this instance
+	 * @return		a String representing a summary of this instance's fields
+	 */
+	public String toString()
+	{
+		StringBuffer sb = new StringBuffer("CalendarModelEvent[");
+		if(isSelectionChanged())
+			sb.append("selection " + CalendarModel.getFormattedDate(oldSelection)
+					+ " -> " + CalendarModel.getFormattedDate(newSelection) + " ");
+		if(hasAddedEvents()) sb.append("added " + addedStart + ".." + addedEnd + " ");
+		if(hasRemovedEvents()) sb.append("removed " + removedStart + ".." + removedEnd);
+		return sb.toString().trim() + "]";
+	}
+	
+	// empty ranges run backwards, so that taking the min of starts and max of ends unions them
+	private static final long EMPTY_START = Long.MAX_VALUE;
+	private static final long EMPTY_END = Long.MIN_VALUE;
+	
+	private final GregorianCalendar oldSelection;
+	private final GregorianCalendar newSelection;
+	private final long addedStart;
+	private final long addedEnd;
+	private final long removedStart;
+	private final long removedEnd;
+	private static final long serialVersionUID = -2049942836029922400L;
+}
@@ -0,0 +1,17 @@
+import java.util.EventListener;
+
+/**
+ * Listener interface for objects that want to be told what changed in a CalendarModel, not
+ * 		just that something changed. Each notification carries a CalendarModelEvent describing
+ * 		any change of selected date and the time-spans of any events added or removed, so a
+ * 		view can skip work when the change does not touch what it is showing.
+ *
+ * @author Iain Davis
+ */
+public interface CalendarModelListener extends EventListener {
+	/**
+	 * Listener method - receives a notification of a change in model state
+	 * @param e		a CalendarModelEvent describing the change
+	 */
+	void modelChanged(CalendarModelEvent e);
+}
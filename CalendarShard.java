@@ -0,0 +1,706 @@
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * One calendar (e.g. a team's or a room's) within a CalendarModel: its events, the indexes
+ * 		over them, and the snapshot file and journal that persist them. Each calendar is
+ * 		loaded, journalled and written independently of the others.
+ *
+ * Readers use getSnapshot() or residentSnapshot() without locking. Everything else changes
+ * 		the working copies of the events and indexes and is synchronized on the shard; the
+ * 		model additionally serializes its own changes, so checks that span several calendars
+ * 		(such as conflict checks) see a stable state. Changes made with add() and remove()
+ * 		become visible to readers, and are written to the journal, when commit() is called.
+ * 		In paged mode, pages can be loaded or dropped part-way through a change (by the
+ * 		change itself, or by a reader taking the monitor between two of its steps); the
+ * 		page is then applied to the published snapshot on its own, never the working copies.
+ *
+ * Once the journal grows long, commit() hands the writing of a fresh snapshot to a
+ * 		background thread (see flushToDisk()), so a change never waits for the whole
+ * 		calendar to be written.
+ *
+ * @author Iain Davis
+ */
+class CalendarShard {
+	/**
+	 * Constructor - loads the calendar's events from disk
+	 * @param name_in			the name of the calendar, as shown to the user
+	 * @param snapshotFile_in	the events file; its journal is kept alongside it, with the
+	 * 								extension replaced by ".journal"
+	 * @param windowMillis		in paged mode, the date around which pages are loaded first
+	 * @param displayZone_in	the offset table of the time zone whose days are counted for
+	 * 								the views (see setDisplayZone())
+	 */
+	CalendarShard(String name_in, File snapshotFile_in, long windowMillis, ZoneOffsets displayZone_in)
+	{
+		name = name_in;
+		occupancyIndex = new DayOccupancyIndex(displayZone_in);
+		snapshotFile = snapshotFile_in;
+		String fileName = snapshotFile.getName();
+		int extension = fileName.lastIndexOf('.');
+		String baseName = extension > 0 ? fileName.substring(0, extension) : fileName;
+		journal = new EventJournal(new File(snapshotFile.getAbsoluteFile().getParentFile(), baseName + ".journal"));
+
+		readInEvents(windowMillis);
+	}
+
+	/**
+	 * Accessor method
+	 * @return	the name of the calendar
+	 */
+	String getName()
+	{return name;}
+
+	/**
+	 * Accessor method
+	 * @return	true if the calendar's events are shown in the views
+	 * 			false otherwise
+	 */
+	boolean isVisible()
+	{return visible;}
+
+	/**
+	 * Mutator method - shows or hides the calendar's events in the views
+	 * @param visible_in	true to show the events
+	 */
+	void setVisible(boolean visible_in)
+	{visible = visible_in;}
+
+	/**
+	 * Accessor method
+	 * @return	the most recently published snapshot of the calendar's events
+	 */
+	CalendarSnapshot getSnapshot()
+	{return snapshot;}
+
+	/**
+	 * Accessor method - gets a snapshot to answer a query about a span of time. In paged mode
+	 * 						the pages covering the span are loaded first
+	 * @param start		the start of the span in epoch milliseconds
+	 * @param end		the end of the span in epoch milliseconds
+	 * @return			the current CalendarSnapshot
+	 */
+	CalendarSnapshot residentSnapshot(long start, long end)
+	{
+		if(pager == null) return snapshot;
+		synchronized(this)
+		{
+			pager.ensureResident(start, end);
+			return snapshot;
+		}
+	}
+
+	/**
+	 * Accessor method - gets every event in the calendar, including (in paged mode) those not
+	 * 						currently in memory
+	 * @return			an Iterable over all events in start-time order. Outside paged mode
+	 * 						this is the current snapshot; in paged mode it must not be used
+	 * 						while the calendar is being changed
+	 */
+	synchronized Iterable<CalendarEvent> getAllEvents()
+	{
+		if(pager == null) return snapshot;
+		if(recurring.size() == 0) return pager.snapshotEvents(events);
+		return EventMerge.merge(Arrays.asList(pager.snapshotEvents(events), recurring.getSeries()));
+	}
+
+	/**
+	 * Accessor method
+	 * @return			the total number of events in the calendar (a repeating event counts once)
+	 */
+	synchronized int getEventCount()
+	{
+		if(pager == null) return events.size() + recurring.size();
+		return pager.snapshotCount(events.size()) + recurring.size();
+	}
+
+	/**
+	 * Accessor method - finds the events that conflict with a proposed event, as the calendar
+	 * 						stands part-way through a change (which may not be committed yet)
+	 * @param ce_in		the proposed CalendarEvent, which may repeat
+	 * @return			a List of the conflicting events and occurrences ordered by start time
+	 */
+	synchronized List<CalendarEvent> findUncommittedConflicts(CalendarEvent ce_in)
+	{
+		// in paged mode an endless series is only checked against the pages in memory beyond
+		// its first occurrence
+		long end = ce_in.getSeriesEndMillis();
+		ensureResident(ce_in.getStartMillis(), end == Long.MAX_VALUE ? ce_in.getEndMillis() : end);
+		return RecurringEvents.findConflicts(events, recurring, ce_in);
+	}
+
+	/**
+	 * Accessor method - finds the committed events whose titles or descriptions contain a word
+	 * 						beginning with each of the given prefixes. The search index is
+	 * 						built on the first search and kept up to date by commit()
+	 * 						thereafter; repeating events are matched directly and appear as
+	 * 						their occurrences
+	 * @param prefixes	the query, as returned by SearchIndex.tokenize()
+	 * @param from		the earliest start time of interest, in epoch milliseconds
+	 * @param limit		the most results wanted
+	 * @return			a List of the first matching events and occurrences starting at or
+	 * 						after from, ordered by start time
+	 */
+	synchronized List<CalendarEvent> search(List<String> prefixes, long from, int limit)
+	{
+		if(searchIndex == null)
+		{
+			searchIndex = new SearchIndex();
+			for(CalendarEvent ce : pager == null ? events : pager.snapshotEvents(events)) {searchIndex.add(ce);}
+			// the working copy may hold changes not yet committed, which commit() will apply
+			for(CalendarEvent ce : pendingAdded) {if(!ce.isRecurring()) searchIndex.remove(ce);}
+			for(CalendarEvent ce : pendingRemoved) {if(!ce.isRecurring()) searchIndex.add(ce);}
+		}
+
+		List<CalendarEvent> result = new ArrayList<CalendarEvent>();
+		SearchIndex.Hits hits = searchIndex.search(prefixes, from, limit);
+		for(int i = 0; i < hits.size(); i++)
+		{
+			ensureResident(hits.getStartMillis(i), hits.getStartMillis(i));
+			CalendarEvent ce = ids.get(hits.getId(i));
+			if(ce != null) result.add(ce);
+		}
+		for(CalendarEvent series : recurring.getSeries())
+		{
+			if(!SearchIndex.matches(series, prefixes)) continue;
+			long next = from;
+			for(int i = 0; i < limit; i++)
+			{
+				next = series.getRecurrence().getNextStart(series.getStartMillis(), next, series.getZoneOffsets().getTimeZone());
+				if(next == Long.MAX_VALUE) break;
+				result.add(series.occurrenceAt(next++));
+			}
+		}
+
+		Collections.sort(result, CalendarEvent.getComparator(CalendarEvent.Field.EVENT_START));
+		return result.size() > limit ? new ArrayList<CalendarEvent>(result.subList(0, limit)) : result;
+	}
+
+	/**
+	 * Mutator method - adds an event to the calendar, pending the next commit()
+	 * @param ce_in		the CalendarEvent to add
+	 * @precondition	ce_in is non-null, conflicts with no event in the calendar and does not
+	 * 					share its id with one
+	 */
+	synchronized void add(CalendarEvent ce_in)
+	{
+		storeEvent(ce_in);
+		pendingAdded.add(ce_in);
+	}
+
+	/**
+	 * Mutator method - adds many events to the calendar at once, pending the next commit()
+	 * 					(see EventIntervalTree.insertAll())
+	 * @param events_in		the CalendarEvents to add, ideally in start-time order
+	 * @precondition		as for add(), for each of the events
+	 */
+	synchronized void addAll(List<CalendarEvent> events_in)
+	{
+		if(pager != null)
+		{
+			for(CalendarEvent ce : events_in) {if(!ce.isRecurring()) pager.markDirty(ce.getStartMillis());}
+		}
+		indexAll(events_in);
+		pendingAdded.addAll(events_in);
+	}
+
+	/**
+	 * Mutator method - removes an event from the calendar, pending the next commit(). Removing
+	 * 					one occurrence of a repeating event adds an exception to it; removing
+	 * 					the repeating event itself removes every occurrence
+	 * @param ce_in		the CalendarEvent to remove (matched by id)
+	 * @return			the instance that was actually removed (for an occurrence, ce_in
+	 * 						itself), or null if no match was found
+	 */
+	synchronized CalendarEvent remove(CalendarEvent ce_in)
+	{
+		if(ce_in != null && ce_in.getSeries() != null) return removeOccurrence(ce_in);
+
+		CalendarEvent stored = unstoreEvent(ce_in);
+		if(stored != null) pendingRemoved.add(stored);
+		return stored;
+	}
+
+	/**
+	 * Mutator method - replaces an event with a changed copy, pending the next commit. Only
+	 * 					the one entry is taken out of and put back into the indexes, so this
+	 * 					takes O(log n) time however many events the calendar holds
+	 * @param original	the CalendarEvent to replace (matched by id); for an occurrence, the
+	 * 						occurrence is skipped and updated added alongside its series
+	 * @param updated	the CalendarEvent to put in its place, which must not be an occurrence
+	 * @return			the instance that was actually removed (see remove()), or null if no
+	 * 						match was found, in which case nothing is changed
+	 * @precondition	updated conflicts with no event in the calendar other than original
+	 */
+	synchronized CalendarEvent replace(CalendarEvent original, CalendarEvent updated)
+	{
+		CalendarEvent removed = remove(original);
+		if(removed != null) add(updated);
+		return removed;
+	}
+
+	/**
+	 * Boolean accessor method
+	 * @param ce_in		a CalendarEvent (matched by id)
+	 * @return			true if the event, or the repeating event of an occurrence, is in the
+	 * 						calendar (in paged mode, in a page in memory)
+	 * 					false otherwise
+	 */
+	synchronized boolean contains(CalendarEvent ce_in)
+	{return ce_in != null && ids.get(ce_in.getId()) != null;}
+
+	/**
+	 * Mutator method - records the changes made since the last commit in the journal, then
+	 * 					makes them visible to readers all at once
+	 * @return	true if there were any changes to commit
+	 * 			false otherwise
+	 */
+	synchronized boolean commit()
+	{
+		if(!hasPendingChanges()) return false;
+
+		try {
+			journal.appendAll(pendingAdded, pendingRemoved);
+			if(journal.getRecordCount() >= COMPACTION_THRESHOLD) compactionDue = true;
+		} catch (IOException e) {
+			// not recorded (e.g. an event too large for the journal), so write a snapshot
+			e.printStackTrace();
+			compactionDue = true;
+		}
+		if(searchIndex != null)
+		{
+			for(CalendarEvent ce : pendingRemoved) {if(!ce.isRecurring()) searchIndex.remove(ce);}
+			for(CalendarEvent ce : pendingAdded) {if(!ce.isRecurring()) searchIndex.add(ce);}
+		}
+		pendingAdded.clear();
+		pendingRemoved.clear();
+		publish();
+		if(compactionDue && !compactionScheduled)
+		{
+			compactionScheduled = true;
+			COMPACTOR.execute(compaction);
+		}
+		return true;
+	}
+
+	/**
+	 * Mutator method - in paged mode, moves the window of loaded pages to surround a date
+	 * @param millis	the newly selected date, in epoch milliseconds
+	 */
+	void setWindow(long millis)
+	{
+		if(pager == null) return;
+		synchronized(this) {pager.setWindow(millis);}
+	}
+
+	/**
+	 * Mutator method - counts the events against the days of a different time zone, for views
+	 * 					that display the calendar in that zone. The occupancy index is rebuilt
+	 * 					from the events in memory and a new snapshot published
+	 * @param zone_in	the offset table of the time zone
+	 */
+	synchronized void setDisplayZone(ZoneOffsets zone_in)
+	{
+		if(occupancyIndex.getZone() == zone_in) return;
+
+		DayOccupancyIndex occupancy = new DayOccupancyIndex(zone_in);
+		for(CalendarEvent ce : events) {occupancy.add(ce);}
+		occupancyIndex = occupancy;
+		occupancyPublished = false;
+		publish();
+	}
+
+	/**
+	 * Utility method - writes a complete snapshot of the events to disk and drops the journal
+	 * 						records it holds. The events are taken under the shard's monitor
+	 * 						but written without it, so readers and writers carry on meanwhile;
+	 * 						changes committed during the write stay in the journal, and the
+	 * 						pages they touch stay pinned. The snapshot is written to a
+	 * 						temporary file and then moved into place, so a crash mid-write
+	 * 						never damages the previous snapshot; the journal is only trimmed
+	 * 						once the move has succeeded. Nothing is written while a change is
+	 * 						under way (between add() or remove() and commit()), since the
+	 * 						snapshot must not hold part of it
+	 */
+	void flushToDisk()
+	{
+		synchronized(compactionLock)
+		{
+			File file = snapshotFile;
+			File tempFile = new File(snapshotFile.getPath() + ".tmp");
+			Iterable<CalendarEvent> single;
+			Collection<CalendarEvent> series;
+			long journalLength, pagerChanges = 0;
+			synchronized(this)
+			{
+				compactionScheduled = false;	// commit() schedules another if this one cannot run
+				if(hasPendingChanges()) return;
+				compactionDue = false;
+
+				series = recurring.getSeries();
+				journalLength = journal.getLength();
+				if(pager == null) single = events;
+				else
+				{
+					single = pager.snapshotEvents(events);
+					pagerChanges = pager.getChangeCount();
+				}
+			}
+
+			try {
+				EventFileFormat.write(tempFile, single, series);
+				try {
+					Files.move(tempFile.toPath(), file.toPath(),
+							StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+				} catch (AtomicMoveNotSupportedException e) {
+					Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+				}
+				synchronized(this)
+				{
+					journal.discardBefore(journalLength);
+					if(pager != null) pager.reopen(new EventFileFormat.Reader(file), pagerChanges);
+				}
+			} catch (FileNotFoundException e) {
+				e.printStackTrace();
+				synchronized(this) {compactionDue = true;}
+			} catch (IOException e) {
+				e.printStackTrace();
+				synchronized(this) {compactionDue = true;}
+			}
+		}
+	} // flushToDisk()
+
+	/**
+	 * Utility method - places a new or changed event in the collection and all indexes
+	 */
+	private void storeEvent(CalendarEvent ce_in)
+	{
+		if(pager != null && !ce_in.isRecurring()) pager.markDirty(ce_in.getStartMillis());
+		indexEvent(ce_in);
+	}
+
+	/**
+	 * Utility method - places an event in the collection and all indexes. Repeating events are
+	 * 						kept apart from the others, and are never paged out
+	 */
+	private void indexEvent(CalendarEvent ce_in)
+	{
+		ids.put(ce_in);
+		if(ce_in.isRecurring())
+		{
+			recurring = recurring.with(ce_in);
+			return;
+		}
+		events = events.insert(ce_in);
+		editableOccupancy().add(ce_in);
+		longReminders = longReminders.with(ce_in);
+	}
+
+	/**
+	 * Utility method - places many events in the collection and all indexes, building the
+	 * 						interval tree in one go rather than by repeated insertion. The
+	 * 						single events are sorted first unless they are already in order
+	 */
+	private void indexAll(List<CalendarEvent> events_in)
+	{
+		Comparator<CalendarEvent> order = CalendarEvent.getComparator(CalendarEvent.Field.EVENT_START);
+		List<CalendarEvent> single = new ArrayList<CalendarEvent>(events_in.size());
+		boolean sorted = true;
+		for(CalendarEvent ce : events_in)
+		{
+			if(ce.isRecurring()) {indexEvent(ce); continue;}
+			ids.put(ce);
+			if(!single.isEmpty() && order.compare(single.get(single.size() - 1), ce) > 0) sorted = false;
+			single.add(ce);
+		}
+		if(!sorted)
+		{
+			CalendarEvent[] array = single.toArray(new CalendarEvent[single.size()]);
+			Arrays.parallelSort(array, order);
+			single = Arrays.asList(array);
+		}
+
+		DayOccupancyIndex occupancy = editableOccupancy();
+		for(CalendarEvent ce : single) {occupancy.add(ce);}
+		events = events.insertAll(single);
+		longReminders = longReminders.withAll(single);
+	}
+
+	/**
+	 * Utility method - removes an event from the collection and all indexes
+	 * @return	the instance that was actually removed, or null if no match was found
+	 */
+	private CalendarEvent unstoreEvent(CalendarEvent ce_in)
+	{
+		if(ce_in == null) return null;
+		if(pager != null && !ce_in.isRecurring()) pager.markDirty(ce_in.getStartMillis());
+
+		// look up the instance actually held, which may differ from ce_in in all but its id
+		CalendarEvent stored = ids.remove(ce_in.getId());
+		if(stored == null) return null;
+
+		if(stored.isRecurring())
+			recurring = recurring.without(stored);
+		else
+		{
+			events = events.remove(stored);
+			editableOccupancy().remove(stored);
+			longReminders = longReminders.without(stored);
+		}
+		return stored;
+	}
+
+	/**
+	 * Utility method - skips one occurrence of a repeating event, by replacing the repeating
+	 * 						event with a copy that has one more exception
+	 * @return	the occurrence, or null if its repeating event is not in this calendar
+	 */
+	private CalendarEvent removeOccurrence(CalendarEvent occurrence)
+	{
+		CalendarEvent stored = ids.get(occurrence.getId());
+		if(stored == null || !stored.isRecurring()) return null;
+
+		CalendarEvent reduced = stored.withException(occurrence.getStartMillis());
+		recurring = recurring.without(stored).with(reduced);
+		ids.put(reduced);
+		pendingRemoved.add(stored);
+		pendingAdded.add(reduced);
+		return occurrence;
+	}
+
+	/**
+	 * Utility method - gets the occupancy index for changing, first copying it if the current
+	 * 						one has already been published to readers
+	 */
+	private DayOccupancyIndex editableOccupancy()
+	{
+		if(occupancyPublished)
+		{
+			occupancyIndex = new DayOccupancyIndex(occupancyIndex);
+			occupancyPublished = false;
+		}
+		return occupancyIndex;
+	}
+
+	/**
+	 * Boolean accessor method
+	 * @return	true if the working copies hold changes not yet committed (and so differ from
+	 * 				the published snapshot)
+	 * 			false otherwise
+	 */
+	private boolean hasPendingChanges()
+	{return !pendingAdded.isEmpty() || !pendingRemoved.isEmpty();}
+
+	/**
+	 * Utility method - makes the changes made so far visible to readers as a new snapshot
+	 */
+	private void publish()
+	{
+		snapshot = new CalendarSnapshot(events, occupancyIndex, recurring, longReminders);
+		occupancyPublished = true;
+	}
+
+	/**
+	 * Utility method - loads the most recent snapshot of events from disk, then replays the
+	 * 						journal of changes made since that snapshot was written. A
+	 * 						snapshot still in the old Java-serialized format is read once,
+	 * 						backed up, and rewritten in the binary format
+	 */
+	private void readInEvents(long windowMillis)
+	{
+		File file = snapshotFile;
+		boolean migrate = false;
+		if(file.exists())
+		{
+			try {
+				if(EventFileFormat.isSerializedFormat(file))
+				{
+					ObjectInputStream  eventsFile_in = new ObjectInputStream(new
+							FileInputStream(file));
+					TreeSet<CalendarEvent> legacyEvents = (TreeSet<CalendarEvent>) eventsFile_in.readObject();
+					eventsFile_in.close();
+					indexAll(new ArrayList<CalendarEvent>(legacyEvents));
+					migrate = true;
+				}
+				else if(PAGED_LOADING)
+				{
+					// only the pages around the selected date are read now; the rest follow on demand
+					EventFileFormat.Reader reader = new EventFileFormat.Reader(file);
+					pager = new EventPager(reader, PAGE_WINDOW_MONTHS, MAX_RESIDENT_EVENTS, pageSink);
+					pager.setWindow(windowMillis);
+					for(CalendarEvent ce : reader.readSeries()) {indexEvent(ce);}
+				}
+				else
+				{
+					indexAll(EventFileFormat.read(file));
+				}
+
+			} catch (FileNotFoundException e) {
+				e.printStackTrace();
+			} catch (IOException e) {
+				e.printStackTrace();
+			} catch (ClassNotFoundException e) {
+				e.printStackTrace();
+			}
+		}
+		else
+		{System.out.println("The file \"" + file + "\" does not exist.");}
+
+		// re-apply changes made after the snapshot. A crash between writing a snapshot and
+		// emptying the journal can leave changes that the snapshot already contains, so
+		// replaying is made idempotent: an addition replaces any event with the same id (or,
+		// for records from before events had ids, the same start)
+		try {
+			int replayed = journal.replay(new
+					EventJournal.Replayer()
+					{
+						@Override
+						public void added(CalendarEvent ce, boolean identified)
+						{
+							unstoreEvent(identified ? ce : findByStart(ce));
+							storeEvent(ce);
+						}
+
+						@Override
+						public void deleted(CalendarEvent ce, boolean identified)
+						{unstoreEvent(identified ? ce : findByStart(ce));}
+					});
+			if(migrate)
+			{
+				File backup = new File(file.getPath() + ".bak");
+				Files.copy(file.toPath(), backup.toPath(), StandardCopyOption.REPLACE_EXISTING);
+				System.out.println("Converted \"" + file + "\" to the current events format "
+						+ "(original saved as \"" + backup + "\").");
+			}
+			if(replayed > 0 || migrate) flushToDisk();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		publish();
+	}
+
+	/**
+	 * Utility method - finds the stored event with the same start time as another (and the
+	 * 						same kind: single or repeating)
+	 * @return	the stored event, or null if there is none
+	 */
+	private CalendarEvent findByStart(CalendarEvent ce_in)
+	{
+		if(ce_in.isRecurring()) return recurring.findByStart(ce_in.getStartMillis());
+		ensureResident(ce_in.getStartMillis(), ce_in.getStartMillis());
+		return events.findByStart(ce_in.getStartMillis());
+	}
+
+	/**
+	 * Utility method - in paged mode, makes sure every event that could overlap a span of time
+	 * 						is in memory before the span is examined
+	 */
+	private void ensureResident(long start, long end)
+	{
+		if(pager != null) pager.ensureResident(start, end);
+	}
+
+	private final String name;
+	private volatile boolean visible = true;
+
+	// the writers' working copies of the events and indexes, guarded by the shard's monitor.
+	// Readers see them via the snapshot
+	private EventIntervalTree events = EventIntervalTree.EMPTY;	// single events
+	private RecurringEvents recurring = RecurringEvents.EMPTY;
+	private LongReminders longReminders = LongReminders.EMPTY;	// single events with long reminders
+	private final EventIdIndex ids = new EventIdIndex();	// every event in memory, by id
+	private DayOccupancyIndex occupancyIndex;
+	private boolean occupancyPublished;	// true once occupancyIndex is visible to readers
+	private volatile CalendarSnapshot snapshot = new CalendarSnapshot(events, new DayOccupancyIndex(), recurring, longReminders);
+	private final List<CalendarEvent> pendingAdded = new ArrayList<CalendarEvent>();
+	private final List<CalendarEvent> pendingRemoved = new ArrayList<CalendarEvent>();
+	private SearchIndex searchIndex;	// committed single events; null until the first search
+
+	// paging - see EventPager. Enabled with -Dsimplecalendar.paged=true
+	private static final boolean PAGED_LOADING = Boolean.getBoolean("simplecalendar.paged");
+	private static final int PAGE_WINDOW_MONTHS = Integer.getInteger("simplecalendar.pageWindowMonths", 2);
+	private static final int MAX_RESIDENT_EVENTS = Integer.getInteger("simplecalendar.maxResidentEvents", 250000);
+	private EventPager pager;	// null unless paging
+	private final EventPager.PageSink pageSink = new
+			EventPager.PageSink()
+			{
+				@Override
+				public void pageIn(List<CalendarEvent> pageEvents)
+				{
+					// pages come from the file in start-time order, and are never dirty when
+					// loaded, so they hold the same events in the working copies and the snapshot
+					boolean changing = hasPendingChanges();
+					indexAll(pageEvents);
+					if(changing) snapshot = snapshot.withPage(pageEvents);
+					else publish();
+				}
+
+				@Override
+				public void pageOut(long start, long end)
+				{
+					// only pages without changes are dropped (see EventPager.markDirty())
+					boolean changing = hasPendingChanges();
+					for(CalendarEvent ce : events.findStartingIn(start, end))
+					{
+						ids.remove(ce.getId());
+						events = events.remove(ce);
+						editableOccupancy().remove(ce);
+					}
+					longReminders = longReminders.withoutStartingIn(start, end);
+					if(changing) snapshot = snapshot.withoutPage(start, end);
+					else publish();
+				}
+
+				@Override
+				public int residentCount() {return events.size();}
+			};
+
+	// persistence
+	private static final int COMPACTION_THRESHOLD = 1000;	// journal records between snapshots
+	private final File snapshotFile;
+	private final EventJournal journal;
+
+	// compaction. One daemon thread writes snapshots for every calendar; a snapshot cut short
+	// when the program exits is harmless, since the journal is only trimmed afterwards
+	private static final ExecutorService COMPACTOR = Executors.newSingleThreadExecutor(new
+			ThreadFactory()
+			{@Override
+				public Thread newThread(Runnable r)
+				{
+					Thread thread = new Thread(r, "compaction");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+	private final Runnable compaction = new
+			Runnable()
+			{@Override
+				public void run()
+				{
+					synchronized(CalendarShard.this)
+					{
+						if(!compactionDue) {compactionScheduled = false; return;}	// flushed meanwhile
+					}
+					flushToDisk();
+				}
+			};
+	private final Object compactionLock = new Object();	// held while a snapshot is written
+	private boolean compactionDue;			// guarded by the monitor: the journal should be folded
+	private boolean compactionScheduled;	// guarded by the monitor: COMPACTOR has it queued
+}
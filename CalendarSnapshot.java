@@ -0,0 +1,271 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.GregorianCalendar;
+import java.util.Iterator;
+import java.util.List;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+/**
+ * An immutable, point-in-time view of the events in a CalendarModel. Every change to the model
+ * 		publishes a new snapshot; the old one stays exactly as it was, so a reader can make
+ * 		any number of queries against a snapshot, from any thread and without locking, and
+ * 		get mutually consistent answers however many changes are made meanwhile.
+ *
+ * Repeating events are held once each; queries about a span of time return their
+ * 		occurrences in that span, alongside the single events.
+ *
+ * In paged mode a snapshot holds only the events that were in memory when it was taken.
+ * 		Loading or dropping a page while a change is under way publishes a copy of the last
+ * 		snapshot with just that page's events added or taken away (see withPage() and
+ * 		withoutPage()), so readers still see none of a change until it is committed.
+ *
+ * @author Iain Davis
+ */
+public final class CalendarSnapshot implements Iterable<CalendarEvent> {
+	/**
+	 * Constructor
+	 * @param events_in		the interval tree holding the events
+	 * @param occupancy_in	the per-day counts for those events, which must not change afterwards
+	 * @param recurring_in	the repeating events
+	 * @param reminders_in	those of the single events with long reminders
+	 */
+	CalendarSnapshot(EventIntervalTree events_in, DayOccupancyIndex occupancy_in, RecurringEvents recurring_in,
+			LongReminders reminders_in)
+	{
+		events = events_in;
+		occupancy = occupancy_in;
+		recurring = recurring_in;
+		longReminders = reminders_in;
+	}
+
+	/**
+	 * Accessor method
+	 * @return	the number of events in the snapshot (a repeating event counts once)
+	 */
+	public int size()
+	{return events.size() + recurring.size();}
+
+	/**
+	 * Accessor method - walks the stored events in start-time order: the single events and
+	 * 						each repeating event (by its first occurrence), not the occurrences
+	 */
+	@Override
+	public Iterator<CalendarEvent> iterator()
+	{
+		if(recurring.size() == 0) return events.iterator();
+		return EventMerge.merge(Arrays.asList(events, recurring.getSeries())).iterator();
+	}
+
+	/**
+	 * Accessor method - gets the events on the given date, including any that began on an
+	 * 						earlier day and run into it (see getEventsTouching())
+	 * @param date_in	a GregorianCalendar representing the desired date. Time fields are ignored
+	 * @return			an unmodifiable SortedSet of the events on that date, ordered by start
+	 * 						time, or null if date_in is null
+	 */
+	public SortedSet<CalendarEvent> getEvents(GregorianCalendar date_in)
+	{
+		if(date_in == null) return null;
+
+		TreeSet<CalendarEvent> result = new TreeSet<CalendarEvent>(
+				CalendarEvent.getComparator(CalendarEvent.Field.EVENT_START));
+		result.addAll(getEventsTouching(dayStart(date_in), dayEnd(date_in)));
+		return Collections.unmodifiableSortedSet(result);
+	}
+
+	/**
+	 * Accessor method - gets the events whose time-spans overlap a span of time
+	 * @param start		the start of the span in epoch milliseconds (inclusive)
+	 * @param end		the end of the span in epoch milliseconds (exclusive)
+	 * @return			a new List of the overlapping events, ordered by start time
+	 */
+	public List<CalendarEvent> getEventsBetween(long start, long end)
+	{
+		List<CalendarEvent> single = events.findOverlapping(start, end);
+		if(recurring.size() == 0) return single;
+		return EventMerge.merge(Arrays.asList(single, recurring.findOverlapping(start, end)));
+	}
+
+	/**
+	 * Boolean accessor method - checks whether any events exist on the given date
+	 * @param date_in	a GregorianCalendar representing the date
+	 * @return			true if there are events on the given date
+	 * 					false otherwise
+	 */
+	public boolean hasEvents(GregorianCalendar date_in)
+	{
+		if(date_in == null) return false;
+		if(occupancy.getCount(date_in) != 0) return true;
+		return recurring.size() != 0 && !recurring.findTouching(dayStart(date_in), dayEnd(date_in)).isEmpty();
+	}
+
+	/**
+	 * Accessor method - gets the number of events on each day of the six-week grid used to
+	 * 						display the month containing the given date
+	 * @param date_in	a GregorianCalendar representing any date in the desired month
+	 * @return			an array of 42 event counts, one per grid cell in row-major order,
+	 * 						starting with the Sunday on or before the first of the month
+	 */
+	public int[] getMonthGridOccupancy(GregorianCalendar date_in)
+	{
+		int year = date_in.get(Calendar.YEAR), month = date_in.get(Calendar.MONTH);
+		int[] grid = occupancy.getMonthGrid(year, month);
+		recurring.addMonthGrid(year, month, occupancy.getZone(), grid, null);
+		return grid;
+	}
+
+	/**
+	 * Accessor method - gets the number of events carried over from the day before into each
+	 * 						day of the six-week grid used to display the month containing the
+	 * 						given date, so that the days of a multi-day event can be joined
+	 * @param date_in	a GregorianCalendar representing any date in the desired month
+	 * @return			an array of 43 counts, one per grid cell in row-major order (as for
+	 * 						getMonthGridOccupancy()) and the last for the day after the grid
+	 */
+	public int[] getMonthGridContinuations(GregorianCalendar date_in)
+	{
+		int year = date_in.get(Calendar.YEAR), month = date_in.get(Calendar.MONTH);
+		int[] carried = occupancy.getMonthGridCarried(year, month);
+		recurring.addMonthGrid(year, month, occupancy.getZone(), null, carried);
+		return carried;
+	}
+
+	/**
+	 * Accessor method - finds the events that conflict with a proposed CalendarEvent. Events
+	 * 						conflict when they start in the same minute or when their
+	 * 						time-spans overlap. A proposed repeating event is checked
+	 * 						occurrence by occurrence (see RecurringEvents.findConflicts())
+	 * @param ce_in		the proposed CalendarEvent
+	 * @return			a List of the conflicting events and occurrences ordered by start time
+	 */
+	public List<CalendarEvent> getConflictingEvents(CalendarEvent ce_in)
+	{return RecurringEvents.findConflicts(events, recurring, ce_in);}
+
+	/**
+	 * Accessor method - finds the events and occurrences that conflict with a time-span (see
+	 * 						EventIntervalTree.findConflicts())
+	 * @return	a List of the conflicting events, ordered by start time
+	 */
+	List<CalendarEvent> findConflicts(long start, long end)
+	{
+		List<CalendarEvent> single = events.findConflicts(start, end);
+		if(recurring.size() == 0) return single;
+		return EventMerge.merge(Arrays.asList(single, recurring.findConflicts(start, end)));
+	}
+
+	/**
+	 * Accessor method - finds the events and occurrences that touch [start, end): those
+	 * 						overlapping it, and zero-length events starting in it (which take
+	 * 						up no time, but still block their minute). An event is on a day
+	 * 						exactly when it touches the day
+	 * @return	a List of the events, ordered by start time
+	 */
+	List<CalendarEvent> getEventsTouching(long start, long end)
+	{
+		List<CalendarEvent> single = events.findTouching(start, end);
+		if(recurring.size() == 0) return single;
+		return EventMerge.merge(Arrays.asList(single, recurring.findTouching(start, end)));
+	}
+
+	/**
+	 * Accessor method - finds the events and occurrences whose reminders are due within
+	 * 						[start, end). Single events with reminders up to
+	 * 						LongReminders.SHORT_LEAD ahead are found among those starting
+	 * 						up to that long after the span, and those with longer reminders
+	 * 						by the time they are due, so the cost does not depend on how far
+	 * 						ahead a reminder may be set. Repeating events are expanded as far
+	 * 						after the span as the longest of their reminders
+	 * @return	a List of the events, ordered by start time
+	 */
+	List<CalendarEvent> getRemindersDueIn(long start, long end)
+	{
+		List<CalendarEvent> result = new ArrayList<CalendarEvent>(longReminders.findDueIn(start, end));
+		for(CalendarEvent ce : events.findStartingIn(start, end + LongReminders.SHORT_LEAD))
+		{
+			if(ce.hasReminder() && !LongReminders.isLong(ce) && isDueIn(ce, start, end)) result.add(ce);
+		}
+		if(recurring.size() != 0)
+		{
+			for(CalendarEvent ce : recurring.findStartingIn(start, end + recurring.getLongestReminderLead()))
+			{
+				if(ce.hasReminder() && isDueIn(ce, start, end)) result.add(ce);
+			}
+		}
+		Collections.sort(result, CalendarEvent.getComparator(CalendarEvent.Field.EVENT_START));
+		return result;
+	}
+
+	/**
+	 * Utility method - builds a copy of this snapshot with a page of events just read from the
+	 * 						file added to it
+	 * @param page	the events of the page, in start-time order, none of which is in this
+	 * 					snapshot
+	 * @return		a new CalendarSnapshot; this one is unchanged
+	 */
+	CalendarSnapshot withPage(List<CalendarEvent> page)
+	{
+		DayOccupancyIndex paged = new DayOccupancyIndex(occupancy);
+		for(CalendarEvent ce : page) {paged.add(ce);}
+		return new CalendarSnapshot(events.insertAll(page), paged, recurring, longReminders.withAll(page));
+	}
+
+	/**
+	 * Utility method - builds a copy of this snapshot without the single events of a page that
+	 * 						is being dropped from memory
+	 * @param start		the start of the page in epoch milliseconds (inclusive)
+	 * @param end		the end of the page in epoch milliseconds (exclusive)
+	 * @return			a new CalendarSnapshot; this one is unchanged
+	 */
+	CalendarSnapshot withoutPage(long start, long end)
+	{
+		EventIntervalTree remaining = events;
+		DayOccupancyIndex paged = new DayOccupancyIndex(occupancy);
+		for(CalendarEvent ce : events.findStartingIn(start, end))
+		{
+			remaining = remaining.remove(ce);
+			paged.remove(ce);
+		}
+		return new CalendarSnapshot(remaining, paged, recurring, longReminders.withoutStartingIn(start, end));
+	}
+
+	/**
+	 * Boolean utility method - checks whether an event's reminder is due within [start, end)
+	 */
+	private static boolean isDueIn(CalendarEvent ce_in, long start, long end)
+	{return ce_in.getReminderMillis() >= start && ce_in.getReminderMillis() < end;}
+
+	/**
+	 * Utility method - gets the first instant of the day containing a date
+	 */
+	static long dayStart(GregorianCalendar date_in)
+	{
+		GregorianCalendar day = (GregorianCalendar) date_in.clone();
+		day.set(Calendar.HOUR_OF_DAY, 0);
+		day.set(Calendar.MINUTE, 0);
+		day.set(Calendar.SECOND, 0);
+		day.set(Calendar.MILLISECOND, 0);
+		return day.getTimeInMillis();
+	}
+
+	/**
+	 * Utility method - gets the first instant of the day after the one containing a date
+	 */
+	static long dayEnd(GregorianCalendar date_in)
+	{
+		GregorianCalendar day = (GregorianCalendar) date_in.clone();
+		day.set(Calendar.HOUR_OF_DAY, 0);
+		day.set(Calendar.MINUTE, 0);
+		day.set(Calendar.SECOND, 0);
+		day.set(Calendar.MILLISECOND, 0);
+		day.add(Calendar.DAY_OF_MONTH, 1);
+		return day.getTimeInMillis();
+	}
+
+	private final EventIntervalTree events;
+	private final DayOccupancyIndex occupancy;
+	private final RecurringEvents recurring;
+	private final LongReminders longReminders;
+}
@@ -0,0 +1,259 @@
+import java.time.LocalDate;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.GregorianCalendar;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.TimeZone;
+
+/**
+ * Per-day event counts, grouped into one small count array per month (and the months into
+ * 		one array per year). The model updates the
+ * 		counts as events are added and removed, so asking whether a day has events (or
+ * 		fetching the counts for a whole month grid) never has to touch the events themselves.
+ *
+ * An event counts on every day its time-span touches in the index's time zone (the zone the
+ * 		calendar is displayed in, see CalendarModel.setDisplayZone()): the day it
+ * 		starts on and, if it runs past midnight, each later day up to the one it ends on (an
+ * 		event ending exactly at midnight does not count on the day that begins then). For
+ * 		each day the index also counts the events carried over into it from the day before,
+ * 		so the views can join the days of a multi-day event.
+ *
+ * An index that has been handed to readers is never changed again. Instead the writer takes
+ * 		a copy, which shares the year and month arrays of the original and copies each one
+ * 		only when it first changes a count in it (copy-on-write), so a change costs a copy of
+ * 		the small table of years rather than of every count.
+ *
+ * @author Iain Davis
+ */
+class DayOccupancyIndex {
+	/**
+	 * Default constructor - creates an empty index of days in the default time zone
+	 */
+	DayOccupancyIndex()
+	{
+		this(ZoneOffsets.of(TimeZone.getDefault()));
+	}
+
+	/**
+	 * Constructor - creates an empty index
+	 * @param zone_in	the offset table of the time zone whose days are counted
+	 */
+	DayOccupancyIndex(ZoneOffsets zone_in)
+	{
+		zone = zone_in;
+		years = new HashMap<Integer, int[][]>();
+	}
+
+	/**
+	 * Copy constructor - creates an index with the same counts as another, which is left
+	 * 						untouched by any later change to the copy
+	 * @param source	the DayOccupancyIndex to copy
+	 */
+	DayOccupancyIndex(DayOccupancyIndex source)
+	{
+		zone = source.zone;
+		years = new HashMap<Integer, int[][]>(source.years);
+	}
+
+	/**
+	 * Mutator method - counts an event against the days it touches
+	 * @param ce_in		the CalendarEvent being added to the model
+	 */
+	void add(CalendarEvent ce_in)
+	{adjust(ce_in, 1);}
+
+	/**
+	 * Mutator method - removes an event's contribution from the days it touches
+	 * @param ce_in		the CalendarEvent being removed from the model
+	 */
+	void remove(CalendarEvent ce_in)
+	{adjust(ce_in, -1);}
+
+	/**
+	 * Mutator method - discards all counts
+	 */
+	void clear()
+	{
+		years.clear();
+		owned.clear();
+	}
+
+	/**
+	 * Accessor method
+	 * @return	the offset table of the time zone whose days are counted
+	 */
+	ZoneOffsets getZone()
+	{return zone;}
+
+	/**
+	 * Accessor method - gets the number of events on a given day
+	 * @param date_in	a GregorianCalendar representing the day. Time fields are ignored
+	 * @return			the number of events on that day
+	 */
+	int getCount(GregorianCalendar date_in)
+	{
+		int[] counts = getCounts(date_in.get(Calendar.YEAR), date_in.get(Calendar.MONTH));
+		return counts == null ? 0 : counts[date_in.get(Calendar.DAY_OF_MONTH) - 1];
+	}
+
+	/**
+	 * Accessor method - gets the event counts for the six-week grid used to display a month:
+	 * 						42 consecutive days beginning with the Sunday on or before the
+	 * 						first of the month
+	 * @param year		the year of the month being displayed
+	 * @param month		the month being displayed (Calendar.JANUARY etc.)
+	 * @return			an array of 42 counts, one per grid cell in row-major order
+	 */
+	int[] getMonthGrid(int year, int month)
+	{return copyGrid(year, month, 0, GRID_DAYS);}
+
+	/**
+	 * Accessor method - gets the number of events carried over into each day of the six-week
+	 * 						grid used to display a month from the day before it, and the same
+	 * 						for the day after the grid
+	 * @param year		the year of the month being displayed
+	 * @param month		the month being displayed (Calendar.JANUARY etc.)
+	 * @return			an array of GRID_DAYS + 1 counts, one per grid cell in row-major
+	 * 						order and the last for the day after the grid
+	 */
+	int[] getMonthGridCarried(int year, int month)
+	{return copyGrid(year, month, MAX_DAYS_IN_MONTH, GRID_DAYS + 1);}
+
+	/**
+	 * Utility method - copies one kind of count for consecutive days beginning with the
+	 * 						Sunday on or before the first of a month
+	 * @param offset	where the counts of that kind begin in each month's count array
+	 * @param days		the number of days to copy
+	 */
+	private int[] copyGrid(int year, int month, int offset, int days)
+	{
+		int[] grid = new int[days];
+
+		// walk back from the first of the month to the preceding Sunday
+		GregorianCalendar walker = new GregorianCalendar(year, month, 1);
+		walker.add(Calendar.DAY_OF_MONTH, Calendar.SUNDAY - walker.get(Calendar.DAY_OF_WEEK));
+
+		// copy whole runs of days out of each month's count array
+		int cell = 0;
+		while(cell < days)
+		{
+			int day = walker.get(Calendar.DAY_OF_MONTH);
+			int daysInMonth = walker.getActualMaximum(Calendar.DAY_OF_MONTH);
+			int run = Math.min(daysInMonth - day + 1, days - cell);
+
+			int[] counts = getCounts(walker.get(Calendar.YEAR), walker.get(Calendar.MONTH));
+			if(counts != null) System.arraycopy(counts, offset + day - 1, grid, cell, run);
+
+			cell += run;
+			walker.add(Calendar.DAY_OF_MONTH, run);
+		}
+		return grid;
+	} // copyGrid()
+
+	/**
+	 * Utility method - applies a change in count to each day an event touches
+	 */
+	private void adjust(CalendarEvent ce_in, int delta)
+	{
+		long last = Math.max(ce_in.getStartMillis(), ce_in.getEndMillis() - 1);
+		locateDay(ce_in.getStartMillis());
+		boolean carried = false;
+		while(true)
+		{
+			int[] counts = editableCounts(dayYear, dayMonth, delta);
+			if(counts != null)
+			{
+				counts[dayOfMonth - 1] += delta;
+				if(carried) counts[MAX_DAYS_IN_MONTH + dayOfMonth - 1] += delta;
+			}
+			if(last < dayEnd) break;
+			locateDay(dayEnd);
+			carried = true;
+		}
+	}
+
+	/**
+	 * Utility method - gets the count array for a month for changing, copying it (and the
+	 * 						year's array of months) first if it may be shared with the
+	 * 						index this one was copied from
+	 * @return	the array, or null if there is none and delta would only take counts away
+	 */
+	private int[] editableCounts(int year, int month, int delta)
+	{
+		int[][] months = years.get(year);
+		if(months == null)
+		{
+			if(delta < 0) return null;
+			months = new int[MONTHS_IN_YEAR][];
+			years.put(year, months);
+			owned.add(months);
+		}
+		else if(!owned.contains(months))
+		{
+			months = months.clone();
+			years.put(year, months);
+			owned.add(months);
+		}
+
+		int[] counts = months[month];
+		if(counts == null)
+		{
+			if(delta < 0) return null;
+			counts = new int[2 * MAX_DAYS_IN_MONTH];
+			months[month] = counts;
+			owned.add(counts);
+		}
+		else if(!owned.contains(counts))
+		{
+			counts = counts.clone();
+			months[month] = counts;
+			owned.add(counts);
+		}
+		return counts;
+	}
+
+	/**
+	 * Utility method - finds the day containing a time, unless it is the one found last
+	 * 						(events are mostly added in start-time order, many to a day). The
+	 * 						day is worked out from the zone's offset table; the day after
+	 * 						starts at the start of whichever day is a day and a half later,
+	 * 						which allows for days of 23 and 25 hours
+	 */
+	private void locateDay(long millis)
+	{
+		if(millis >= dayStart && millis < dayEnd) return;
+		LocalDate date = LocalDate.ofEpochDay(Math.floorDiv(millis + zone.getOffset(millis), DAY));
+		dayStart = zone.getDayStart(millis);
+		dayEnd = zone.getDayStart(dayStart + DAY + DAY / 2);
+		dayYear = date.getYear();
+		dayMonth = date.getMonthValue() - 1;
+		dayOfMonth = date.getDayOfMonth();
+	}
+
+	/**
+	 * Utility method - gets the count array for a month, or null if it has no events
+	 */
+	private int[] getCounts(int year, int month)
+	{
+		int[][] months = years.get(year);
+		return months == null ? null : months[month];
+	}
+
+	static final int GRID_DAYS = 42;
+	private static final int MAX_DAYS_IN_MONTH = 31;
+	private static final int MONTHS_IN_YEAR = 12;
+	private static final long DAY = 24 * 60 * 60 * 1000;
+
+	private final HashMap<Integer, int[][]> years;
+	private final Set<Object> owned = Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());	// arrays not shared
+	private final ZoneOffsets zone;
+
+	// the day found last by locateDay()
+	private long dayStart = Long.MAX_VALUE;
+	private long dayEnd = Long.MIN_VALUE;
+	private int dayYear;
+	private int dayMonth;
+	private int dayOfMonth;
+}
@@ -0,0 +1,500 @@
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Reads and writes the binary events file. The file is a fixed-layout, versioned format that
+ * 		can be memory-mapped and decoded without Java object serialization:
+ *
+ * 		Header (32 bytes)
+ * 			int		magic number ("SCAL")
+ * 			int		format version
+ * 			int		number of event records
+ * 			int		size of one event record in bytes
+ * 			long	offset of the string table from the start of the file
+ * 			long	length of the string table in bytes
+ *
+ * 		Event records, sorted by start time and then id (40 bytes each)
+ * 			long	start time in epoch milliseconds
+ * 			long	duration in milliseconds
+ * 			int		offset of the title in the string table
+ * 			int		offset of the description in the string table (-1 if none)
+ * 			long	event id
+ * 			int		offset of the time zone id in the string table (-1 for the default zone)
+ * 			int		reminder, in minutes before the start (-1 if none)
+ *
+ * 		Repeating events (absent when there are none, so the string table follows the event
+ * 		records directly)
+ * 			int		number of repeating events
+ * 			each one: its id, then an event record as above,
+ * 				without the id, for its first occurrence, then its recurrence rule (see
+ * 				writeRule())
+ *
+ * 		String table
+ * 			each entry: int byte length, followed by that many bytes of UTF-8
+ *
+ * The event records are mapped in windows of WINDOW_RECORDS records, so a file is not limited
+ * 		to the 2GB one mapping can hold; the string table, whose offsets are ints, is.
+ *
+ * Identical strings (e.g. the title of a regular meeting, or a time zone) are stored once and
+ * 		shared.
+ *
+ * Version 1 is the only version of the format; files in the Java-serialized format that came
+ * 		before it are recognised by isSerializedFormat(), and CalendarShard rewrites them.
+ *
+ * @author Iain Davis
+ */
+class EventFileFormat {
+	private EventFileFormat() {}
+
+	/**
+	 * Utility method - checks whether a file holds the old Java-serialized events format
+	 * @param file_in	the file to check
+	 * @return			true if the file begins with the Java serialization stream header
+	 * 					false otherwise
+	 * @throws IOException if the file could not be read
+	 */
+	static boolean isSerializedFormat(File file_in) throws IOException
+	{
+		if(file_in.length() < 2) return false;
+		DataInputStream in = new DataInputStream(new FileInputStream(file_in));
+		try {return in.readUnsignedShort() == SERIALIZATION_MAGIC;}
+		finally {in.close();}
+	}
+
+	/**
+	 * Utility method - writes events to a file in the binary format. The event records are
+	 * 						streamed to the file as they are encoded; only the string table and
+	 * 						the repeating events are held in memory, and the header is filled in
+	 * 						once their sizes are known
+	 * @param file_in	the destination file (overwritten)
+	 * @param events_in	the single events to write, in start-time order
+	 * @param series_in	the repeating events to write
+	 * @throws IOException if the file could not be written, or the events do not fit the
+	 * 						format (more than Integer.MAX_VALUE of them, or a string table
+	 * 						over 2GB)
+	 */
+	static void write(File file_in, Iterable<CalendarEvent> events_in, Collection<CalendarEvent> series_in)
+			throws IOException
+	{
+		ByteArrayOutputStream stringBytes = new ByteArrayOutputStream();
+		DataOutputStream strings = new DataOutputStream(stringBytes);
+		HashMap<String, Integer> stringOffsets = new HashMap<String, Integer>();
+
+		FileOutputStream file_out = new FileOutputStream(file_in);
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file_out, 1 << 16));
+		try
+		{
+			out.write(new byte[HEADER_SIZE]);
+			long count = 0;
+			for(CalendarEvent ce : events_in)
+			{
+				out.writeLong(ce.getStartMillis());
+				out.writeLong(ce.getEndMillis() - ce.getStartMillis());
+				out.writeInt(internString(ce.getTitle(), strings, stringOffsets));
+				out.writeInt(internString(ce.getDescription(), strings, stringOffsets));
+				out.writeLong(ce.getId());
+				out.writeInt(internString(ce.getZoneId(), strings, stringOffsets));
+				out.writeInt(ce.getReminderMinutes());
+				count++;
+			}
+			if(count > Integer.MAX_VALUE) throw new IOException("too many events for one file (" + count + ")");
+
+			if(!series_in.isEmpty())
+			{
+				out.writeInt(series_in.size());
+				for(CalendarEvent ce : series_in)
+				{
+					out.writeLong(ce.getId());
+					out.writeLong(ce.getStartMillis());
+					out.writeLong(ce.getEndMillis() - ce.getStartMillis());
+					out.writeInt(internString(ce.getTitle(), strings, stringOffsets));
+					out.writeInt(internString(ce.getDescription(), strings, stringOffsets));
+					out.writeInt(internString(ce.getZoneId(), strings, stringOffsets));
+					out.writeInt(ce.getReminderMinutes());
+					writeRule(out, ce.getRecurrence());
+				}
+			}
+			strings.flush();
+			out.flush();
+			long stringTable = file_out.getChannel().position();
+			stringBytes.writeTo(out);
+			out.flush();
+
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+			header.putInt(MAGIC);
+			header.putInt(VERSION);
+			header.putInt((int) count);
+			header.putInt(RECORD_SIZE);
+			header.putLong(stringTable);
+			header.putLong(stringBytes.size());
+			header.flip();
+			FileChannel channel = file_out.getChannel();
+			while(header.hasRemaining()) {channel.write(header, header.position());}
+			file_out.getFD().sync();
+		}
+		finally {out.close();}
+	} // write()
+
+	/**
+	 * Utility method - memory-maps a file in the binary format and decodes every event in it
+	 * @param file_in	the file to read
+	 * @return			a List of the single events in start-time order, followed by the
+	 * 						repeating events in start-time order
+	 * @throws IOException if the file could not be read or is not in a supported format
+	 */
+	static List<CalendarEvent> read(File file_in) throws IOException
+	{
+		Reader reader = new Reader(file_in);
+		List<CalendarEvent> result = reader.readRange(0, reader.getCount());
+		result.addAll(reader.readSeries());
+		return result;
+	}
+
+	/**
+	 * Utility method - writes a recurrence rule:
+	 * 		byte	frequency (the ordinal of RecurrenceRule.Frequency)
+	 * 		int		interval
+	 * 		int		count (0 for no limit)
+	 * 		long	until (Long.MAX_VALUE for no limit)
+	 * 		int		number of exceptions, followed by the start time (long) of each
+	 * @param out		the stream to write to
+	 * @param rule		the RecurrenceRule
+	 * @throws IOException if the stream could not be written
+	 */
+	static void writeRule(DataOutputStream out, RecurrenceRule rule) throws IOException
+	{
+		out.writeByte(rule.getFrequency().ordinal());
+		out.writeInt(rule.getInterval());
+		out.writeInt(rule.getCount());
+		out.writeLong(rule.getUntil());
+		long[] exceptions = rule.getExceptions();
+		out.writeInt(exceptions.length);
+		for(long exception : exceptions) {out.writeLong(exception);}
+	}
+
+	/**
+	 * Utility method - reads a recurrence rule written by writeRule()
+	 * @param in	the stream to read from
+	 * @return		a new RecurrenceRule
+	 * @throws IOException if the stream could not be read or does not hold a valid rule
+	 */
+	static RecurrenceRule readRule(DataInput in) throws IOException
+	{
+		RecurrenceRule.Frequency[] frequencies = RecurrenceRule.Frequency.values();
+		int frequency = in.readUnsignedByte();
+		int interval = in.readInt();
+		int count = in.readInt();
+		long until = in.readLong();
+		int exceptionCount = in.readInt();
+		if(frequency >= frequencies.length || interval < 1 || count < 0 || exceptionCount < 0)
+			throw new IOException("invalid recurrence rule");
+
+		long[] exceptions = new long[exceptionCount];
+		for(int i = 0; i < exceptionCount; i++) {exceptions[i] = in.readLong();}
+		RecurrenceRule rule = new RecurrenceRule(frequencies[frequency], interval, count, until);
+		return exceptionCount == 0 ? rule : rule.withExceptions(exceptions);
+	}
+
+	/**
+	 * This class gives random access to the records of a memory-mapped events file, so that
+	 * 		a client can decode just the events in a range of start times. Because records
+	 * 		are sorted by start time, the records in a range are found by binary search.
+	 * @author Iain Davis
+	 */
+	static class Reader
+	{
+		/**
+		 * Constructor - maps the file and validates its header
+		 * @param file_in	the file to read
+		 * @throws IOException if the file could not be read or is not in a supported format
+		 */
+		Reader(File file_in) throws IOException
+		{
+			RandomAccessFile raf = new RandomAccessFile(file_in, "r");
+			try
+			{
+				FileChannel channel = raf.getChannel();
+				ByteBuffer header = readHeader(file_in, channel);
+				count = header.getInt(COUNT_OFFSET);
+				recordSize = header.getInt(RECORD_SIZE_OFFSET);
+				long stringTable = header.getLong(STRING_TABLE_OFFSET);
+				long stringTableLength = header.getLong(STRING_TABLE_LENGTH_OFFSET);
+				long seriesStart = HEADER_SIZE + (long) count * recordSize;
+				if(count < 0 || recordSize != RECORD_SIZE || seriesStart > stringTable || stringTableLength > Integer.MAX_VALUE
+						|| stringTable - seriesStart > Integer.MAX_VALUE)
+					throw new IOException(file_in + " is truncated or damaged");
+
+				// each window holds a whole number of records, so no record straddles two
+				records = new MappedByteBuffer[(int) (((long) count + WINDOW_RECORDS - 1) / WINDOW_RECORDS)];
+				for(int i = 0; i < records.length; i++)
+				{
+					long first = (long) i * WINDOW_RECORDS;
+					long length = Math.min(WINDOW_RECORDS, count - first) * recordSize;
+					records[i] = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE + first * recordSize, length);
+				}
+				series = channel.map(FileChannel.MapMode.READ_ONLY, seriesStart, stringTable - seriesStart);
+				strings = channel.map(FileChannel.MapMode.READ_ONLY, stringTable, stringTableLength);
+			}
+			finally {raf.close();}	// the mappings remain valid after the channel is closed
+		}
+
+		/**
+		 * Constructor - shares another Reader's mappings, but decodes strings separately
+		 */
+		private Reader(Reader other)
+		{
+			records = other.records;
+			series = other.series;
+			strings = other.strings;
+			count = other.count;
+			recordSize = other.recordSize;
+		}
+
+		/**
+		 * Accessor method - a Reader is not thread-safe, but each of its duplicates can be used
+		 * 						on a different thread
+		 * @return	a new Reader over the same file, sharing this one's mapping
+		 */
+		Reader duplicate()
+		{return new Reader(this);}
+
+		/**
+		 * Accessor method
+		 * @return	the number of event records in the file
+		 */
+		int getCount()
+		{return count;}
+
+		/**
+		 * Accessor method
+		 * @param index		the position of a record in the file
+		 * @return			the start time of that record, in epoch milliseconds
+		 */
+		long getStartMillis(int index)
+		{return window(index).getLong(offset(index));}
+
+		/**
+		 * Accessor method - scans the records for the longest event
+		 * @return	the longest duration of any record, in milliseconds (0 if there are none)
+		 */
+		long getLongestDuration()
+		{
+			long longest = 0;
+			for(int i = 0; i < count; i++) {longest = Math.max(longest, window(i).getLong(offset(i) + 8));}
+			return longest;
+		}
+
+		/**
+		 * Accessor method - binary search for the first record starting at or after a time
+		 * @param millis	the time in epoch milliseconds
+		 * @return			the index of the first record with start >= millis (getCount() if
+		 * 						there is none)
+		 */
+		int lowerBound(long millis)
+		{
+			int low = 0, high = count;
+			while(low < high)
+			{
+				int mid = (low + high) >>> 1;
+				if(getStartMillis(mid) < millis) low = mid + 1;
+				else high = mid;
+			}
+			return low;
+		}
+
+		/**
+		 * Accessor method - decodes one record
+		 * @param index		the position of the record in the file
+		 * @return			a new CalendarEvent holding the record's values
+		 */
+		CalendarEvent getEvent(int index)
+		{
+			ByteBuffer buffer = window(index);
+			int record = offset(index);
+			long start = buffer.getLong(record);
+			long duration = buffer.getLong(record + 8);
+			String title = readString(buffer.getInt(record + 16));
+			String description = readString(buffer.getInt(record + 20));
+			long id = buffer.getLong(record + 24);
+			String zone = readString(buffer.getInt(record + 32));
+			int reminder = buffer.getInt(record + 36);
+			return new CalendarEvent(id, start, start + duration, title, description, null, zone, reminder);
+		}
+
+		/**
+		 * Accessor method - decodes a run of records
+		 * @param from		the index of the first record (inclusive)
+		 * @param to		the index of the last record (exclusive)
+		 * @return			a List of the events, in start-time order
+		 */
+		List<CalendarEvent> readRange(int from, int to)
+		{
+			List<CalendarEvent> result = new ArrayList<CalendarEvent>(Math.max(0, to - from));
+			for(int i = from; i < to; i++) {result.add(getEvent(i));}
+			return result;
+		}
+
+		/**
+		 * Accessor method - decodes the repeating events, which lie between the event records
+		 * 						and the string table
+		 * @return			a List of the repeating events, in start-time order
+		 * @throws IOException if the section is damaged
+		 */
+		List<CalendarEvent> readSeries() throws IOException
+		{
+			List<CalendarEvent> result = new ArrayList<CalendarEvent>();
+			if(!series.hasRemaining()) return result;
+
+			ByteBuffer section = series.duplicate();
+			try
+			{
+				int seriesCount = section.getInt();
+				for(int i = 0; i < seriesCount; i++)
+				{
+					long id = section.getLong();
+					long start = section.getLong();
+					long duration = section.getLong();
+					String title = readString(section.getInt());
+					String description = readString(section.getInt());
+					String zone = readString(section.getInt());
+					int reminder = section.getInt();
+					RecurrenceRule rule = readRule(new DataInputStream(new ByteBufferInput(section)));
+					result.add(new CalendarEvent(id, start, start + duration, title, description, rule, zone, reminder));
+				}
+			}
+			catch(BufferUnderflowException e) {throw new IOException("repeating events are truncated or damaged");}
+			return result;
+		}
+
+		/**
+		 * Utility method - gets the window holding a record
+		 */
+		private ByteBuffer window(int index)
+		{return records[index / WINDOW_RECORDS];}
+
+		/**
+		 * Utility method - gets the position of a record within its window
+		 */
+		private int offset(int index)
+		{return (index % WINDOW_RECORDS) * recordSize;}
+
+		/**
+		 * Utility method - decodes a string from the string table, sharing one String instance
+		 * 						between all records that refer to the same entry
+		 * @return	the string, or null for NO_STRING
+		 */
+		private String readString(int offset)
+		{
+			if(offset == NO_STRING) return null;
+
+			String s = stringCache.get(offset);
+			if(s != null) return s;
+
+			byte[] bytes = new byte[strings.getInt(offset)];
+			ByteBuffer source = strings.duplicate();
+			source.position(offset + 4);
+			source.get(bytes);
+			s = new String(bytes, StandardCharsets.UTF_8);
+			stringCache.put(offset, s);
+			return s;
+		}
+
+		private final MappedByteBuffer[] records;	// WINDOW_RECORDS records each, the last maybe fewer
+		private final MappedByteBuffer series;		// the repeating events (empty if there are none)
+		private final MappedByteBuffer strings;		// the string table
+		private final int count;
+		private final int recordSize;
+		private final HashMap<Integer, String> stringCache = new HashMap<Integer, String>();
+	}
+
+	/**
+	 * Adapter class - reads a ByteBuffer as a stream, from its position up to its limit
+	 * @author Iain Davis
+	 */
+	private static class ByteBufferInput extends InputStream
+	{
+		private ByteBufferInput(ByteBuffer buffer_in)
+		{buffer = buffer_in;}
+
+		@Override
+		public int read()
+		{return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;}
+
+		private final ByteBuffer buffer;
+	}
+
+	/**
+	 * Utility method - reads and validates the header of a file in the binary format
+	 */
+	private static ByteBuffer readHeader(File file_in, FileChannel channel) throws IOException
+	{
+		if(channel.size() < HEADER_SIZE)
+			throw new IOException(file_in + " is not a valid events file (size " + channel.size() + ")");
+
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		while(header.hasRemaining() && channel.read(header, header.position()) >= 0) {}
+		if(header.getInt(0) != MAGIC)
+			throw new IOException(file_in + " is not a valid events file (bad magic number)");
+		if(header.getInt(VERSION_OFFSET) != VERSION)
+			throw new IOException(file_in + " is in an unsupported format version ("
+					+ header.getInt(VERSION_OFFSET) + ")");
+
+		long expected = header.getLong(STRING_TABLE_OFFSET) + header.getLong(STRING_TABLE_LENGTH_OFFSET);
+		if(expected != channel.size())
+			throw new IOException(file_in + " is truncated or damaged");
+		return header;
+	}
+
+	/**
+	 * Utility method - appends a string to the string table unless it is already there
+	 * @return	the offset of the string in the table, or NO_STRING for null
+	 */
+	private static int internString(String s, DataOutputStream strings, HashMap<String, Integer> offsets)
+			throws IOException
+	{
+		if(s == null) return NO_STRING;
+
+		Integer offset = offsets.get(s);
+		if(offset != null) return offset;
+
+		offset = strings.size();
+		byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+		if(bytes.length > Integer.MAX_VALUE - 4 - offset) throw new IOException("string table over 2GB");
+		strings.writeInt(bytes.length);
+		strings.write(bytes);
+		offsets.put(s, offset);
+		return offset;
+	}
+
+	private static final int SERIALIZATION_MAGIC = 0xACED;
+	private static final int MAGIC = 0x5343414C;	// "SCAL"
+	private static final int VERSION = 1;
+
+	private static final int HEADER_SIZE = 32;
+	private static final int VERSION_OFFSET = 4;
+	private static final int COUNT_OFFSET = 8;
+	private static final int RECORD_SIZE_OFFSET = 12;
+	private static final int STRING_TABLE_OFFSET = 16;
+	private static final int STRING_TABLE_LENGTH_OFFSET = 24;
+	private static final int RECORD_SIZE = 40;
+	private static final int NO_STRING = -1;
+	private static final int WINDOW_RECORDS = 1 << 24;	// records per mapping (640MB of them)
+}
@@ -0,0 +1,125 @@
+/**
+ * Hash index from event id to event, for finding the stored instance of an event in O(1)
+ * 		when it is deleted or replaced. The table is open-addressed with linear probing over
+ * 		parallel arrays of ids and events, so it holds no per-entry objects (no boxed keys or
+ * 		map entries) however many events there are. Deletion shifts later entries of the
+ * 		probe run back into the gap, so no tombstones build up.
+ *
+ * The index is not thread-safe; CalendarShard guards it with its monitor.
+ *
+ * @author Iain Davis
+ */
+class EventIdIndex {
+	/**
+	 * Accessor method
+	 * @return	the number of events indexed
+	 */
+	int size()
+	{return size;}
+
+	/**
+	 * Accessor method - finds an event by id
+	 * @param id	the event id
+	 * @return		the indexed event with that id, or null if there is none
+	 */
+	CalendarEvent get(long id)
+	{
+		int mask = ids.length - 1;
+		for(int i = slot(id, mask); events[i] != null; i = (i + 1) & mask)
+		{
+			if(ids[i] == id) return events[i];
+		}
+		return null;
+	}
+
+	/**
+	 * Mutator method - indexes an event, replacing any event with the same id
+	 * @param ce_in		the CalendarEvent to index
+	 * @return			the event it replaced, or null if there was none
+	 */
+	CalendarEvent put(CalendarEvent ce_in)
+	{
+		if((size + 1) * 4 > ids.length * 3) resize(ids.length * 2);
+
+		long id = ce_in.getId();
+		int mask = ids.length - 1;
+		int i = slot(id, mask);
+		for(; events[i] != null; i = (i + 1) & mask)
+		{
+			if(ids[i] != id) continue;
+			CalendarEvent old = events[i];
+			events[i] = ce_in;
+			return old;
+		}
+		ids[i] = id;
+		events[i] = ce_in;
+		size++;
+		return null;
+	}
+
+	/**
+	 * Mutator method - removes an event from the index
+	 * @param id	the id of the event to remove
+	 * @return		the event removed, or null if there was none
+	 */
+	CalendarEvent remove(long id)
+	{
+		int mask = ids.length - 1;
+		int i = slot(id, mask);
+		while(events[i] != null && ids[i] != id) {i = (i + 1) & mask;}
+		if(events[i] == null) return null;
+
+		CalendarEvent removed = events[i];
+		size--;
+
+		// move back any later entry of the run that may not stay behind the gap
+		int gap = i;
+		for(int j = (gap + 1) & mask; events[j] != null; j = (j + 1) & mask)
+		{
+			int home = slot(ids[j], mask);
+			if(((j - home) & mask) >= ((j - gap) & mask))
+			{
+				ids[gap] = ids[j];
+				events[gap] = events[j];
+				gap = j;
+			}
+		}
+		ids[gap] = 0;
+		events[gap] = null;
+		return removed;
+	}
+
+	/**
+	 * Utility method - rebuilds the table with a new capacity (a power of two)
+	 */
+	private void resize(int capacity)
+	{
+		long[] oldIds = ids;
+		CalendarEvent[] oldEvents = events;
+		ids = new long[capacity];
+		events = new CalendarEvent[capacity];
+		int mask = capacity - 1;
+		for(int j = 0; j < oldIds.length; j++)
+		{
+			if(oldEvents[j] == null) continue;
+			int i = slot(oldIds[j], mask);
+			while(events[i] != null) {i = (i + 1) & mask;}
+			ids[i] = oldIds[j];
+			events[i] = oldEvents[j];
+		}
+	}
+
+	/**
+	 * Utility method - gets the home slot of an id. Ids are random, but are mixed anyway in
+	 * 						case a caller supplies sequential ones
+	 */
+	private static int slot(long id, int mask)
+	{
+		long h = id * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32)) & mask;
+	}
+
+	private long[] ids = new long[16];
+	private CalendarEvent[] events = new CalendarEvent[16];	// null marks an empty slot
+	private int size;
+}
@@ -0,0 +1,442 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Augmented interval index over CalendarEvents. Events are kept in a height-balanced (AVL)
+ * 		binary search tree ordered by start time (then by id, so that events sharing a start
+ * 		time have a fixed order), and every node also records the latest end
+ * 		time found anywhere in its subtree. That extra field lets an overlap query skip any
+ * 		subtree that ends before the query begins, so finding the k events that overlap a
+ * 		time-span costs O(log n + k) rather than a scan of the whole collection.
+ *
+ * The tree is persistent: nodes are never modified once built, and insert() and remove()
+ * 		return a new tree that shares every untouched subtree with the old one (only the
+ * 		O(log n) nodes on the path to the change are copied). A tree can therefore be read
+ * 		by any number of threads while a writer derives the next version from it.
+ *
+ * Ids, start and end times are copied into each node when an event is inserted, so neither
+ * 		queries nor updates need to dereference the events themselves.
+ *
+ * @author Iain Davis
+ */
+final class EventIntervalTree implements Iterable<CalendarEvent> {
+	private EventIntervalTree(Node root_in, int size_in)
+	{
+		root = root_in;
+		size = size_in;
+	}
+
+	/**
+	 * Mutator method - adds an event to the index
+	 * @param ce_in		the CalendarEvent to index
+	 * @return			a tree holding this tree's events plus ce_in
+	 * @precondition	ce_in is non-null and no event with its id is in the index
+	 */
+	EventIntervalTree insert(CalendarEvent ce_in)
+	{
+		if(ce_in == null) return this;
+		return new EventIntervalTree(insert(root, new Node(ce_in, null, null)), size + 1);
+	}
+
+	/**
+	 * Mutator method - adds many events to the index at once. When there are enough of them,
+	 * 					rather than inserting them one by one (O(m log n)), the tree's events
+	 * 					and the new ones are merged in order and a balanced tree is built
+	 * 					bottom-up from the result in O(n + m). Nothing is shared with this tree
+	 * 					in that case
+	 * @param sorted	the CalendarEvents to index, in start-time order (see
+	 * 						CalendarEvent.getComparator())
+	 * @return			a tree holding this tree's events plus those in sorted
+	 * @precondition	no event in sorted has the same id as another or as one in the index
+	 */
+	EventIntervalTree insertAll(List<CalendarEvent> sorted)
+	{
+		int m = sorted.size();
+		if(m == 0) return this;
+		if((long) m * (32 - Integer.numberOfLeadingZeros(size + m)) < size + m)
+		{
+			Node newRoot = root;
+			for(CalendarEvent ce : sorted) {newRoot = insert(newRoot, new Node(ce, null, null));}
+			return new EventIntervalTree(newRoot, size + m);
+		}
+
+		List<CalendarEvent> merged = sorted;
+		if(size > 0)
+		{
+			List<Iterable<CalendarEvent>> sources = new ArrayList<Iterable<CalendarEvent>>(2);
+			sources.add(this);
+			sources.add(sorted);
+			merged = new ArrayList<CalendarEvent>(size + m);
+			for(CalendarEvent ce : EventMerge.merge(sources)) {merged.add(ce);}
+		}
+		return new EventIntervalTree(build(merged, 0, merged.size()), merged.size());
+	}
+
+	/**
+	 * Mutator method - removes an event from the index
+	 * @param ce_in		the CalendarEvent to remove (matched by start time and id)
+	 * @return			a tree holding this tree's events less ce_in (this tree itself if
+	 * 						ce_in was not in it)
+	 */
+	EventIntervalTree remove(CalendarEvent ce_in)
+	{
+		if(ce_in == null) return this;
+		Node newRoot = remove(root, ce_in.getStartMillis(), ce_in.getId());
+		if(newRoot == root) return this;
+		return newRoot == null ? EMPTY : new EventIntervalTree(newRoot, size - 1);
+	}
+
+	/**
+	 * Accessor method
+	 * @return	the number of events currently indexed
+	 */
+	int size()
+	{return size;}
+
+	/**
+	 * Accessor method
+	 * @return	the latest end time of any indexed event, or Long.MIN_VALUE if there are none
+	 */
+	long getLatestEnd()
+	{return root == null ? Long.MIN_VALUE : root.maxEnd;}
+
+	/**
+	 * Accessor method - finds an indexed event by its start time
+	 * @param start		the start time in epoch milliseconds
+	 * @return			an event starting at exactly that time, or null if there is none
+	 */
+	CalendarEvent findByStart(long start)
+	{
+		Node node = root;
+		while(node != null)
+		{
+			if(start < node.start) node = node.left;
+			else if(start > node.start) node = node.right;
+			else return node.event;
+		}
+		return null;
+	}
+
+	/**
+	 * Accessor method - finds every indexed event that conflicts with the given time-span.
+	 * 						Two events conflict when their time-spans overlap, or when they
+	 * 						begin in the same minute (which also catches zero-length events).
+	 * @param start		the start of the time-span in epoch milliseconds
+	 * @param end		the end of the time-span in epoch milliseconds
+	 * @return			a List of the conflicting events, ordered by start time
+	 */
+	List<CalendarEvent> findConflicts(long start, long end)
+	{
+		List<CalendarEvent> result = new ArrayList<CalendarEvent>();
+		long minuteStart = Math.floorDiv(start, MILLIS_PER_MINUTE) * MILLIS_PER_MINUTE;
+		collectConflicts(root, start, end, minuteStart, minuteStart + MILLIS_PER_MINUTE, result);
+		return result;
+	}
+
+	/**
+	 * Accessor method - finds every indexed event whose time-span overlaps [start, end)
+	 * @param start		the start of the query span in epoch milliseconds (inclusive)
+	 * @param end		the end of the query span in epoch milliseconds (exclusive)
+	 * @return			a List of the overlapping events, ordered by start time
+	 */
+	List<CalendarEvent> findOverlapping(long start, long end)
+	{
+		List<CalendarEvent> result = new ArrayList<CalendarEvent>();
+		collectOverlapping(root, start, end, result);
+		return result;
+	}
+
+	/**
+	 * Accessor method - finds every indexed event that touches [start, end): those whose
+	 * 						time-spans overlap it, and zero-length events starting in it. This
+	 * 						is what is "on" a day, however long before the day an event began
+	 * @param start		the start of the query span in epoch milliseconds (inclusive)
+	 * @param end		the end of the query span in epoch milliseconds (exclusive)
+	 * @return			a List of the events, ordered by start time
+	 */
+	List<CalendarEvent> findTouching(long start, long end)
+	{
+		List<CalendarEvent> result = new ArrayList<CalendarEvent>();
+		collectTouching(root, start, end, result);
+		return result;
+	}
+
+	/**
+	 * Accessor method - finds every indexed event that starts within [start, end)
+	 * @param start		the start of the query span in epoch milliseconds (inclusive)
+	 * @param end		the end of the query span in epoch milliseconds (exclusive)
+	 * @return			a List of the events, ordered by start time
+	 */
+	List<CalendarEvent> findStartingIn(long start, long end)
+	{
+		List<CalendarEvent> result = new ArrayList<CalendarEvent>();
+		collectStartingIn(root, start, end, result);
+		return result;
+	}
+
+	/**
+	 * Accessor method - walks the events in start-time order
+	 * @return	an Iterator over this version of the tree (later versions do not affect it)
+	 */
+	@Override
+	public Iterator<CalendarEvent> iterator()
+	{
+		return new Iterator<CalendarEvent>()
+		{
+			@Override
+			public boolean hasNext() {return !path.isEmpty();}
+
+			@Override
+			public CalendarEvent next()
+			{
+				if(path.isEmpty()) throw new NoSuchElementException();
+				Node node = path.pop();
+				pushLeft(node.right);
+				return node.event;
+			}
+
+			private void pushLeft(Node node)
+			{
+				for(; node != null; node = node.left) {path.push(node);}
+			}
+
+			private final ArrayDeque<Node> path = new ArrayDeque<Node>();	// ancestors still to visit
+			{pushLeft(root);}
+		};
+	}
+
+	/**
+	 * Utility method - in-order walk collecting conflicting events. A subtree is skipped
+	 * 						entirely when nothing in it can end after the query starts and
+	 * 						nothing in it can start in the same minute.
+	 */
+	private static void collectConflicts(Node node, long start, long end,
+			long minuteStart, long minuteEnd, List<CalendarEvent> result)
+	{
+		if(node == null) return;
+		if(node.maxEnd <= start && node.maxStart < minuteStart) return;
+
+		collectConflicts(node.left, start, end, minuteStart, minuteEnd, result);
+
+		boolean sameMinute = node.start >= minuteStart && node.start < minuteEnd;
+		boolean overlaps = node.start < end && start < node.end;
+		if(sameMinute || overlaps) result.add(node.event);
+
+		// every event in the right subtree starts at or after this one
+		if(node.start < end || node.start < minuteEnd)
+			collectConflicts(node.right, start, end, minuteStart, minuteEnd, result);
+	}
+
+	/**
+	 * Utility method - in-order walk collecting events overlapping [start, end)
+	 */
+	private static void collectOverlapping(Node node, long start, long end, List<CalendarEvent> result)
+	{
+		if(node == null || node.maxEnd <= start) return;
+
+		collectOverlapping(node.left, start, end, result);
+
+		if(node.start < end && start < node.end) result.add(node.event);
+
+		if(node.start < end) collectOverlapping(node.right, start, end, result);
+	}
+
+	/**
+	 * Utility method - in-order walk collecting events touching [start, end). Subtrees whose
+	 * 						events all end before start are skipped; an event ending exactly
+	 * 						at start may still be a zero-length one starting there
+	 */
+	private static void collectTouching(Node node, long start, long end, List<CalendarEvent> result)
+	{
+		if(node == null || node.maxEnd < start) return;
+
+		collectTouching(node.left, start, end, result);
+
+		if(node.start < end && (start < node.end || node.start >= start)) result.add(node.event);
+
+		if(node.start < end) collectTouching(node.right, start, end, result);
+	}
+
+	/**
+	 * Utility method - in-order walk collecting events starting in [start, end)
+	 */
+	private static void collectStartingIn(Node node, long start, long end, List<CalendarEvent> result)
+	{
+		if(node == null || node.maxStart < start) return;
+
+		if(node.start >= start) collectStartingIn(node.left, start, end, result);
+
+		if(node.start >= start && node.start < end) result.add(node.event);
+
+		if(node.start < end) collectStartingIn(node.right, start, end, result);
+	}
+
+	/*
+	 * AVL tree maintenance by path copying. Nodes are ordered by (start, id), so every event
+	 * has exactly one place in the tree.
+	 */
+
+	/**
+	 * Utility method - builds a perfectly balanced subtree from a run of events in tree order.
+	 * 						The middle event becomes the root, so the heights of any two
+	 * 						sibling subtrees differ by at most one
+	 * @return	the root of the subtree holding sorted[from, to), or null if the run is empty
+	 */
+	private static Node build(List<CalendarEvent> sorted, int from, int to)
+	{
+		if(from >= to) return null;
+		int middle = (from + to) >>> 1;
+		return new Node(sorted.get(middle), build(sorted, from, middle), build(sorted, middle + 1, to));
+	}
+
+	private static Node insert(Node node, Node newNode)
+	{
+		if(node == null) return newNode;
+
+		if(compare(newNode.start, newNode.id, node) < 0)
+			return balance(node, insert(node.left, newNode), node.right);
+		else
+			return balance(node, node.left, insert(node.right, newNode));
+	}
+
+	/**
+	 * Utility method - removes the node holding the given event
+	 * @return	the new subtree, or the same node if the event is not in this subtree
+	 */
+	private static Node remove(Node node, long start, long id)
+	{
+		if(node == null) return null;
+
+		int direction = compare(start, id, node);
+		if(direction < 0)
+		{
+			Node left = remove(node.left, start, id);
+			return left == node.left ? node : balance(node, left, node.right);
+		}
+		if(direction > 0)
+		{
+			Node right = remove(node.right, start, id);
+			return right == node.right ? node : balance(node, node.left, right);
+		}
+
+		if(node.left == null) return node.right;
+		if(node.right == null) return node.left;
+
+		// replace this node with its in-order successor
+		Node successor = node.right;
+		while(successor.left != null) successor = successor.left;
+		return balance(successor, node.left, removeMin(node.right));
+	}
+
+	private static Node removeMin(Node node)
+	{
+		if(node.left == null) return node.right;
+		return balance(node, removeMin(node.left), node.right);
+	}
+
+	/**
+	 * Utility method - builds a copy of a node with new children, rotating if the children's
+	 * 						heights differ by more than one
+	 */
+	private static Node balance(Node node, Node left, Node right)
+	{
+		int balance = height(left) - height(right);
+
+		if(balance > 1)
+		{
+			if(height(left.left) < height(left.right))
+				left = rotateLeft(left);
+			return left.with(left.left, node.with(left.right, right));
+		}
+		if(balance < -1)
+		{
+			if(height(right.right) < height(right.left))
+				right = rotateRight(right);
+			return right.with(node.with(left, right.left), right.right);
+		}
+		return node.with(left, right);
+	}
+
+	private static Node rotateRight(Node node)
+	{
+		Node pivot = node.left;
+		return pivot.with(pivot.left, node.with(pivot.right, node.right));
+	}
+
+	private static Node rotateLeft(Node node)
+	{
+		Node pivot = node.right;
+		return pivot.with(node.with(node.left, pivot.left), pivot.right);
+	}
+
+	private static int height(Node node)
+	{return node == null ? 0 : node.height;}
+
+	/**
+	 * Utility method - compares an event's position in the tree with a node's
+	 */
+	private static int compare(long start, long id, Node node)
+	{
+		int result = Long.compare(start, node.start);
+		return result != 0 ? result : Long.compare(id, node.id);
+	}
+
+	/**
+	 * Tree node - caches the event's id, start and end times along with the subtree aggregates
+	 * 		used to prune queries. Nodes are immutable
+	 * @author Iain Davis
+	 */
+	private static final class Node
+	{
+		private Node(CalendarEvent event_in, Node left_in, Node right_in)
+		{
+			this(event_in, event_in.getId(), event_in.getStartMillis(), event_in.getEndMillis(), left_in, right_in);
+		}
+
+		private Node(CalendarEvent event_in, long id_in, long start_in, long end_in, Node left_in, Node right_in)
+		{
+			event = event_in;
+			id = id_in;
+			start = start_in;
+			end = end_in;
+			left = left_in;
+			right = right_in;
+
+			height = 1 + Math.max(height(left), height(right));
+			long latestEnd = end;
+			if(left != null) latestEnd = Math.max(latestEnd, left.maxEnd);
+			if(right != null) latestEnd = Math.max(latestEnd, right.maxEnd);
+			maxEnd = latestEnd;
+			maxStart = right != null ? right.maxStart : start;
+		}
+
+		/**
+		 * Utility method - copies this node with different children
+		 */
+		private Node with(Node left_in, Node right_in)
+		{
+			if(left_in == left && right_in == right) return this;
+			return new Node(event, id, start, end, left_in, right_in);
+		}
+
+		private final CalendarEvent event;
+		private final long id;
+		private final long start;
+		private final long end;
+		private final Node left;
+		private final Node right;
+
+		private final long maxEnd;		// latest end time in this subtree
+		private final long maxStart;	// latest start time in this subtree
+		private final int height;
+	}
+
+	static final EventIntervalTree EMPTY = new EventIntervalTree(null, 0);
+	private static final long MILLIS_PER_MINUTE = 60 * 1000;
+
+	private final Node root;
+	private final int size;
+}
@@ -0,0 +1,365 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Write-ahead journal of changes to the model's events. Every addition or deletion is
+ * 		appended to the journal file as a small self-checking record, so a change is on disk
+ * 		as soon as the mutator returns, at a cost proportional to the change rather than to
+ * 		the size of the calendar. The model periodically folds the journal into a full
+ * 		snapshot and then drops the records the snapshot holds (see
+ * 		CalendarShard.flushToDisk()).
+ *
+ * Record layout:
+ * 		int		payload length
+ * 		long	CRC32 of the payload
+ * 		byte[]	payload: operation byte, start millis, end millis, title (int byte length,
+ * 					then that many bytes of UTF-8), then any of these optional fields, each
+ * 					introduced by a tag byte:
+ * 						'R'		the recurrence rule of a repeating event (see
+ * 									EventFileFormat.writeRule())
+ * 						'N'		the description, written as the title is
+ * 						'I'		the event id (long); records written before events had ids
+ * 									lack it
+ * 						'Z'		the id of the event's time zone, written as the title is
+ * 						'M'		the reminder, in minutes before the start (int), written
+ * 									only for an event that has one
+ *
+ * A record may not exceed MAX_RECORD_LENGTH bytes; appendAll() refuses an event that would
+ * 		need more before it writes any of the batch.
+ *
+ * A record that is cut short or fails its checksum (e.g. the program died mid-write) marks
+ * 		the end of the usable journal; it and anything after it are discarded on replay.
+ *
+ * @author Iain Davis
+ */
+class EventJournal {
+	/**
+	 * Constructor
+	 * @param file_in	the file holding the journal (created on first write if necessary)
+	 */
+	EventJournal(File file_in)
+	{file = file_in;}
+
+	/**
+	 * Callback interface - receives the changes read back from the journal, in the order
+	 * 		they were originally made
+	 * @author Iain Davis
+	 */
+	interface Replayer
+	{
+		/**
+		 * @param identified	false if the record predates event ids, so that ce has a new id
+		 * 						and the event must be matched by start time instead
+		 */
+		void added(CalendarEvent ce, boolean identified);
+		void deleted(CalendarEvent ce, boolean identified);
+	}
+
+	/**
+	 * Mutator method - records several changes with a single sync to disk. Every record is
+	 * 					encoded before any is written, so a batch is either recorded whole or
+	 * 					(if an event is too large to record) not at all
+	 * @param added		the CalendarEvents that were added
+	 * @param deleted	the CalendarEvents that were deleted
+	 * @throws IOException if an event is too large to record, or the records could not be
+	 * 						written to disk
+	 */
+	void appendAll(Iterable<CalendarEvent> added, Iterable<CalendarEvent> deleted) throws IOException
+	{
+		List<byte[]> records = new ArrayList<byte[]>();
+		for(CalendarEvent ce : deleted) {records.add(encodeRecord(DELETE, ce));}
+		for(CalendarEvent ce : added) {records.add(encodeRecord(ADD, ce));}
+		for(byte[] record : records) {writeRecord(record);}
+		sync();
+	}
+
+	/**
+	 * Accessor method
+	 * @return	the number of records in the journal
+	 */
+	int getRecordCount()
+	{return recordCount;}
+
+	/**
+	 * Accessor method
+	 * @return	the length of the journal in bytes, which marks the point reached so far (see
+	 * 				discardBefore())
+	 */
+	long getLength()
+	{return length;}
+
+	/**
+	 * Utility method - reads the journal back, passing each change to the replayer. A damaged
+	 * 						tail is truncated so that new records follow the last good one.
+	 * @param replayer	the Replayer that applies each change
+	 * @return			the number of records replayed
+	 * @throws IOException if the journal exists but could not be read
+	 */
+	int replay(Replayer replayer) throws IOException
+	{
+		close();
+		recordCount = 0;
+		length = 0;
+		if(!file.exists()) return 0;
+
+		long goodLength = 0;
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+		try
+		{
+			CRC32 crc = new CRC32();
+			while(true)
+			{
+				byte[] payload;
+				try
+				{
+					int length = in.readInt();
+					long checksum = in.readLong();
+					if(length <= 0 || length > MAX_RECORD_LENGTH) break;
+					payload = new byte[length];
+					in.readFully(payload);
+
+					crc.reset();
+					crc.update(payload, 0, length);
+					if(crc.getValue() != checksum) break;
+				}
+				catch(EOFException e) {break;}
+
+				DataInputStream record = new DataInputStream(new ByteArrayInputStream(payload));
+				byte operation = record.readByte();
+				long start = record.readLong(), end = record.readLong();
+				String title = readString(record);
+				RecurrenceRule rule = null;
+				String description = null;
+				long id = CalendarEvent.NO_ID;
+				String zone = null;
+				int reminder = CalendarEvent.NO_REMINDER;
+				while(record.available() > 0)
+				{
+					byte tag = record.readByte();
+					if(tag == RULE) rule = EventFileFormat.readRule(record);
+					else if(tag == DESCRIPTION) description = readString(record);
+					else if(tag == ID) id = record.readLong();
+					else if(tag == ZONE) zone = readString(record);
+					else if(tag == REMINDER) reminder = record.readInt();
+					else throw new IOException("unknown field '" + (char) tag + "' in journal record " + recordCount);
+				}
+				CalendarEvent ce = new CalendarEvent(id, start, end, title, description, rule, zone, reminder);
+				if(operation == ADD) replayer.added(ce, id != CalendarEvent.NO_ID);
+				else if(operation == DELETE) replayer.deleted(ce, id != CalendarEvent.NO_ID);
+
+				goodLength += HEADER_LENGTH + payload.length;
+				recordCount++;
+			}
+		}
+		finally {in.close();}
+
+		// discard any damaged tail
+		if(goodLength < file.length())
+		{
+			RandomAccessFile raf = new RandomAccessFile(file, "rw");
+			try {raf.setLength(goodLength);}
+			finally {raf.close();}
+		}
+		length = goodLength;
+		return recordCount;
+	} // replay()
+
+	/**
+	 * Mutator method - empties the journal, once its contents are safely in a snapshot
+	 * @throws IOException if the journal could not be truncated
+	 */
+	void reset() throws IOException
+	{
+		close();
+		new FileOutputStream(file).close();
+		recordCount = 0;
+		length = 0;
+	}
+
+	/**
+	 * Mutator method - drops the records written before a point, once a snapshot holds their
+	 * 					changes. The records written since are copied to a new file, which
+	 * 					then replaces the journal, so a crash part-way leaves the journal whole
+	 * @param position	the value getLength() had when the snapshot's events were taken
+	 * @throws IOException if the journal could not be rewritten
+	 */
+	void discardBefore(long position) throws IOException
+	{
+		if(position >= length)
+		{
+			reset();
+			return;
+		}
+		sync();
+		close();
+
+		byte[] tail = new byte[(int) (length - position)];
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try
+		{
+			raf.seek(position);
+			raf.readFully(tail);
+		}
+		finally {raf.close();}
+
+		int kept = 0;
+		for(int at = 0; at < tail.length; at += HEADER_LENGTH + ByteBuffer.wrap(tail, at, 4).getInt()) {kept++;}
+
+		File tempFile = new File(file.getPath() + ".tmp");
+		FileOutputStream temp_out = new FileOutputStream(tempFile);
+		try
+		{
+			temp_out.write(tail);
+			temp_out.getFD().sync();
+		}
+		finally {temp_out.close();}
+		try {
+			Files.move(tempFile.toPath(), file.toPath(),
+					StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+		recordCount = kept;
+		length = tail.length;
+	} // discardBefore()
+
+	/**
+	 * Utility method - releases the open journal file, if any
+	 */
+	void close() throws IOException
+	{
+		if(out == null) return;
+		out.close();
+		out = null;
+		out_raw = null;
+	}
+
+	/**
+	 * Utility method - encodes one record
+	 * @return	the payload of the record
+	 * @throws IOException if the payload would be longer than MAX_RECORD_LENGTH
+	 */
+	private byte[] encodeRecord(byte operation, CalendarEvent ce) throws IOException
+	{
+		buffer.reset();
+		DataOutputStream record = new DataOutputStream(buffer);
+		record.writeByte(operation);
+		record.writeLong(ce.getStartMillis());
+		record.writeLong(ce.getEndMillis());
+		writeString(record, ce.getTitle() == null ? "" : ce.getTitle());
+		record.writeByte(ID);
+		record.writeLong(ce.getId());
+		if(ce.isRecurring())
+		{
+			record.writeByte(RULE);
+			EventFileFormat.writeRule(record, ce.getRecurrence());
+		}
+		if(ce.getDescription() != null)
+		{
+			record.writeByte(DESCRIPTION);
+			writeString(record, ce.getDescription());
+		}
+		record.writeByte(ZONE);
+		writeString(record, ce.getZoneId());
+		if(ce.hasReminder())
+		{
+			record.writeByte(REMINDER);
+			record.writeInt(ce.getReminderMinutes());
+		}
+		record.flush();
+
+		if(buffer.size() > MAX_RECORD_LENGTH)
+			throw new IOException("event " + ce.getId() + " is too large to record in the journal ("
+					+ buffer.size() + " bytes)");
+		return buffer.toByteArray();
+	}
+
+	/**
+	 * Utility method - appends one encoded record to the journal file
+	 */
+	private void writeRecord(byte[] payload) throws IOException
+	{
+		if(out == null)
+		{
+			out_raw = new FileOutputStream(file, true);
+			out = new DataOutputStream(new BufferedOutputStream(out_raw));
+		}
+
+		checksum.reset();
+		checksum.update(payload, 0, payload.length);
+
+		out.writeInt(payload.length);
+		out.writeLong(checksum.getValue());
+		out.write(payload);
+		recordCount++;
+		length += HEADER_LENGTH + payload.length;
+	}
+
+	/**
+	 * Utility method - writes a string as its length in bytes followed by its UTF-8 encoding
+	 */
+	private static void writeString(DataOutputStream record, String s) throws IOException
+	{
+		byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+		record.writeInt(bytes.length);
+		record.write(bytes);
+	}
+
+	/**
+	 * Utility method - reads a string written by writeString()
+	 */
+	private static String readString(DataInputStream record) throws IOException
+	{
+		int length = record.readInt();
+		if(length < 0 || length > record.available()) throw new EOFException("bad string length " + length);
+		byte[] bytes = new byte[length];
+		record.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Utility method - forces everything written so far onto the disk
+	 */
+	private void sync() throws IOException
+	{
+		if(out == null) return;
+		out.flush();
+		out_raw.getFD().sync();
+	}
+
+	private static final byte ADD = 'A';
+	private static final byte DELETE = 'D';
+	private static final byte RULE = 'R';
+	private static final byte DESCRIPTION = 'N';
+	private static final byte ID = 'I';
+	private static final byte ZONE = 'Z';
+	private static final byte REMINDER = 'M';
+	private static final int HEADER_LENGTH = 4 + 8;
+	private static final int MAX_RECORD_LENGTH = 1 << 20;
+
+	private final File file;
+	private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+	private final CRC32 checksum = new CRC32();
+	private FileOutputStream out_raw;
+	private DataOutputStream out;
+	private int recordCount;
+	private long length;		// of the good records, in bytes
+}
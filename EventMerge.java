@@ -0,0 +1,114 @@
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+/**
+ * Merges several sequences of CalendarEvents, each already in start-time order, into one
+ * 		sequence in start-time order (a k-way merge). The sources are consumed lazily, one
+ * 		event at a time, using a heap holding the next event of each source, so merging k
+ * 		sources of n events in all costs O(n log k).
+ *
+ * @author Iain Davis
+ */
+class EventMerge {
+	private EventMerge() {}
+
+	/**
+	 * Utility method - merges sorted Lists into a new sorted List
+	 * @param sources	the Lists of events, each in start-time order
+	 * @return			a new List holding every event of every source, in start-time order
+	 */
+	static List<CalendarEvent> merge(List<List<CalendarEvent>> sources)
+	{
+		if(sources.size() == 1) return sources.get(0);
+
+		int total = 0;
+		List<Iterable<CalendarEvent>> iterables = new ArrayList<Iterable<CalendarEvent>>(sources.size());
+		for(List<CalendarEvent> source : sources)
+		{
+			total += source.size();
+			if(!source.isEmpty()) iterables.add(source);
+		}
+		if(iterables.size() == 1) return (List<CalendarEvent>) iterables.get(0);
+
+		List<CalendarEvent> result = new ArrayList<CalendarEvent>(total);
+		for(CalendarEvent ce : merge(iterables)) {result.add(ce);}
+		return result;
+	}
+
+	/**
+	 * Utility method - merges sorted sequences lazily
+	 * @param sources	the sequences of events, each in start-time order
+	 * @return			an Iterable over every event of every source, in start-time order
+	 */
+	static Iterable<CalendarEvent> merge(final Iterable<? extends Iterable<CalendarEvent>> sources)
+	{
+		return new Iterable<CalendarEvent>()
+		{
+			@Override
+			public Iterator<CalendarEvent> iterator() {return new MergeIterator(sources);}
+		};
+	}
+
+	/**
+	 * This class walks several sorted sources at once, always taking the earliest next event
+	 * @author Iain Davis
+	 */
+	private static class MergeIterator implements Iterator<CalendarEvent>
+	{
+		private MergeIterator(Iterable<? extends Iterable<CalendarEvent>> sources)
+		{
+			for(Iterable<CalendarEvent> source : sources)
+			{
+				Iterator<CalendarEvent> it = source.iterator();
+				if(it.hasNext()) heads.add(new Head(it.next(), it));
+			}
+		}
+
+		@Override
+		public boolean hasNext()
+		{return !heads.isEmpty();}
+
+		@Override
+		public CalendarEvent next()
+		{
+			Head head = heads.poll();
+			if(head == null) throw new NoSuchElementException();
+
+			CalendarEvent result = head.event;
+			if(head.rest.hasNext())
+			{
+				head.event = head.rest.next();
+				heads.add(head);
+			}
+			return result;
+		}
+
+		private final PriorityQueue<Head> heads = new PriorityQueue<Head>(11, HEAD_ORDER);
+	}
+
+	/**
+	 * The next event of one source, along with the rest of that source
+	 */
+	private static class Head
+	{
+		private Head(CalendarEvent event_in, Iterator<CalendarEvent> rest_in)
+		{
+			event = event_in;
+			rest = rest_in;
+		}
+
+		private CalendarEvent event;
+		private final Iterator<CalendarEvent> rest;
+	}
+
+	private static final Comparator<CalendarEvent> EVENT_ORDER = CalendarEvent.getComparator(CalendarEvent.Field.EVENT_START);
+	private static final Comparator<Head> HEAD_ORDER = new
+			Comparator<Head>()
+			{@Override
+				public int compare(Head a, Head b) {return EVENT_ORDER.compare(a.event, b.event);}
+			};
+}
@@ -0,0 +1,299 @@
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Keeps only part of a large events file in memory. The file is divided into pages of one
+ * 		calendar month each (by event start time). Pages are read from the memory-mapped file
+ * 		when the model first needs them, and the least recently used pages are dropped again
+ * 		once the number of resident events exceeds a budget. Pages around the selected date,
+ * 		and pages holding changes that have not yet reached the snapshot, are never dropped.
+ *
+ * An event that runs on past the end of its page is only in memory while its own page is.
+ * 		So that a query finds such events, the pager also loads the pages far enough before
+ * 		the span asked about to cover the longest event in the file.
+ *
+ * The pager only keeps the books; moving events in and out of the model's collections is
+ * 		done through the PageSink the model supplies. It is not thread-safe, except that the
+ * 		Iterable returned by snapshotEvents() may be read on another thread.
+ *
+ * @author Iain Davis
+ */
+class EventPager {
+	/**
+	 * Constructor
+	 * @param reader_in			a Reader over the snapshot file
+	 * @param windowMonths_in	how many months either side of the selected month to keep loaded
+	 * @param maxResident_in	the number of resident events above which pages are dropped
+	 * @param sink_in			the PageSink that adds and removes events in the model
+	 */
+	EventPager(EventFileFormat.Reader reader_in, int windowMonths_in, int maxResident_in, PageSink sink_in)
+	{
+		reader = reader_in;
+		longestDuration = reader.getLongestDuration();
+		windowMonths = windowMonths_in;
+		maxResident = maxResident_in;
+		sink = sink_in;
+	}
+
+	/**
+	 * Callback interface - moves events between the events file and the model
+	 * @author Iain Davis
+	 */
+	interface PageSink
+	{
+		/** adds events just read from the file to the model's collections */
+		void pageIn(List<CalendarEvent> events);
+
+		/** removes all events starting in [start, end) from the model's collections */
+		void pageOut(long start, long end);
+
+		/** @return the number of events currently held by the model */
+		int residentCount();
+	}
+
+	/**
+	 * Mutator method - makes sure every page holding an event that could overlap a span of
+	 * 					time is loaded
+	 * @param start		the start of the span in epoch milliseconds
+	 * @param end		the end of the span in epoch milliseconds (inclusive)
+	 */
+	void ensureResident(long start, long end)
+	{
+		int first = monthKey(start - longestDuration > start ? Long.MIN_VALUE : start - longestDuration);
+		int last = monthKey(end);
+		for(int key = first; key <= last; key++) {load(key);}
+		evictOverBudget(first, last);
+	}
+
+	/**
+	 * Mutator method - moves the window of loaded pages to surround the given date
+	 * @param millis	the newly selected date, in epoch milliseconds
+	 */
+	void setWindow(long millis)
+	{
+		windowCenter = monthKey(millis);
+		for(int key = windowCenter - windowMonths; key <= windowCenter + windowMonths; key++) {load(key);}
+		evictOverBudget(windowCenter, windowCenter);
+	}
+
+	/**
+	 * Mutator method - pins the page holding the given time, because one of its events has
+	 * 					changed since the snapshot was written
+	 * @param millis	the start time of the changed event, in epoch milliseconds
+	 */
+	void markDirty(long millis)
+	{
+		int key = monthKey(millis);
+		load(key);
+		dirty.put(key, ++changeCount);
+	}
+
+	/**
+	 * Accessor method
+	 * @return	the number of changes marked so far, which identifies the changes a snapshot
+	 * 				taken now will contain (see reopen())
+	 */
+	long getChangeCount()
+	{return changeCount;}
+
+	/**
+	 * Mutator method - switches to a newly written snapshot. Pages whose changes it contains
+	 * 					need not stay pinned any more; pages changed since it was taken still do
+	 * @param reader_in		a Reader over the new snapshot file
+	 * @param changesIn		the value getChangeCount() had when the snapshot's events were taken
+	 */
+	void reopen(EventFileFormat.Reader reader_in, long changesIn)
+	{
+		reader = reader_in;
+		longestDuration = reader.getLongestDuration();
+		for(Iterator<Long> it = dirty.values().iterator(); it.hasNext();)
+		{
+			if(it.next() <= changesIn) it.remove();
+		}
+	}
+
+	/**
+	 * Accessor method - gets every event for a new snapshot: events of loaded pages come from
+	 * 						the model (they may have changed), the rest straight from the file.
+	 * 						The pages loaded now are the ones taken from the model, however
+	 * 						the pager changes while the Iterable is read
+	 * @param residentEvents	the events currently held by the model, in start-time order,
+	 * 								which must not change afterwards
+	 * @return					an Iterable over all events in start-time order
+	 */
+	Iterable<CalendarEvent> snapshotEvents(final Iterable<CalendarEvent> residentEvents)
+	{
+		final EventFileFormat.Reader source = reader.duplicate();
+		final Set<Integer> loaded = new HashSet<Integer>(pages.keySet());
+		return new Iterable<CalendarEvent>()
+		{
+			@Override
+			public Iterator<CalendarEvent> iterator() {return new SnapshotIterator(residentEvents.iterator(), source, loaded);}
+		};
+	}
+
+	/**
+	 * Accessor method
+	 * @param residentCount		the number of events currently held by the model
+	 * @return					the number of events snapshotEvents() will return
+	 */
+	int snapshotCount(int residentCount)
+	{
+		int count = reader.getCount() + residentCount;
+		for(int key : pages.keySet())
+		{count -= reader.lowerBound(monthStart(key + 1)) - reader.lowerBound(monthStart(key));}
+		return count;
+	}
+
+	/**
+	 * Utility method - reads one page from the file unless it is already loaded
+	 */
+	private void load(int key)
+	{
+		if(pages.get(key) != null) return;	// get() also marks the page as recently used
+
+		int from = reader.lowerBound(monthStart(key));
+		int to = reader.lowerBound(monthStart(key + 1));
+		pages.put(key, Boolean.TRUE);
+		if(from < to) sink.pageIn(reader.readRange(from, to));
+	}
+
+	/**
+	 * Utility method - drops least recently used pages until the model is within budget.
+	 * 						Dirty pages, pages in the window and pages in [keepFirst, keepLast]
+	 * 						stay put
+	 */
+	private void evictOverBudget(int keepFirst, int keepLast)
+	{
+		if(sink.residentCount() <= maxResident) return;
+
+		List<Integer> victims = new ArrayList<Integer>();
+		for(int key : pages.keySet())
+		{
+			if(dirty.containsKey(key)) continue;
+			if(key >= keepFirst && key <= keepLast) continue;
+			if(Math.abs(key - windowCenter) <= windowMonths) continue;
+			victims.add(key);
+		}
+
+		for(int key : victims)
+		{
+			if(sink.residentCount() <= maxResident) break;
+			pages.remove(key);
+			sink.pageOut(monthStart(key), monthStart(key + 1));
+		}
+	}
+
+	/**
+	 * Utility method - gets the page key (year * 12 + month) for a time
+	 */
+	private int monthKey(long millis)
+	{return monthKey(scratch, millis);}
+
+	/**
+	 * Utility method - gets the first instant of the month with the given page key
+	 */
+	private long monthStart(int key)
+	{return monthStart(scratch, key);}
+
+	/**
+	 * Utility method - gets the page key for a time, using the given calendar for the sums
+	 */
+	private static int monthKey(GregorianCalendar calendar, long millis)
+	{
+		calendar.setTimeInMillis(millis);
+		return calendar.get(Calendar.YEAR) * 12 + calendar.get(Calendar.MONTH);
+	}
+
+	/**
+	 * Utility method - gets the first instant of a month, using the given calendar for the sums
+	 */
+	private static long monthStart(GregorianCalendar calendar, int key)
+	{
+		calendar.clear();
+		calendar.set(Math.floorDiv(key, 12), Math.floorMod(key, 12), 1);
+		return calendar.getTimeInMillis();
+	}
+
+	/**
+	 * This class merges the model's resident events with the file records of pages that are
+	 * 		not loaded, in start-time order. It uses only its own state, so it can run on
+	 * 		another thread while the pager carries on
+	 * @author Iain Davis
+	 */
+	private static class SnapshotIterator implements Iterator<CalendarEvent>
+	{
+		private SnapshotIterator(Iterator<CalendarEvent> resident_in, EventFileFormat.Reader reader_in,
+				Set<Integer> loaded_in)
+		{
+			resident = resident_in;
+			reader = reader_in;
+			loaded = loaded_in;
+			nextResident = resident.hasNext() ? resident.next() : null;
+			advanceFile();
+		}
+
+		@Override
+		public boolean hasNext()
+		{return nextResident != null || fileIndex < reader.getCount();}
+
+		@Override
+		public CalendarEvent next()
+		{
+			if(!hasNext()) throw new NoSuchElementException();
+
+			boolean takeFile = nextResident == null
+					|| (fileIndex < reader.getCount() && reader.getStartMillis(fileIndex) < nextResident.getStartMillis());
+			if(takeFile)
+			{
+				CalendarEvent ce = reader.getEvent(fileIndex++);
+				advanceFile();
+				return ce;
+			}
+			CalendarEvent ce = nextResident;
+			nextResident = resident.hasNext() ? resident.next() : null;
+			return ce;
+		}
+
+		/**
+		 * Utility method - skips over file records belonging to loaded pages, a page at a time
+		 */
+		private void advanceFile()
+		{
+			while(fileIndex < reader.getCount())
+			{
+				int key = monthKey(scratch, reader.getStartMillis(fileIndex));
+				if(!loaded.contains(key)) return;
+				fileIndex = reader.lowerBound(monthStart(scratch, key + 1));
+			}
+		}
+
+		private final Iterator<CalendarEvent> resident;
+		private final EventFileFormat.Reader reader;
+		private final Set<Integer> loaded;		// pages whose events come from the model
+		private final GregorianCalendar scratch = new GregorianCalendar();
+		private CalendarEvent nextResident;
+		private int fileIndex;
+	}
+
+	private EventFileFormat.Reader reader;
+	private long longestDuration;	// of any event in the file
+	private final int windowMonths;
+	private final int maxResident;
+	private final PageSink sink;
+	private int windowCenter;
+
+	// loaded pages, least recently used first
+	private final LinkedHashMap<Integer, Boolean> pages = new LinkedHashMap<Integer, Boolean>(16, 0.75f, true);
+	private final HashMap<Integer, Long> dirty = new HashMap<Integer, Long>();	// page key -> its latest change
+	private long changeCount;		// changes marked so far
+	private final GregorianCalendar scratch = new GregorianCalendar();
+}
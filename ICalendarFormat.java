@@ -0,0 +1,798 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.GregorianCalendar;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Reads and writes iCalendar (RFC 5545) files, for moving events to and from other calendar
+ * 		programs. Both directions stream: the writer produces the file one event at a time
+ * 		from an Iterable, and the reader holds only a few chunks of the file at once however
+ * 		large it is.
+ *
+ * Reading is split between the calling thread, which unfolds lines and cuts the file into
+ * 		chunks of whole VEVENTs, and the common fork/join pool, which parses the chunks in
+ * 		parallel. The parsed events are handed to a Loader on the calling thread, in file
+ * 		order and in batches of several chunks.
+ *
+ * The subset understood is what CalendarEvent can represent:
+ * 		- DTSTART with DTEND or DURATION, as UTC, floating or TZID times, or as dates (all-day)
+ * 		- SUMMARY and DESCRIPTION
+ * 		- RRULE with FREQ DAILY, WEEKLY, MONTHLY or YEARLY, INTERVAL, COUNT and UNTIL, plus
+ * 			BYDAY, BYMONTHDAY and BYMONTH only where they restate the first occurrence
+ * 		- EXDATE, and VEVENTs with a RECURRENCE-ID, which change or (if cancelled) remove one
+ * 			occurrence of a repeating event
+ * 		- the TRIGGER of a VALARM, as the event's reminder, where it is a time before (or at)
+ * 			the start; only the first such alarm is kept
+ * 		Cancelled events are skipped, other properties and components are ignored, and a
+ * 		TZID that names no time zone Java knows is read as the default zone.
+ * 		Imported events get new ids, and belong to the zone their DTSTART is given in (UTC
+ * 		for a UTC time, the default zone for a floating time or a date).
+ *
+ * Events are written in the local time of their own zone, with its id as the TZID, since the
+ * 		occurrences of a repeating event keep the local time of day of the first one. (The ids
+ * 		are those of the tz database, which common clients know without a VTIMEZONE.) A
+ * 		reminder is written as a VALARM that displays the title.
+ *
+ * @author Iain Davis
+ */
+class ICalendarFormat {
+	private ICalendarFormat() {}
+
+	/**
+	 * Callback interface - receives the events read from an iCalendar file. Every method is
+	 * 		called on the thread that called read()
+	 */
+	interface Loader
+	{
+		/**
+		 * Mutator method - adds a batch of events
+		 * @param events	the events, in file order
+		 * @return			the events that could not be added (e.g. because of conflicts)
+		 */
+		List<CalendarEvent> add(List<CalendarEvent> events);
+
+		/**
+		 * Mutator method - replaces one occurrence of a repeating event that has been added
+		 * @return	true if the occurrence was replaced
+		 */
+		boolean update(CalendarEvent occurrence, CalendarEvent updated);
+
+		/**
+		 * Mutator method - removes one occurrence of a repeating event that has been added
+		 * @return	true if the occurrence was removed
+		 */
+		boolean delete(CalendarEvent occurrence);
+
+		/**
+		 * Utility method - reports a VEVENT that could not be read
+		 * @param lineNumber	the line of the file on which the VEVENT begins
+		 * @param reason		what was wrong with it
+		 */
+		void unreadable(int lineNumber, String reason);
+	}
+
+	/**
+	 * Utility method - reads the events of an iCalendar file into a Loader. Changed and
+	 * 						cancelled occurrences are applied once every repeating event has
+	 * 						been added, since they may come before or after it in the file
+	 * @param in_in		a Reader over the file, which is read to the end but not closed
+	 * @param loader	the Loader to give the events to
+	 * @return			the number of events read (including any the Loader rejected)
+	 * @throws IOException if the file could not be read
+	 */
+	static int read(Reader in_in, Loader loader) throws IOException
+	{
+		BufferedReader in = new BufferedReader(in_in, 1 << 16);
+		ArrayDeque<ForkJoinTask<Chunk>> inFlight = new ArrayDeque<ForkJoinTask<Chunk>>();
+		int maxInFlight = 2 * ForkJoinPool.getCommonPoolParallelism() + 1;
+		Results results = new Results();
+
+		Chunk chunk = new Chunk();
+		boolean inEvent = false;
+		String logical = null;				// the line being unfolded
+		StringBuilder folded = null;		// its continuation lines so far, if any
+		int lineNumber = 0, logicalLineNumber = 0;
+		for(String line = in.readLine(); ; line = in.readLine())
+		{
+			if(line != null) lineNumber++;
+			if(line != null && logical != null && !line.isEmpty() && (line.charAt(0) == ' ' || line.charAt(0) == '\t'))
+			{
+				if(folded == null) folded = new StringBuilder(logical);
+				folded.append(line, 1, line.length());
+				continue;
+			}
+
+			// the previous logical line is complete
+			if(logical != null)
+			{
+				if(folded != null) {logical = folded.toString(); folded = null;}
+				if(!inEvent)
+				{
+					if(logical.equalsIgnoreCase("BEGIN:VEVENT"))
+					{
+						inEvent = true;
+						chunk.beginEvent(logicalLineNumber);
+					}
+				}
+				else if(logical.equalsIgnoreCase("END:VEVENT"))
+				{
+					inEvent = false;
+					if(chunk.eventCount == CHUNK_EVENTS)
+					{
+						if(inFlight.size() == maxInFlight) results.deliver(inFlight.poll().join(), loader);
+						inFlight.add(submit(chunk));
+						chunk = new Chunk();
+					}
+				}
+				else chunk.lines.add(logical);
+			}
+			if(line == null) break;
+			logical = line;
+			logicalLineNumber = lineNumber;
+		}
+		if(chunk.eventCount > 0) inFlight.add(submit(chunk));
+		while(!inFlight.isEmpty()) {results.deliver(inFlight.poll().join(), loader);}
+
+		results.applyOverrides(loader);
+		return results.read;
+	} // read()
+
+	/**
+	 * Utility method - writes events as an iCalendar file
+	 * @param out		the Writer to write to, which is flushed but not closed
+	 * @param events	the events to write: single events and repeating events, not occurrences
+	 * @return			the number of events written
+	 * @throws IOException if the file could not be written
+	 */
+	static int write(Writer out, Iterable<CalendarEvent> events) throws IOException
+	{
+		GregorianCalendar utc = new GregorianCalendar(UTC);
+		HashMap<String, GregorianCalendar> zoned = new HashMap<String, GregorianCalendar>();	// by zone id
+		StringBuilder sb = new StringBuilder(256);
+		StringBuilder stamp = new StringBuilder();
+		appendTime(stamp, System.currentTimeMillis(), utc, true);
+
+		out.write("BEGIN:VCALENDAR\r\nVERSION:2.0\r\nPRODID:" + PRODUCT_ID + "\r\nCALSCALE:GREGORIAN\r\n");
+		int count = 0;
+		for(CalendarEvent ce : events)
+		{
+			RecurrenceRule rule = ce.getRecurrence();
+			GregorianCalendar local = zoned.get(ce.getZoneId());
+			if(local == null)
+			{
+				local = new GregorianCalendar(ce.getZoneOffsets().getTimeZone());
+				zoned.put(ce.getZoneId(), local);
+			}
+			String zone = ";TZID=" + ce.getZoneId() + ":";
+			out.write("BEGIN:VEVENT\r\n");
+			writeLine(out, sb.append("UID:").append(Long.toHexString(ce.getId())).append(UID_SUFFIX));
+			writeLine(out, sb.append("DTSTAMP:").append(stamp));
+			writeLine(out, appendTime(sb.append("DTSTART").append(zone), ce.getStartMillis(), local, false));
+			writeLine(out, appendTime(sb.append("DTEND").append(zone), ce.getEndMillis(), local, false));
+			writeLine(out, appendText(sb.append("SUMMARY:"), ce.getTitle() == null ? "" : ce.getTitle()));
+			if(ce.getDescription() != null) writeLine(out, appendText(sb.append("DESCRIPTION:"), ce.getDescription()));
+			if(ce.hasReminder())
+			{
+				out.write("BEGIN:VALARM\r\nACTION:DISPLAY\r\n");
+				writeLine(out, sb.append("TRIGGER:-PT").append(ce.getReminderMinutes()).append('M'));
+				writeLine(out, appendText(sb.append("DESCRIPTION:"), ce.getTitle() == null ? "" : ce.getTitle()));
+				out.write("END:VALARM\r\n");
+			}
+			if(rule != null)
+			{
+				sb.append("RRULE:FREQ=").append(rule.getFrequency().name());
+				if(rule.getInterval() != 1) sb.append(";INTERVAL=").append(rule.getInterval());
+				if(rule.getCount() != 0) sb.append(";COUNT=").append(rule.getCount());
+				if(rule.getUntil() != Long.MAX_VALUE) appendTime(sb.append(";UNTIL="), rule.getUntil(), utc, true);
+				writeLine(out, sb);
+				for(long exception : rule.getExceptions()) {writeLine(out, appendTime(sb.append("EXDATE").append(zone), exception, local, false));}
+			}
+			out.write("END:VEVENT\r\n");
+			count++;
+		}
+		out.write("END:VCALENDAR\r\n");
+		out.flush();
+		return count;
+	} // write()
+
+	/**
+	 * Utility method - starts parsing a chunk in the common fork/join pool
+	 */
+	private static ForkJoinTask<Chunk> submit(final Chunk chunk)
+	{
+		return ForkJoinPool.commonPool().submit(new
+				Callable<Chunk>()
+				{@Override
+					public Chunk call() {chunk.parse(); return chunk;}
+				});
+	}
+
+	/**
+	 * This class holds a run of whole VEVENTs cut from the file: first their unfolded lines,
+	 * 		then, once parsed, the events made from them
+	 * @author Iain Davis
+	 */
+	private static class Chunk
+	{
+		/**
+		 * Mutator method - marks the start of the next VEVENT
+		 * @param lineNumber	the line of the file it begins on
+		 */
+		private void beginEvent(int lineNumber)
+		{
+			if(eventCount == eventLines.length) eventLines = Arrays.copyOf(eventLines, eventCount * 2);
+			eventLines[eventCount++] = lineNumber;
+			lines.add(null);	// marks the boundary for parse()
+		}
+
+		/**
+		 * Mutator method - turns the lines into events, then lets the lines go
+		 */
+		private void parse()
+		{
+			Parser parser = new Parser();
+			int event = -1;
+			int depth = 0;		// of components nested within the VEVENT, such as VALARM
+			boolean alarm = false;	// whether the outermost of them is a VALARM
+			for(String line : lines)
+			{
+				if(line == null)
+				{
+					if(event >= 0) finishEvent(parser, event);
+					parser.reset();
+					event++;
+					depth = 0;
+				}
+				else if(startsWithIgnoreCase(line, "BEGIN:"))
+				{
+					if(depth++ == 0) alarm = line.equalsIgnoreCase("BEGIN:VALARM");
+				}
+				else if(startsWithIgnoreCase(line, "END:")) depth--;
+				else if(depth == 0) parser.property(line);
+				else if(depth == 1 && alarm && (startsWithIgnoreCase(line, "TRIGGER:") || startsWithIgnoreCase(line, "TRIGGER;"))) parser.trigger(line);
+			}
+			if(event >= 0) finishEvent(parser, event);
+			lines = null;
+		}
+
+		/**
+		 * Utility method - builds the event from the properties of one VEVENT, filing it as a
+		 * 						new event, a change to an occurrence, or a problem
+		 */
+		private void finishEvent(Parser parser, int event)
+		{
+			try
+			{
+				CalendarEvent ce = parser.build();
+				if(ce == null && parser.recurrenceId == null) return;	// cancelled
+				if(parser.recurrenceId != null)
+				{
+					overrides.add(new ChangedOccurrence(parser.uid, parser.recurrenceId(), ce, eventLines[event]));
+					return;
+				}
+				events.add(ce);
+				if(ce.isRecurring() && parser.uid != null) masters.put(ce, parser.uid);
+			}
+			catch(IllegalArgumentException e)
+			{
+				problemLines.add(eventLines[event]);
+				problems.add(e.getMessage());
+			}
+		}
+
+		private List<String> lines = new ArrayList<String>();
+		private int[] eventLines = new int[CHUNK_EVENTS];	// line number on which each VEVENT begins
+		private int eventCount;
+
+		// results of parse()
+		private final List<CalendarEvent> events = new ArrayList<CalendarEvent>();
+		private final IdentityHashMap<CalendarEvent, String> masters = new IdentityHashMap<CalendarEvent, String>();	// UIDs of repeating events
+		private final List<ChangedOccurrence> overrides = new ArrayList<ChangedOccurrence>();
+		private final List<Integer> problemLines = new ArrayList<Integer>();
+		private final List<String> problems = new ArrayList<String>();
+	}
+
+	/**
+	 * This class holds a VEVENT with a RECURRENCE-ID, which changes one occurrence of the
+	 * 		repeating event with the same UID
+	 * @author Iain Davis
+	 */
+	private static class ChangedOccurrence
+	{
+		private ChangedOccurrence(String uid_in, long occurrenceStart_in, CalendarEvent event_in, int lineNumber_in)
+		{
+			uid = uid_in;
+			occurrenceStart = occurrenceStart_in;
+			event = event_in;
+			lineNumber = lineNumber_in;
+		}
+
+		private final String uid;
+		private final long occurrenceStart;
+		private final CalendarEvent event;		// the changed occurrence, or null if it is cancelled
+		private final int lineNumber;
+	}
+
+	/**
+	 * This class gathers what is needed of the parsed chunks, on the reading thread, as they
+	 * 		are handed to the Loader
+	 * @author Iain Davis
+	 */
+	private static class Results
+	{
+		/**
+		 * Utility method - takes the results of a parsed chunk, passing its events on to the
+		 * 						Loader once LOAD_EVENTS have built up (each load is a commit, so
+		 * 						loading every chunk separately would be slow)
+		 */
+		private void deliver(Chunk chunk, Loader loader)
+		{
+			for(int i = 0; i < chunk.problems.size(); i++) {loader.unreadable(chunk.problemLines.get(i), chunk.problems.get(i));}
+			read += chunk.events.size();
+			pending.addAll(chunk.events);
+			pendingMasters.putAll(chunk.masters);
+			overrides.addAll(chunk.overrides);
+			if(pending.size() >= LOAD_EVENTS) load(loader);
+		}
+
+		/**
+		 * Utility method - passes the events taken so far on to the Loader, noting the UIDs of
+		 * 						the repeating events it accepts
+		 */
+		private void load(Loader loader)
+		{
+			if(pending.isEmpty()) return;
+			Set<CalendarEvent> notAdded = Collections.newSetFromMap(new IdentityHashMap<CalendarEvent, Boolean>());
+			notAdded.addAll(loader.add(pending));
+			for(CalendarEvent master : pendingMasters.keySet())
+			{
+				if(!notAdded.contains(master)) masters.put(pendingMasters.get(master), master);
+			}
+			pending = new ArrayList<CalendarEvent>();
+			pendingMasters.clear();
+		}
+
+		/**
+		 * Utility method - applies the changed and cancelled occurrences. A change to an
+		 * 						occurrence of a repeating event that is not in the file (or
+		 * 						could not be added) is added as a single event instead
+		 */
+		private void applyOverrides(Loader loader)
+		{
+			load(loader);
+			List<CalendarEvent> orphans = new ArrayList<CalendarEvent>();
+			for(ChangedOccurrence override : overrides)
+			{
+				CalendarEvent master = override.uid == null ? null : masters.get(override.uid);
+				if(override.event != null) read++;
+				if(master == null)
+				{
+					if(override.event != null) orphans.add(override.event);
+				}
+				else if(override.event == null)
+					loader.delete(master.occurrenceAt(override.occurrenceStart));
+				else if(!loader.update(master.occurrenceAt(override.occurrenceStart), override.event))
+					loader.unreadable(override.lineNumber, "the changed occurrence conflicts with another event");
+			}
+			if(!orphans.isEmpty()) loader.add(orphans);
+		}
+
+		private int read;
+		private List<CalendarEvent> pending = new ArrayList<CalendarEvent>();	// not yet loaded
+		private final IdentityHashMap<CalendarEvent, String> pendingMasters = new IdentityHashMap<CalendarEvent, String>();
+		private final HashMap<String, CalendarEvent> masters = new HashMap<String, CalendarEvent>();	// by UID
+		private final List<ChangedOccurrence> overrides = new ArrayList<ChangedOccurrence>();
+	}
+
+	/**
+	 * This class collects the properties of one VEVENT and builds the CalendarEvent. Each
+	 * 		chunk has its own, so nothing here is shared between threads
+	 * @author Iain Davis
+	 */
+	private static class Parser
+	{
+		/**
+		 * Mutator method - forgets the properties of the previous VEVENT
+		 */
+		private void reset()
+		{
+			uid = summary = description = rrule = duration = null;
+			start = end = recurrenceId = null;
+			exdates.clear();
+			cancelled = false;
+			reminder = CalendarEvent.NO_REMINDER;
+		}
+
+		/**
+		 * Mutator method - records the TRIGGER line of a VALARM as the reminder, if it is the
+		 * 					first alarm seen and goes off a whole number of minutes before (or
+		 * 					at) the start. Alarms at a fixed time or relative to the end are
+		 * 					ignored, as is one that cannot be read
+		 */
+		private void trigger(String line)
+		{
+			if(reminder != CalendarEvent.NO_REMINDER) return;
+			int colon = line.lastIndexOf(':');
+			String params = line.substring(0, colon < 0 ? 0 : colon);
+			String value = line.substring(colon + 1).trim();
+			if(colon < 0 || indexOfIgnoreCase(params, "RELATED=END") >= 0 || indexOfIgnoreCase(params, "VALUE=DATE-TIME") >= 0) return;
+
+			try
+			{
+				boolean before = value.startsWith("-");
+				long lead = duration(before ? value.substring(1) : value);
+				if(!before && lead != 0) return;	// after the start
+				if(lead % 60000 == 0 && lead / 60000 <= CalendarEvent.MAX_REMINDER_MINUTES) reminder = (int) (lead / 60000);
+			}
+			catch(IllegalArgumentException e) {}	// not a duration
+		}
+
+		/**
+		 * Mutator method - records one (unfolded) property line
+		 */
+		private void property(String line)
+		{
+			// the value follows the first colon outside a quoted parameter value
+			int colon = -1;
+			boolean quoted = false;
+			for(int i = 0; i < line.length(); i++)
+			{
+				char c = line.charAt(i);
+				if(c == '"') quoted = !quoted;
+				else if(c == ':' && !quoted) {colon = i; break;}
+			}
+			if(colon < 0) return;
+			int semicolon = line.indexOf(';');
+			int nameEnd = semicolon >= 0 && semicolon < colon ? semicolon : colon;
+			String name = line.substring(0, nameEnd);
+			String params = line.substring(nameEnd, colon);
+			String value = line.substring(colon + 1);
+
+			if(name.equalsIgnoreCase("UID")) uid = value;
+			else if(name.equalsIgnoreCase("SUMMARY")) summary = unescape(value);
+			else if(name.equalsIgnoreCase("DESCRIPTION")) description = unescape(value);
+			else if(name.equalsIgnoreCase("DTSTART")) start = new String[] {value, params};
+			else if(name.equalsIgnoreCase("DTEND")) end = new String[] {value, params};
+			else if(name.equalsIgnoreCase("DURATION")) duration = value;
+			else if(name.equalsIgnoreCase("RRULE")) rrule = value;
+			else if(name.equalsIgnoreCase("RECURRENCE-ID")) recurrenceId = new String[] {value, params};
+			else if(name.equalsIgnoreCase("STATUS")) cancelled = value.equalsIgnoreCase("CANCELLED");
+			else if(name.equalsIgnoreCase("EXDATE"))
+			{
+				for(String exdate : value.split(",")) {exdates.add(new String[] {exdate, params});}
+			}
+		}
+
+		/**
+		 * Utility method - builds the event from the properties recorded
+		 * @return	the CalendarEvent, or null if the VEVENT is cancelled
+		 * @throws IllegalArgumentException with a description of the problem, if the VEVENT
+		 * 			cannot be read
+		 */
+		private CalendarEvent build()
+		{
+			if(cancelled) return null;
+			if(start == null) throw new IllegalArgumentException("no DTSTART");
+
+			long startMillis = time(start[0], start[1]);
+			String zoneId = gc.getTimeZone().getID();
+			boolean allDay = start[0].length() == 8;
+			int startDayOfWeek = gc.get(Calendar.DAY_OF_WEEK);
+			int startDayOfMonth = gc.get(Calendar.DAY_OF_MONTH);
+			int startMonth = gc.get(Calendar.MONTH);
+
+			long endMillis;
+			if(end != null) endMillis = time(end[0], end[1]);
+			else if(duration != null) endMillis = startMillis + duration(duration);
+			else if(allDay)
+			{
+				gc.setTimeInMillis(startMillis);
+				gc.add(Calendar.DAY_OF_MONTH, 1);
+				endMillis = gc.getTimeInMillis();
+			}
+			else endMillis = startMillis;
+			if(endMillis < startMillis) throw new IllegalArgumentException("ends before it starts");
+
+			RecurrenceRule rule = null;
+			if(rrule != null && recurrenceId == null)
+			{
+				rule = rule(rrule, start[1], startDayOfWeek, startDayOfMonth, startMonth);
+				if(!exdates.isEmpty())
+				{
+					long[] exceptions = new long[exdates.size()];
+					for(int i = 0; i < exceptions.length; i++)
+					{
+						String[] exdate = exdates.get(i);
+						exceptions[i] = time(exdate[0], exdate[1].isEmpty() ? start[1] : exdate[1]);
+					}
+					rule = rule.withExceptions(exceptions);
+				}
+			}
+			return new CalendarEvent(CalendarEvent.NO_ID, startMillis, endMillis, summary == null ? "" : summary, description, rule, zoneId, reminder);
+		} // build()
+
+		/**
+		 * Accessor method
+		 * @return	the start of the occurrence that a VEVENT with a RECURRENCE-ID changes
+		 */
+		private long recurrenceId()
+		{return time(recurrenceId[0], recurrenceId[1].isEmpty() && start != null ? start[1] : recurrenceId[1]);}
+
+		/**
+		 * Utility method - parses a DATE or DATE-TIME value. Afterwards gc is set to the time,
+		 * 						in the zone it was given in
+		 * @param value		"yyyyMMdd", "yyyyMMddTHHmmss" or "yyyyMMddTHHmmssZ"
+		 * @param params	the parameters of the property, which may name a TZID
+		 * @return			the time in epoch milliseconds
+		 */
+		private long time(String value, String params)
+		{
+			int length = value.length();
+			boolean utc = length == 16 && (value.charAt(15) == 'Z' || value.charAt(15) == 'z');
+			if(length != 8 && length != 15 && !utc || length > 8 && value.charAt(8) != 'T' && value.charAt(8) != 't')
+				throw new IllegalArgumentException("bad date or time \"" + value + "\"");
+
+			gc.setTimeZone(utc ? UTC : zone(params));
+			gc.clear();
+			gc.set(digits(value, 0, 4), digits(value, 4, 2) - 1, digits(value, 6, 2));
+			if(length > 8)
+			{
+				gc.set(Calendar.HOUR_OF_DAY, digits(value, 9, 2));
+				gc.set(Calendar.MINUTE, digits(value, 11, 2));
+				gc.set(Calendar.SECOND, digits(value, 13, 2));
+			}
+			return gc.getTimeInMillis();
+		}
+
+		/**
+		 * Utility method - finds the time zone named by a TZID parameter
+		 * @return	the zone, or the default zone if there is no TZID or Java does not know it
+		 */
+		private TimeZone zone(String params)
+		{
+			int at = indexOfIgnoreCase(params, ";TZID=");
+			if(at < 0) return TimeZone.getDefault();
+			int valueEnd = params.indexOf(';', at + 6);
+			String id = params.substring(at + 6, valueEnd < 0 ? params.length() : valueEnd).replace("\"", "");
+
+			TimeZone zone = zones.get(id);
+			if(zone == null)
+			{
+				zone = TimeZone.getTimeZone(id);
+				if(zone.getID().equals("GMT") && !id.equals("GMT")) zone = TimeZone.getDefault();	// unknown
+				zones.put(id, zone);
+			}
+			return zone;
+		}
+
+		/**
+		 * Utility method - parses a DURATION value such as "PT1H30M" or "P1D"
+		 * @return	the duration in milliseconds, a day counting as 24 hours
+		 */
+		private static long duration(String value)
+		{
+			long total = 0, number = 0;
+			boolean digits = false;
+			int i = 0;
+			if(i < value.length() && (value.charAt(i) == '+' || value.charAt(i) == '-')) i++;
+			if(i == value.length() || value.charAt(i) != 'P') throw new IllegalArgumentException("bad duration \"" + value + "\"");
+			for(i++; i < value.length(); i++)
+			{
+				char c = value.charAt(i);
+				if(c >= '0' && c <= '9') {number = number * 10 + (c - '0'); digits = true; continue;}
+				long unit;
+				switch(c)
+				{
+				case 'T': continue;
+				case 'W': unit = 7 * 24 * 3600000L; break;
+				case 'D': unit = 24 * 3600000L; break;
+				case 'H': unit = 3600000L; break;
+				case 'M': unit = 60000L; break;
+				case 'S': unit = 1000L; break;
+				default: throw new IllegalArgumentException("bad duration \"" + value + "\"");
+				}
+				if(!digits) throw new IllegalArgumentException("bad duration \"" + value + "\"");
+				total += number * unit;
+				number = 0;
+				digits = false;
+			}
+			if(value.charAt(0) == '-') throw new IllegalArgumentException("negative duration \"" + value + "\"");
+			return total;
+		}
+
+		/**
+		 * Utility method - parses an RRULE value into a RecurrenceRule
+		 * @throws IllegalArgumentException if the rule uses a part RecurrenceRule cannot express
+		 */
+		private RecurrenceRule rule(String value, String startParams, int dayOfWeek, int dayOfMonth, int month)
+		{
+			RecurrenceRule.Frequency frequency = null;
+			int interval = 1, count = 0;
+			long until = Long.MAX_VALUE;
+			for(String part : value.split(";"))
+			{
+				int equals = part.indexOf('=');
+				if(equals < 0) continue;
+				String name = part.substring(0, equals).toUpperCase();
+				String partValue = part.substring(equals + 1).toUpperCase();
+				try
+				{
+					if(name.equals("FREQ")) frequency = RecurrenceRule.Frequency.valueOf(partValue);
+					else if(name.equals("INTERVAL")) interval = Integer.parseInt(partValue);
+					else if(name.equals("COUNT")) count = Integer.parseInt(partValue);
+					else if(name.equals("UNTIL"))
+					{
+						// a date means the whole of that day, in the event's zone
+						until = time(partValue, partValue.length() == 8 ? startParams : "");
+						if(partValue.length() == 8) {gc.add(Calendar.DAY_OF_MONTH, 1); until = gc.getTimeInMillis() - 1;}
+					}
+					else if(name.equals("WKST")) continue;
+					else if(!(name.equals("BYDAY") && frequency == RecurrenceRule.Frequency.WEEKLY
+								&& partValue.equals(WEEKDAYS[dayOfWeek - 1]))
+							&& !(name.equals("BYMONTHDAY") && partValue.equals(Integer.toString(dayOfMonth)))
+							&& !(name.equals("BYMONTH") && frequency == RecurrenceRule.Frequency.YEARLY
+								&& partValue.equals(Integer.toString(month + 1))))
+						throw new IllegalArgumentException("unsupported repeat rule \"" + value + "\"");
+				}
+				catch(IllegalArgumentException e)	// including bad numbers and unknown frequencies
+				{
+					throw new IllegalArgumentException("unsupported repeat rule \"" + value + "\"");
+				}
+			}
+			if(frequency == null) throw new IllegalArgumentException("unsupported repeat rule \"" + value + "\"");
+			return new RecurrenceRule(frequency, interval, count, until);
+		} // rule()
+
+		// properties of the current VEVENT
+		private String uid;
+		private String summary;
+		private String description;
+		private String rrule;
+		private String duration;
+		private String[] start;			// value and parameters
+		private String[] end;
+		private String[] recurrenceId;
+		private final List<String[]> exdates = new ArrayList<String[]>();
+		private boolean cancelled;
+		private int reminder = CalendarEvent.NO_REMINDER;	// minutes before the start
+
+		private final GregorianCalendar gc = new GregorianCalendar();
+		private final HashMap<String, TimeZone> zones = new HashMap<String, TimeZone>();	// by TZID
+	}
+
+	/**
+	 * Utility method - parses a run of decimal digits
+	 */
+	private static int digits(String s, int from, int length)
+	{
+		int n = 0;
+		for(int i = from; i < from + length; i++)
+		{
+			char c = s.charAt(i);
+			if(c < '0' || c > '9') throw new IllegalArgumentException("bad date or time \"" + s + "\"");
+			n = n * 10 + (c - '0');
+		}
+		return n;
+	}
+
+	/**
+	 * Utility method - undoes the escaping of a TEXT value
+	 */
+	private static String unescape(String value)
+	{
+		if(value.indexOf('\\') < 0) return value;
+		StringBuilder sb = new StringBuilder(value.length());
+		for(int i = 0; i < value.length(); i++)
+		{
+			char c = value.charAt(i);
+			if(c == '\\' && i + 1 < value.length())
+			{
+				c = value.charAt(++i);
+				if(c == 'n' || c == 'N') c = '\n';
+			}
+			sb.append(c);
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Utility method - appends a TEXT value, escaped
+	 * @return	sb
+	 */
+	private static StringBuilder appendText(StringBuilder sb, String text)
+	{
+		for(int i = 0; i < text.length(); i++)
+		{
+			char c = text.charAt(i);
+			if(c == '\\' || c == ';' || c == ',') sb.append('\\').append(c);
+			else if(c == '\n') sb.append("\\n");
+			else if(c != '\r') sb.append(c);
+		}
+		return sb;
+	}
+
+	/**
+	 * Utility method - appends a DATE-TIME value
+	 * @param gc	a GregorianCalendar in the zone to write the time in
+	 * @param utc	true to mark the time as UTC (gc must then be in UTC)
+	 * @return		sb
+	 */
+	private static StringBuilder appendTime(StringBuilder sb, long millis, GregorianCalendar gc, boolean utc)
+	{
+		gc.setTimeInMillis(millis);
+		appendDigits(sb, gc.get(Calendar.YEAR), 4);
+		appendDigits(sb, gc.get(Calendar.MONTH) + 1, 2);
+		appendDigits(sb, gc.get(Calendar.DAY_OF_MONTH), 2);
+		sb.append('T');
+		appendDigits(sb, gc.get(Calendar.HOUR_OF_DAY), 2);
+		appendDigits(sb, gc.get(Calendar.MINUTE), 2);
+		appendDigits(sb, gc.get(Calendar.SECOND), 2);
+		if(utc) sb.append('Z');
+		return sb;
+	}
+
+	private static void appendDigits(StringBuilder sb, int n, int width)
+	{
+		String s = Integer.toString(n);
+		for(int i = s.length(); i < width; i++) {sb.append('0');}
+		sb.append(s);
+	}
+
+	/**
+	 * Utility method - writes a content line, folded so that no line is longer than 75
+	 * 						bytes of UTF-8, then empties sb for the next one
+	 */
+	private static void writeLine(Writer out, StringBuilder sb) throws IOException
+	{
+		int lineBytes = 0, from = 0;
+		for(int i = 0; i < sb.length(); i++)
+		{
+			char c = sb.charAt(i);
+			if(Character.isLowSurrogate(c)) continue;	// counted with its high surrogate
+			int bytes = c < 0x80 ? 1 : c < 0x800 ? 2 : Character.isHighSurrogate(c) ? 4 : 3;
+			if(lineBytes + bytes > MAX_LINE_BYTES)
+			{
+				out.append(sb, from, i).append("\r\n ");
+				from = i;
+				lineBytes = 1;
+			}
+			lineBytes += bytes;
+		}
+		out.append(sb, from, sb.length()).append("\r\n");
+		sb.setLength(0);
+	}
+
+	private static boolean startsWithIgnoreCase(String s, String prefix)
+	{return s.regionMatches(true, 0, prefix, 0, prefix.length());}
+
+	private static int indexOfIgnoreCase(String s, String target)
+	{
+		for(int i = 0; i + target.length() <= s.length(); i++)
+		{
+			if(s.regionMatches(true, i, target, 0, target.length())) return i;
+		}
+		return -1;
+	}
+
+	private static final int CHUNK_EVENTS = 4096;		// VEVENTs parsed per task
+	private static final int LOAD_EVENTS = 65536;		// events passed to the Loader at once
+	private static final int MAX_LINE_BYTES = 75;
+	private static final String PRODUCT_ID = "-//SimpleCalendar//SimpleCalendar//EN";
+	private static final String UID_SUFFIX = "@simplecalendar";
+	private static final String[] WEEKDAYS = {"SU", "MO", "TU", "WE", "TH", "FR", "SA"};
+	private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+}
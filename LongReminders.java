@@ -0,0 +1,167 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * The single events of one calendar whose reminders are due more than SHORT_LEAD before they
+ * 		start, ordered by the time their reminders are due. The reminders due within a span
+ * 		of time are otherwise found from the events starting just after it (see
+ * 		CalendarSnapshot.getRemindersDueIn()), and without this collection that would mean
+ * 		reading every event starting in the following MAX_REMINDER_MINUTES, in case one of
+ * 		them has a reminder that long.
+ *
+ * Few events have such reminders, so they are kept in a sorted array, which is copied on each
+ * 		change. The collection is immutable: with() and without() return a new one, so it can
+ * 		be shared by snapshots and read from any thread.
+ *
+ * @author Iain Davis
+ */
+final class LongReminders {
+	private LongReminders(CalendarEvent[] events_in)
+	{events = events_in;}
+
+	/**
+	 * Boolean utility method - checks whether an event belongs in this collection
+	 * @param ce_in		the CalendarEvent
+	 * @return			true if ce_in is a single event whose reminder is due more than
+	 * 						SHORT_LEAD before it starts
+	 * 					false otherwise
+	 */
+	static boolean isLong(CalendarEvent ce_in)
+	{return !ce_in.isRecurring() && ce_in.hasReminder() && ce_in.getReminderMinutes() * MINUTE > SHORT_LEAD;}
+
+	/**
+	 * Mutator method - adds an event, if it has a long reminder
+	 * @param ce_in		the CalendarEvent
+	 * @return			a new collection holding this one's events plus ce_in (this collection
+	 * 						itself if ce_in has no long reminder)
+	 */
+	LongReminders with(CalendarEvent ce_in)
+	{
+		if(!isLong(ce_in)) return this;
+
+		int i = insertionPoint(ce_in);
+		CalendarEvent[] newEvents = new CalendarEvent[events.length + 1];
+		System.arraycopy(events, 0, newEvents, 0, i);
+		newEvents[i] = ce_in;
+		System.arraycopy(events, i, newEvents, i + 1, events.length - i);
+		return new LongReminders(newEvents);
+	}
+
+	/**
+	 * Mutator method - adds those of many events that have long reminders
+	 * @param events_in		the CalendarEvents, in any order
+	 * @return				a new collection holding this one's events plus those of events_in
+	 * 							with long reminders (this collection itself if there are none)
+	 */
+	LongReminders withAll(List<CalendarEvent> events_in)
+	{
+		List<CalendarEvent> added = new ArrayList<CalendarEvent>();
+		for(CalendarEvent ce : events_in)
+		{
+			if(isLong(ce)) added.add(ce);
+		}
+		if(added.isEmpty()) return this;
+
+		CalendarEvent[] newEvents = Arrays.copyOf(events, events.length + added.size());
+		for(int i = 0; i < added.size(); i++) {newEvents[events.length + i] = added.get(i);}
+		Arrays.sort(newEvents, ORDER);
+		return new LongReminders(newEvents);
+	}
+
+	/**
+	 * Mutator method - removes an event
+	 * @param ce_in		the CalendarEvent, as it was added
+	 * @return			a new collection holding this one's events less ce_in (this collection
+	 * 						itself if ce_in was not in it)
+	 */
+	LongReminders without(CalendarEvent ce_in)
+	{
+		if(!isLong(ce_in)) return this;
+
+		int i = Arrays.binarySearch(events, ce_in, ORDER);
+		if(i < 0) return this;
+		if(events.length == 1) return EMPTY;
+
+		CalendarEvent[] newEvents = new CalendarEvent[events.length - 1];
+		System.arraycopy(events, 0, newEvents, 0, i);
+		System.arraycopy(events, i + 1, newEvents, i, events.length - i - 1);
+		return new LongReminders(newEvents);
+	}
+
+	/**
+	 * Mutator method - removes the events that start within a span of time (for a page being
+	 * 					dropped from memory)
+	 * @param start		the start of the span in epoch milliseconds (inclusive)
+	 * @param end		the end of the span in epoch milliseconds (exclusive)
+	 * @return			a new collection holding the rest of this one's events (this collection
+	 * 						itself if none start in the span)
+	 */
+	LongReminders withoutStartingIn(long start, long end)
+	{
+		List<CalendarEvent> kept = new ArrayList<CalendarEvent>(events.length);
+		for(CalendarEvent ce : events)
+		{
+			if(ce.getStartMillis() < start || ce.getStartMillis() >= end) kept.add(ce);
+		}
+		if(kept.size() == events.length) return this;
+		return kept.isEmpty() ? EMPTY : new LongReminders(kept.toArray(new CalendarEvent[kept.size()]));
+	}
+
+	/**
+	 * Accessor method - finds the events whose reminders are due within [start, end)
+	 * @param start		the start of the span in epoch milliseconds (inclusive)
+	 * @param end		the end of the span in epoch milliseconds (exclusive)
+	 * @return			a new List of the events, ordered by the time their reminders are due
+	 */
+	List<CalendarEvent> findDueIn(long start, long end)
+	{
+		List<CalendarEvent> result = new ArrayList<CalendarEvent>();
+		for(int i = lowerBound(start); i < events.length && events[i].getReminderMillis() < end; i++)
+		{
+			result.add(events[i]);
+		}
+		return result;
+	}
+
+	/**
+	 * Utility method - binary search for the first event whose reminder is due at or after a
+	 * 						time
+	 */
+	private int lowerBound(long millis)
+	{
+		int low = 0, high = events.length;
+		while(low < high)
+		{
+			int mid = (low + high) >>> 1;
+			if(events[mid].getReminderMillis() < millis) low = mid + 1;
+			else high = mid;
+		}
+		return low;
+	}
+
+	/**
+	 * Utility method - gets the position at which an event not in the collection belongs
+	 */
+	private int insertionPoint(CalendarEvent ce_in)
+	{
+		int i = Arrays.binarySearch(events, ce_in, ORDER);
+		return i < 0 ? -i - 1 : i;
+	}
+
+	static final long SHORT_LEAD = 60 * 60 * 1000;	// reminders this far ahead or less are not kept here
+	static final LongReminders EMPTY = new LongReminders(new CalendarEvent[0]);
+	private static final long MINUTE = 60 * 1000;
+	private static final Comparator<CalendarEvent> ORDER = new
+			Comparator<CalendarEvent>()
+			{@Override
+				public int compare(CalendarEvent thisOne, CalendarEvent thatOne)
+				{
+					int result = Long.compare(thisOne.getReminderMillis(), thatOne.getReminderMillis());
+					return result != 0 ? result : Long.compare(thisOne.getId(), thatOne.getId());
+				}
+			};
+
+	private final CalendarEvent[] events;
+}
@@ -0,0 +1,274 @@
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.TimeZone;
+
+/**
+ * Describes how an event repeats: every interval days, weeks, months or years from its first
+ * 		occurrence, optionally stopping after a number of occurrences or at a date, and
+ * 		optionally skipping individual occurrences (exceptions).
+ *
+ * Occurrences keep the local time of day of the first one in the event's time zone, across
+ * 		daylight saving changes, wherever the calendar is opened. They are computed with GregorianCalendar.add() counting from the first occurrence, so
+ * 		an event repeating monthly on the 31st falls on the last day of shorter months.
+ *
+ * Rules are immutable; withException() returns a new rule.
+ *
+ * @author Iain Davis
+ */
+public final class RecurrenceRule {
+	/**
+	 * Constructor
+	 * @param frequency_in	the unit of repetition
+	 * @param interval_in	how many units apart occurrences are (1 for every unit)
+	 * @param count_in		the number of occurrences, counting any exceptions (0 for no limit)
+	 * @param until_in		the latest time an occurrence may start, in epoch milliseconds
+	 * 							(Long.MAX_VALUE for no limit)
+	 * @throws IllegalArgumentException if frequency_in is null, interval_in is not positive or
+	 * 							count_in is negative
+	 */
+	public RecurrenceRule(Frequency frequency_in, int interval_in, int count_in, long until_in)
+	{
+		this(frequency_in, interval_in, count_in, until_in, NO_TIMES);
+	}
+
+	private RecurrenceRule(Frequency frequency_in, int interval_in, int count_in, long until_in, long[] exceptions_in)
+	{
+		if(frequency_in == null || interval_in < 1 || count_in < 0)
+			throw new IllegalArgumentException("bad recurrence: " + frequency_in + " every " + interval_in + ", count " + count_in);
+		frequency = frequency_in;
+		interval = interval_in;
+		count = count_in;
+		until = until_in;
+		exceptions = exceptions_in;
+	}
+
+	/**
+	 * The unit of repetition, with the Calendar field used to step between occurrences
+	 */
+	public enum Frequency
+	{
+		DAILY(Calendar.DAY_OF_MONTH, DAY),
+		WEEKLY(Calendar.WEEK_OF_YEAR, 7 * DAY),
+		MONTHLY(Calendar.MONTH, 2629746000L),		// the average Gregorian month
+		YEARLY(Calendar.YEAR, 31556952000L);		// the average Gregorian year
+
+		private Frequency(int field_in, long averageMillis_in)
+		{
+			field = field_in;
+			averageMillis = averageMillis_in;
+		}
+
+		private final int field;
+		private final long averageMillis;
+	}
+
+	/**
+	 * Accessor method
+	 * @return	the unit of repetition
+	 */
+	public Frequency getFrequency()
+	{return frequency;}
+
+	/**
+	 * Accessor method
+	 * @return	how many units apart occurrences are
+	 */
+	public int getInterval()
+	{return interval;}
+
+	/**
+	 * Accessor method
+	 * @return	the number of occurrences, or 0 if there is no limit
+	 */
+	public int getCount()
+	{return count;}
+
+	/**
+	 * Accessor method
+	 * @return	the latest time an occurrence may start, or Long.MAX_VALUE if there is no limit
+	 */
+	public long getUntil()
+	{return until;}
+
+	/**
+	 * Accessor method
+	 * @return	a new array of the start times of skipped occurrences, in ascending order
+	 */
+	public long[] getExceptions()
+	{return exceptions.clone();}
+
+	/**
+	 * Boolean accessor method
+	 * @return	true if the event repeats for ever
+	 * 			false if it stops after a number of occurrences or at a date
+	 */
+	public boolean isUnbounded()
+	{return count == 0 && until == Long.MAX_VALUE;}
+
+	/**
+	 * Utility method - describes the rule, e.g. "every 2 weeks, 10 times"
+	 * @return	a String describing this rule
+	 */
+	public String toString()
+	{
+		String unit = frequency.name().toLowerCase();
+		StringBuffer sb = new StringBuffer();
+		if(interval == 1) sb.append(unit);
+		else sb.append("every " + interval + " " + (frequency == Frequency.DAILY ? "days" : unit.replace("ly", "s")));
+		if(count > 0) sb.append(", " + count + " times");
+		if(until != Long.MAX_VALUE)
+		{
+			GregorianCalendar gc = new GregorianCalendar();
+			gc.setTimeInMillis(until);
+			sb.append(", until " + CalendarModel.getFormattedDate(gc));
+		}
+		if(exceptions.length > 0) sb.append(" (" + exceptions.length + " skipped)");
+		return sb.toString();
+	}
+
+	/**
+	 * Utility method - derives a rule that also skips one occurrence
+	 * @param occurrenceStart	the start time of the occurrence to skip
+	 * @return					a new RecurrenceRule (this rule if the occurrence is already skipped)
+	 */
+	public RecurrenceRule withException(long occurrenceStart)
+	{
+		int index = Arrays.binarySearch(exceptions, occurrenceStart);
+		if(index >= 0) return this;
+
+		int insertAt = -index - 1;
+		long[] newExceptions = new long[exceptions.length + 1];
+		System.arraycopy(exceptions, 0, newExceptions, 0, insertAt);
+		newExceptions[insertAt] = occurrenceStart;
+		System.arraycopy(exceptions, insertAt, newExceptions, insertAt + 1, exceptions.length - insertAt);
+		return new RecurrenceRule(frequency, interval, count, until, newExceptions);
+	}
+
+	/**
+	 * Utility method - derives a rule that skips the given occurrences. Used when reading a
+	 * 						rule back from disk
+	 * @param exceptions_in		the start times of the occurrences to skip
+	 * @return					a new RecurrenceRule
+	 */
+	RecurrenceRule withExceptions(long[] exceptions_in)
+	{
+		long[] sorted = exceptions_in.clone();
+		Arrays.sort(sorted);
+		return new RecurrenceRule(frequency, interval, count, until, sorted);
+	}
+
+	/**
+	 * Accessor method - works out where the occurrences end
+	 * @param firstStart	the start time of the first occurrence
+	 * @param zone			the time zone the event repeats in
+	 * @return				the start time of the last occurrence (which may be an exception),
+	 * 							or Long.MAX_VALUE if the event repeats for ever
+	 */
+	long getLastStart(long firstStart, TimeZone zone)
+	{
+		if(isUnbounded()) return Long.MAX_VALUE;
+
+		GregorianCalendar gc = new GregorianCalendar(zone);
+		long last = Long.MAX_VALUE;
+		if(count > 0) last = startOf(firstStart, count - 1, gc);
+		if(until < last)
+		{
+			// the last occurrence at or before until: estimate its index, then correct
+			long n = firstIndexAtOrAfter(firstStart, until, gc);
+			long start = startOf(firstStart, n, gc);
+			if(start > until) start = n == 0 ? firstStart : startOf(firstStart, n - 1, gc);
+			last = start;
+		}
+		return last;
+	}
+
+	/**
+	 * Accessor method - expands the rule over a span of time
+	 * @param firstStart	the start time of the first occurrence
+	 * @param from			the start of the span in epoch milliseconds (inclusive)
+	 * @param to			the end of the span in epoch milliseconds (exclusive)
+	 * @param zone			the time zone the event repeats in
+	 * @return				the start times of the occurrences (less exceptions) starting in
+	 * 							[from, to), in ascending order. At most MAX_EXPANSION are
+	 * 							returned, so that an unbounded span cannot run away
+	 */
+	long[] getStartsBetween(long firstStart, long from, long to, TimeZone zone)
+	{
+		if(to <= firstStart || to <= from) return NO_TIMES;
+
+		GregorianCalendar gc = new GregorianCalendar(zone);
+		long n = from <= firstStart ? 0 : firstIndexAtOrAfter(firstStart, from, gc);
+		long[] result = new long[16];
+		int size = 0;
+		while((count == 0 || n < count) && size < MAX_EXPANSION)
+		{
+			long start = startOf(firstStart, n++, gc);
+			if(start >= to || start > until) break;
+			if(Arrays.binarySearch(exceptions, start) >= 0) continue;
+
+			if(size == result.length) result = Arrays.copyOf(result, size * 2);
+			result[size++] = start;
+		}
+		return Arrays.copyOf(result, size);
+	}
+
+	/**
+	 * Accessor method - finds the next occurrence from a time, however far away it is
+	 * @param firstStart	the start time of the first occurrence
+	 * @param from			the time to search from, in epoch milliseconds (inclusive)
+	 * @param zone			the time zone the event repeats in
+	 * @return				the start time of the first occurrence (less exceptions) starting
+	 * 							at or after from, or Long.MAX_VALUE if there is none
+	 */
+	long getNextStart(long firstStart, long from, TimeZone zone)
+	{
+		GregorianCalendar gc = new GregorianCalendar(zone);
+		long n = from <= firstStart ? 0 : firstIndexAtOrAfter(firstStart, from, gc);
+		while(count == 0 || n < count)
+		{
+			long start = startOf(firstStart, n++, gc);
+			if(start > until || start == Long.MAX_VALUE) break;
+			if(Arrays.binarySearch(exceptions, start) < 0) return start;
+		}
+		return Long.MAX_VALUE;
+	}
+
+	/**
+	 * Utility method - finds the index of the first occurrence starting at or after a time,
+	 * 						by estimating it from the average length of the unit and then
+	 * 						stepping to the exact one
+	 */
+	private long firstIndexAtOrAfter(long firstStart, long millis, GregorianCalendar gc)
+	{
+		long n = Math.max(0, (millis - firstStart) / (frequency.averageMillis * interval));
+		while(n > 0 && startOf(firstStart, n - 1, gc) >= millis) {n--;}
+		while(startOf(firstStart, n, gc) < millis) {n++;}
+		return n;
+	}
+
+	/**
+	 * Utility method - gets the start time of the occurrence with the given index (counting
+	 * 						skipped occurrences), or Long.MAX_VALUE if it lies beyond the
+	 * 						range of a Calendar field
+	 */
+	private long startOf(long firstStart, long n, GregorianCalendar gc)
+	{
+		long amount = n * interval;
+		if(amount > Integer.MAX_VALUE) return Long.MAX_VALUE;
+
+		gc.setTimeInMillis(firstStart);
+		gc.add(frequency.field, (int) amount);
+		return gc.getTimeInMillis();
+	}
+
+	private static final long DAY = 24 * 60 * 60 * 1000;
+	private static final long[] NO_TIMES = new long[0];
+	private static final int MAX_EXPANSION = 1 << 20;	// occurrences returned by one expansion
+
+	private final Frequency frequency;
+	private final int interval;
+	private final int count;
+	private final long until;
+	private final long[] exceptions;	// start times of skipped occurrences, ascending
+}
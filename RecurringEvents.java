@@ -0,0 +1,444 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.GregorianCalendar;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The repeating events of one calendar. Each repeating event is stored once, with its
+ * 		RecurrenceRule; its occurrences are only worked out for the span of time a query asks
+ * 		about. Occurrences are expanded a calendar month at a time and the most recently used
+ * 		months are cached, so the views, which keep asking about the days of the same few
+ * 		months, do not expand the same occurrences again and again.
+ *
+ * The collection is immutable apart from its cache: with() and without() return a new one
+ * 		(with an empty cache), so it can be shared by snapshots and read from any thread.
+ *
+ * Months are determined by occurrence start time in the default time zone.
+ *
+ * @author Iain Davis
+ */
+final class RecurringEvents {
+	private RecurringEvents(CalendarEvent[] series_in)
+	{
+		series = series_in;
+		lastStarts = new long[series.length];
+		long longest = 0, latestEnd = Long.MIN_VALUE, lead = 0;
+		for(int i = 0; i < series.length; i++)
+		{
+			CalendarEvent ce = series[i];
+			lastStarts[i] = ce.getRecurrence().getLastStart(ce.getStartMillis(), ce.getZoneOffsets().getTimeZone());
+			longest = Math.max(longest, ce.getEndMillis() - ce.getStartMillis());
+			if(lastStarts[i] != Long.MAX_VALUE) latestEnd = Math.max(latestEnd, ce.getSeriesEndMillis());
+			if(ce.hasReminder()) lead = Math.max(lead, ce.getReminderMinutes() * MILLIS_PER_MINUTE);
+		}
+		maxDuration = longest;
+		latestBoundedEnd = latestEnd;
+		longestLead = lead;
+	}
+
+	/**
+	 * Accessor method
+	 * @return	the number of repeating events (not occurrences)
+	 */
+	int size()
+	{return series.length;}
+
+	/**
+	 * Accessor method
+	 * @return	an unmodifiable List of the repeating events, ordered by first start time
+	 */
+	List<CalendarEvent> getSeries()
+	{return Collections.unmodifiableList(Arrays.asList(series));}
+
+	/**
+	 * Accessor method - finds a repeating event by the start time of its first occurrence
+	 * @param start		the start time in epoch milliseconds
+	 * @return			the repeating event, or null if there is none
+	 */
+	CalendarEvent findByStart(long start)
+	{
+		int i = indexOf(start);
+		return i < series.length && series[i].getStartMillis() == start ? series[i] : null;
+	}
+
+	/**
+	 * Accessor method
+	 * @return	the end of the last occurrence of any repeating event that stops, or
+	 * 				Long.MIN_VALUE if none do
+	 */
+	long getLatestBoundedEnd()
+	{return latestBoundedEnd;}
+
+	/**
+	 * Accessor method
+	 * @return	how long before its start the earliest reminder of any repeating event is due,
+	 * 				in milliseconds (0 if none has a reminder)
+	 */
+	long getLongestReminderLead()
+	{return longestLead;}
+
+	/**
+	 * Mutator method - adds a repeating event
+	 * @param ce_in		the repeating CalendarEvent
+	 * @return			a new collection holding this one's events plus ce_in
+	 * @precondition	no repeating event with the id of ce_in is in this collection
+	 */
+	RecurringEvents with(CalendarEvent ce_in)
+	{
+		int i = -Arrays.binarySearch(series, ce_in, ORDER) - 1;
+		CalendarEvent[] newSeries = new CalendarEvent[series.length + 1];
+		System.arraycopy(series, 0, newSeries, 0, i);
+		newSeries[i] = ce_in;
+		System.arraycopy(series, i, newSeries, i + 1, series.length - i);
+		return new RecurringEvents(newSeries);
+	}
+
+	/**
+	 * Mutator method - removes a repeating event
+	 * @param ce_in		the repeating CalendarEvent (matched by id)
+	 * @return			a new collection holding this one's events less ce_in (this collection
+	 * 						itself if ce_in was not in it)
+	 */
+	RecurringEvents without(CalendarEvent ce_in)
+	{
+		for(int i = 0; i < series.length; i++)
+		{
+			if(series[i].getId() != ce_in.getId()) continue;
+			if(series.length == 1) return EMPTY;
+
+			CalendarEvent[] newSeries = new CalendarEvent[series.length - 1];
+			System.arraycopy(series, 0, newSeries, 0, i);
+			System.arraycopy(series, i + 1, newSeries, i, series.length - i - 1);
+			return new RecurringEvents(newSeries);
+		}
+		return this;
+	}
+
+	/**
+	 * Accessor method - finds every occurrence that starts within [start, end)
+	 * @param start		the start of the query span in epoch milliseconds (inclusive)
+	 * @param end		the end of the query span in epoch milliseconds (exclusive)
+	 * @return			a new List of the occurrences, ordered by start time
+	 */
+	List<CalendarEvent> findStartingIn(long start, long end)
+	{
+		List<CalendarEvent> result = new ArrayList<CalendarEvent>();
+		if(series.length == 0 || start >= end) return result;
+
+		GregorianCalendar gc = new GregorianCalendar();
+		int first = monthKey(start, gc);
+		int last = monthKey(end - 1, gc);
+		if(last - first >= MONTH_CACHE_SIZE) return expand(start, end);	// too long a span to cache
+
+		for(int key = first; key <= last; key++)
+		{
+			for(CalendarEvent ce : getMonth(key, gc))
+			{
+				if(ce.getStartMillis() >= start && ce.getStartMillis() < end) result.add(ce);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Accessor method - finds every occurrence whose time-span overlaps [start, end)
+	 * @param start		the start of the query span in epoch milliseconds (inclusive)
+	 * @param end		the end of the query span in epoch milliseconds (exclusive)
+	 * @return			a new List of the occurrences, ordered by start time
+	 */
+	List<CalendarEvent> findOverlapping(long start, long end)
+	{
+		List<CalendarEvent> result = new ArrayList<CalendarEvent>();
+		for(CalendarEvent ce : findStartingIn(earlier(start, maxDuration), end))
+		{
+			if(start < ce.getEndMillis()) result.add(ce);
+		}
+		return result;
+	}
+
+	/**
+	 * Accessor method - finds every occurrence that touches [start, end) (see
+	 * 						EventIntervalTree.findTouching())
+	 * @param start		the start of the query span in epoch milliseconds (inclusive)
+	 * @param end		the end of the query span in epoch milliseconds (exclusive)
+	 * @return			a new List of the occurrences, ordered by start time
+	 */
+	List<CalendarEvent> findTouching(long start, long end)
+	{
+		List<CalendarEvent> result = new ArrayList<CalendarEvent>();
+		for(CalendarEvent ce : findStartingIn(earlier(start, maxDuration), end))
+		{
+			if(start < ce.getEndMillis() || ce.getStartMillis() >= start) result.add(ce);
+		}
+		return result;
+	}
+
+	/**
+	 * Accessor method - finds every occurrence that conflicts with the given time-span (see
+	 * 						EventIntervalTree.findConflicts())
+	 * @param start		the start of the time-span in epoch milliseconds
+	 * @param end		the end of the time-span in epoch milliseconds
+	 * @return			a new List of the conflicting occurrences, ordered by start time
+	 */
+	List<CalendarEvent> findConflicts(long start, long end)
+	{
+		List<CalendarEvent> result = new ArrayList<CalendarEvent>();
+		long minuteStart = Math.floorDiv(start, MILLIS_PER_MINUTE) * MILLIS_PER_MINUTE;
+		long minuteEnd = minuteStart + MILLIS_PER_MINUTE;
+		for(CalendarEvent ce : findStartingIn(Math.min(minuteStart, earlier(start, maxDuration)), Math.max(end, minuteEnd)))
+		{
+			boolean sameMinute = ce.getStartMillis() >= minuteStart && ce.getStartMillis() < minuteEnd;
+			boolean overlaps = ce.getStartMillis() < end && start < ce.getEndMillis();
+			if(sameMinute || overlaps) result.add(ce);
+		}
+		return result;
+	}
+
+	/**
+	 * Accessor method - adds the occurrences on each day of a month grid (see
+	 * 						DayOccupancyIndex.getMonthGrid()) to the counts in arrays. An
+	 * 						occurrence lasting several days counts on each of them
+	 * @param year		the year of the month being displayed
+	 * @param month		the month being displayed (0-11)
+	 * @param zone		the offset table of the time zone the month is displayed in
+	 * @param grid		an array of DayOccupancyIndex.GRID_DAYS counts of the occurrences
+	 * 						on each day, to add to (or null)
+	 * @param carried	an array of DayOccupancyIndex.GRID_DAYS + 1 counts of the occurrences
+	 * 						carried over into each day from the day before, to add to (or null)
+	 */
+	void addMonthGrid(int year, int month, ZoneOffsets zone, int[] grid, int[] carried)
+	{
+		if(series.length == 0) return;
+
+		// the first instant of each day of the grid and of the day after it, and the end of that
+		GregorianCalendar walker = new GregorianCalendar(zone.getTimeZone());
+		walker.clear();
+		walker.set(year, month, 1);
+		walker.add(Calendar.DAY_OF_MONTH, Calendar.SUNDAY - walker.get(Calendar.DAY_OF_WEEK));
+		long[] dayStarts = new long[DayOccupancyIndex.GRID_DAYS + 2];
+		for(int i = 0; i < dayStarts.length; i++)
+		{
+			dayStarts[i] = walker.getTimeInMillis();
+			walker.add(Calendar.DAY_OF_MONTH, 1);
+		}
+
+		for(CalendarEvent ce : findTouching(dayStarts[0], dayStarts[dayStarts.length - 1]))
+		{
+			int first = dayOf(ce.getStartMillis(), dayStarts);
+			int last = dayOf(Math.max(ce.getStartMillis(), ce.getEndMillis() - 1), dayStarts);
+			for(int day = Math.max(first, 0); day <= last; day++)
+			{
+				if(grid != null && day < grid.length) grid[day]++;
+				if(carried != null && day > first) carried[day]++;
+			}
+		}
+	}
+
+	/**
+	 * Utility method - builds the occurrences of one repeating event that start in a span
+	 * @param ce_in		the repeating CalendarEvent
+	 * @param start		the start of the span in epoch milliseconds (inclusive)
+	 * @param end		the end of the span in epoch milliseconds (exclusive)
+	 * @return			a new List of the occurrences, ordered by start time
+	 */
+	static List<CalendarEvent> occurrences(CalendarEvent ce_in, long start, long end)
+	{
+		long[] starts = ce_in.getRecurrence().getStartsBetween(ce_in.getStartMillis(), start, end,
+				ce_in.getZoneOffsets().getTimeZone());
+		List<CalendarEvent> result = new ArrayList<CalendarEvent>(starts.length);
+		for(long occurrenceStart : starts) {result.add(ce_in.occurrenceAt(occurrenceStart));}
+		return result;
+	}
+
+	/**
+	 * Utility method - finds the events of a calendar, single or repeating, that conflict with
+	 * 						a proposed event. A proposed repeating event is checked occurrence by
+	 * 						occurrence up to its last occurrence; if it repeats for ever, up to
+	 * 						CONFLICT_HORIZON past its start or the end of the calendar's last
+	 * 						event that does not, whichever is later
+	 * @param events	the calendar's single events
+	 * @param recurring	the calendar's repeating events
+	 * @param ce_in		the proposed CalendarEvent
+	 * @return			a new List of the conflicting events and occurrences, ordered by start
+	 * 						time
+	 */
+	static List<CalendarEvent> findConflicts(EventIntervalTree events, RecurringEvents recurring, CalendarEvent ce_in)
+	{
+		long start = ce_in.getStartMillis(), end = ce_in.getEndMillis();
+		if(!ce_in.isRecurring())
+		{
+			List<CalendarEvent> single = events.findConflicts(start, end);
+			if(recurring.series.length == 0) return single;
+			return EventMerge.merge(Arrays.asList(single, recurring.findConflicts(start, end)));
+		}
+
+		long horizon = ce_in.getSeriesEndMillis();
+		if(horizon == Long.MAX_VALUE)
+		{
+			horizon = Math.max(start + CONFLICT_HORIZON, events.getLatestEnd());
+			horizon = Math.max(horizon, recurring.getLatestBoundedEnd());
+		}
+		List<CalendarEvent> proposed = occurrences(ce_in, start, horizon + 1);
+
+		// everything that could conflict with any occurrence, then a single sweep over both
+		long from = start - MILLIS_PER_MINUTE, to = horizon + MILLIS_PER_MINUTE;
+		List<CalendarEvent> existing = events.findOverlapping(from, to);
+		if(recurring.series.length > 0)
+			existing = EventMerge.merge(Arrays.asList(existing, recurring.findOverlapping(from, to)));
+		return sweepConflicts(proposed, existing);
+	}
+
+	/**
+	 * Utility method - finds the events in one list that conflict with any in another, by
+	 * 						walking both in start-time order. Only events of existing that
+	 * 						start within the longest duration before an occurrence (or in its
+	 * 						minute) are examined for it
+	 * @param proposed	the proposed occurrences, in start-time order
+	 * @param existing	the existing events, in start-time order
+	 * @return			a List of the events of existing that conflict, in start-time order
+	 */
+	private static List<CalendarEvent> sweepConflicts(List<CalendarEvent> proposed, List<CalendarEvent> existing)
+	{
+		long longest = 0;
+		for(CalendarEvent ce : existing) {longest = Math.max(longest, ce.getEndMillis() - ce.getStartMillis());}
+
+		List<CalendarEvent> result = new ArrayList<CalendarEvent>();
+		IdentityHashMap<CalendarEvent, Boolean> found = new IdentityHashMap<CalendarEvent, Boolean>();
+		int first = 0;
+		for(CalendarEvent p : proposed)
+		{
+			long minuteStart = Math.floorDiv(p.getStartMillis(), MILLIS_PER_MINUTE) * MILLIS_PER_MINUTE;
+			long minuteEnd = minuteStart + MILLIS_PER_MINUTE;
+			long from = Math.min(minuteStart, earlier(p.getStartMillis(), longest));
+			long to = Math.max(p.getEndMillis(), minuteEnd);
+
+			while(first < existing.size() && existing.get(first).getStartMillis() < from) {first++;}
+			for(int i = first; i < existing.size() && existing.get(i).getStartMillis() < to; i++)
+			{
+				CalendarEvent e = existing.get(i);
+				boolean sameMinute = e.getStartMillis() >= minuteStart && e.getStartMillis() < minuteEnd;
+				boolean overlaps = e.getStartMillis() < p.getEndMillis() && p.getStartMillis() < e.getEndMillis();
+				if((sameMinute || overlaps) && found.put(e, Boolean.TRUE) == null) result.add(e);
+			}
+		}
+		Collections.sort(result, CalendarEvent.getComparator(CalendarEvent.Field.EVENT_START));
+		return result;
+	}
+
+	/**
+	 * Utility method - gets the occurrences starting in one month, from the cache if possible
+	 */
+	private List<CalendarEvent> getMonth(int key, GregorianCalendar gc)
+	{
+		synchronized(monthCache)
+		{
+			List<CalendarEvent> cached = monthCache.get(key);
+			if(cached != null) return cached;
+		}
+
+		// expanded outside the lock; two threads may both expand a month, with the same result
+		List<CalendarEvent> expanded = Collections.unmodifiableList(expand(monthStart(key, gc), monthStart(key + 1, gc)));
+		synchronized(monthCache) {monthCache.put(key, expanded);}
+		return expanded;
+	}
+
+	/**
+	 * Utility method - builds the occurrences of every repeating event starting in a span
+	 * @return	a new List of the occurrences, ordered by start time
+	 */
+	private List<CalendarEvent> expand(long start, long end)
+	{
+		List<CalendarEvent> result = new ArrayList<CalendarEvent>();
+		int contributors = 0;
+		for(int i = 0; i < series.length && series[i].getStartMillis() < end; i++)
+		{
+			if(lastStarts[i] < start) continue;
+			int before = result.size();
+			result.addAll(occurrences(series[i], start, end));
+			if(result.size() > before) contributors++;
+		}
+		if(contributors > 1) Collections.sort(result, CalendarEvent.getComparator(CalendarEvent.Field.EVENT_START));
+		return result;
+	}
+
+	/**
+	 * Utility method - binary search for the first repeating event starting at or after a time
+	 */
+	private int indexOf(long start)
+	{
+		int low = 0, high = series.length;
+		while(low < high)
+		{
+			int mid = (low + high) >>> 1;
+			if(series[mid].getStartMillis() < start) low = mid + 1;
+			else high = mid;
+		}
+		return low;
+	}
+
+	/**
+	 * Utility method - finds the day containing a time, given the first instant of each day
+	 * @return	the index of the day, -1 if the time is before the first day, or the index of
+	 * 				the last day if it is after that
+	 */
+	private static int dayOf(long millis, long[] dayStarts)
+	{
+		int i = Arrays.binarySearch(dayStarts, millis);
+		if(i < 0) i = -i - 2;
+		return Math.min(i, dayStarts.length - 2);
+	}
+
+	/**
+	 * Utility method - subtracts a duration from a time without running past Long.MIN_VALUE
+	 */
+	private static long earlier(long millis, long duration)
+	{return millis - duration > millis ? Long.MIN_VALUE : millis - duration;}
+
+	/**
+	 * Utility method - gets the month key (year * 12 + month) for a time
+	 */
+	private static int monthKey(long millis, GregorianCalendar gc)
+	{
+		gc.setTimeInMillis(millis);
+		return gc.get(Calendar.YEAR) * 12 + gc.get(Calendar.MONTH);
+	}
+
+	/**
+	 * Utility method - gets the first instant of the month with the given key
+	 */
+	private static long monthStart(int key, GregorianCalendar gc)
+	{
+		gc.clear();
+		gc.set(Math.floorDiv(key, 12), Math.floorMod(key, 12), 1);
+		return gc.getTimeInMillis();
+	}
+
+	static final RecurringEvents EMPTY = new RecurringEvents(new CalendarEvent[0]);
+	private static final int MONTH_CACHE_SIZE = 24;		// months of occurrences kept expanded
+	private static final long CONFLICT_HORIZON = 10L * 366 * 24 * 60 * 60 * 1000;	// about ten years
+	private static final long MILLIS_PER_MINUTE = 60 * 1000;
+	private static final Comparator<CalendarEvent> ORDER = CalendarEvent.getComparator(CalendarEvent.Field.EVENT_START);
+
+	private final CalendarEvent[] series;	// ordered by first start time, then id
+	private final long[] lastStarts;		// start of each one's last occurrence (Long.MAX_VALUE if none)
+	private final long maxDuration;			// longest duration of any occurrence
+	private final long latestBoundedEnd;
+	private final long longestLead;			// longest reminder of any repeating event
+
+	// occurrences by month key, least recently used first
+	private final LinkedHashMap<Integer, List<CalendarEvent>> monthCache = new
+			LinkedHashMap<Integer, List<CalendarEvent>>(MONTH_CACHE_SIZE * 2, 0.75f, true)
+			{
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<Integer, List<CalendarEvent>> eldest)
+				{return size() > MONTH_CACHE_SIZE;}
+
+				private static final long serialVersionUID = 1L;
+			};
+}
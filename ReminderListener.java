@@ -0,0 +1,17 @@
+import java.util.EventListener;
+
+/**
+ * Listener interface for objects that want to be told when the reminder of an event is due
+ * 		(see ReminderScheduler).
+ *
+ * @author Iain Davis
+ */
+public interface ReminderListener extends EventListener {
+	/**
+	 * Listener method - receives a reminder. Called on the scheduler's own thread, so a
+	 * 		listener that touches Swing components must hand the work to the event dispatch
+	 * 		thread, and should return promptly, since later reminders wait for it
+	 * @param event		the event (for a repeating event, the occurrence) that is about to start
+	 */
+	void reminderDue(CalendarEvent event);
+}
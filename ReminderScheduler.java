@@ -0,0 +1,231 @@
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Delivers the reminders of a CalendarModel's events, from a single thread, at the time each
+ * 		one is due (CalendarEvent.getReminderMinutes() before the event starts).
+ *
+ * Only the reminders due within the next HORIZON are held, in a heap ordered by the time they
+ * 		are due, which the thread sleeps until the head of. As the horizon comes near its end
+ * 		the reminders due in the next stretch are read from the model (see
+ * 		CalendarModel.getRemindersDueIn()), which looks only a little beyond the stretch for
+ * 		the events whose reminders could fall in it, so the cost stays the same however
+ * 		many events lie further ahead. Changes to the model arrive as CalendarModelEvents;
+ * 		for each, the reminders for events starting within the changed time-spans are
+ * 		dropped and those due within the horizon read again, so adding, deleting or editing
+ * 		an event never rescans the rest.
+ *
+ * The heap always holds exactly the reminders due in [firedBefore, loadedUntil), so those
+ * 		already past when the scheduler starts, or by the time the thread hears of their
+ * 		event being added or changed, are not delivered. Nor are those that fall due while
+ * 		the computer is asleep for longer than HORIZON.
+ *
+ * Reminders are delivered for every calendar, shown or hidden.
+ *
+ * @author Iain Davis
+ */
+public class ReminderScheduler implements CalendarModelListener {
+	/**
+	 * Constructor - the scheduler does nothing until started
+	 * @param model_in		the model whose events to remind of
+	 * @param listener_in	the listener to deliver the reminders to
+	 */
+	public ReminderScheduler(CalendarModel model_in, ReminderListener listener_in)
+	{
+		model = model_in;
+		listener = listener_in;
+	}
+
+	/**
+	 * Mutator method - starts delivering reminders, from those due now on
+	 */
+	public synchronized void start()
+	{
+		if(thread != null) return;
+		synchronized(lock) {running = true;}
+		model.attachModelListener(this);
+		thread = new Thread(new
+				Runnable()
+				{@Override
+					public void run() {schedule();}
+				}, "reminders");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Mutator method - stops delivering reminders, and waits for the scheduler's thread to
+	 * 					finish (delivering any reminders already due)
+	 */
+	public synchronized void stop()
+	{
+		if(thread == null) return;
+		model.detachModelListener(this);
+		synchronized(lock)
+		{
+			running = false;
+			changedSpans.clear();
+			lock.notifyAll();
+		}
+		try {thread.join();}
+		catch(InterruptedException e) {Thread.currentThread().interrupt();}
+		thread = null;
+		heap.clear();
+	}
+
+	/**
+	 * Utility method - queues the time-spans of any events added or removed, for the
+	 * 						scheduler's thread to bring the heap up to date with
+	 * @param e		a CalendarModelEvent describing the change
+	 */
+	@Override
+	public void modelChanged(CalendarModelEvent e)
+	{
+		if(!e.hasAddedEvents() && !e.hasRemovedEvents()) return;
+		synchronized(lock)
+		{
+			if(e.hasAddedEvents()) changedSpans.add(new long[] {e.getAddedStart(), e.getAddedEnd()});
+			if(e.hasRemovedEvents()) changedSpans.add(new long[] {e.getRemovedStart(), e.getRemovedEnd()});
+			lock.notifyAll();
+		}
+	}
+
+	/**
+	 * Accessor method - for monitoring
+	 * @return	the number of reminders currently held (those due within the horizon)
+	 */
+	public int getPendingCount()
+	{
+		synchronized(lock) {return pendingCount;}
+	}
+
+	/**
+	 * Utility method - the body of the scheduler's thread: reads ahead when the horizon runs
+	 * 						short, delivers the reminders that are due, brings the heap up to
+	 * 						date with any changes, and sleeps until the next reminder (or the
+	 * 						next change)
+	 */
+	private void schedule()
+	{
+		long now = System.currentTimeMillis();
+		firedBefore = now;
+		loadedUntil = now;
+
+		while(true)
+		{
+			now = System.currentTimeMillis();
+			if(now - loadedUntil > HORIZON)		// asleep; skip what was missed
+			{
+				heap.clear();
+				firedBefore = loadedUntil = now;
+			}
+			if(now >= loadedUntil - HORIZON / 2) load(loadedUntil, now + HORIZON);
+
+			List<CalendarEvent> due = new ArrayList<CalendarEvent>();
+			while(!heap.isEmpty() && heap.peek().due <= now) {due.add(heap.poll().event);}
+			firedBefore = Math.max(firedBefore, now + 1);
+			for(CalendarEvent ce : due)
+			{
+				try {listener.reminderDue(ce);}
+				catch(RuntimeException e) {e.printStackTrace();}
+			}
+
+			List<long[]> changes;
+			synchronized(lock)
+			{
+				if(!running) return;
+				changes = new ArrayList<long[]>(changedSpans);
+				changedSpans.clear();
+			}
+			for(long[] span : changes) {reload(span[0], span[1]);}
+
+			long wake = loadedUntil - HORIZON / 2;
+			if(!heap.isEmpty()) wake = Math.min(wake, heap.peek().due);
+			synchronized(lock)
+			{
+				pendingCount = heap.size();
+				long delay = wake - System.currentTimeMillis();
+				if(running && changedSpans.isEmpty() && delay > 0)
+				{
+					try {lock.wait(delay);}
+					catch(InterruptedException e) {return;}
+				}
+			}
+		}
+	} // schedule()
+
+	/**
+	 * Utility method - extends the horizon, adding the reminders due in [from, to)
+	 */
+	private void load(long from, long to)
+	{
+		loadedUntil = to;
+		for(CalendarEvent ce : model.getRemindersDueIn(from, to)) {heap.add(new Reminder(ce.getReminderMillis(), ce));}
+	}
+
+	/**
+	 * Utility method - replaces the reminders of the events that start within a changed
+	 * 						time-span with those of the events that start there now
+	 * @param start		the start of the span in epoch milliseconds (inclusive)
+	 * @param end		the end of the span in epoch milliseconds (inclusive)
+	 */
+	private void reload(long start, long end)
+	{
+		// only events starting here can have a reminder due within the horizon
+		long from = Math.max(start, firedBefore);
+		long to = Math.min(end, loadedUntil - 1 + MAX_LEAD);
+		if(from > to) return;
+
+		for(Iterator<Reminder> it = heap.iterator(); it.hasNext();)
+		{
+			long eventStart = it.next().event.getStartMillis();
+			if(eventStart >= from && eventStart <= to) it.remove();
+		}
+		for(CalendarEvent ce : model.getRemindersDueIn(firedBefore, loadedUntil))
+		{
+			if(ce.getStartMillis() >= from && ce.getStartMillis() <= to) heap.add(new Reminder(ce.getReminderMillis(), ce));
+		}
+	}
+
+	/**
+	 * This class holds one reminder in the heap
+	 * @author Iain Davis
+	 */
+	private static class Reminder
+	{
+		private Reminder(long due_in, CalendarEvent event_in)
+		{
+			due = due_in;
+			event = event_in;
+		}
+
+		private final long due;					// epoch milliseconds
+		private final CalendarEvent event;
+	}
+
+	static final long HORIZON = 60 * 60 * 1000;	// how far ahead reminders are held
+	private static final long MAX_LEAD = CalendarEvent.MAX_REMINDER_MINUTES * 60 * 1000L;
+
+	private final CalendarModel model;
+	private final ReminderListener listener;
+	private Thread thread;			// null unless started
+
+	// guarded by lock, which the thread also waits on
+	private final Object lock = new Object();
+	private final List<long[]> changedSpans = new ArrayList<long[]>();	// inclusive start and end
+	private boolean running;
+	private int pendingCount;
+
+	// touched only by the scheduler's thread while it runs
+	private final PriorityQueue<Reminder> heap = new PriorityQueue<Reminder>(64, new
+			Comparator<Reminder>()
+			{@Override
+				public int compare(Reminder thisOne, Reminder thatOne)
+				{return Long.compare(thisOne.due, thatOne.due);}
+			});
+	private long firedBefore;		// every reminder due earlier has been delivered (or skipped)
+	private long loadedUntil;		// every reminder due in [firedBefore, loadedUntil) is in heap
+}
@@ -0,0 +1,380 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Inverted index over the words in the titles and descriptions of one calendar's single
+ * 		events. For each word the index keeps a postings list: the ids of the events using it,
+ * 		each with the event's start time, in order of start time and then id. Words are kept
+ * 		in a sorted map so that every word beginning with a prefix is found by one range
+ * 		lookup.
+ *
+ * A query is a list of prefixes, all of which must match. The postings of the words sharing
+ * 		each prefix are merged lazily with a heap, and the merged lists of the different
+ * 		prefixes are intersected by repeatedly skipping every list forward to the furthest
+ * 		entry any of them has reached (binary searching within each postings list), so a
+ * 		query that asks for the first few matches after a date reads only a little of each
+ * 		list, however many events there are.
+ *
+ * The index is not thread-safe; CalendarShard guards it with its monitor.
+ *
+ * @author Iain Davis
+ */
+class SearchIndex {
+	/**
+	 * Mutator method - indexes the words of an event
+	 * @param ce_in		the CalendarEvent (a single event, not a repeating one)
+	 */
+	void add(CalendarEvent ce_in)
+	{
+		for(String word : words(ce_in))
+		{
+			Postings postings = index.get(word);
+			if(postings == null)
+			{
+				postings = new Postings();
+				index.put(word, postings);
+			}
+			postings.add(ce_in.getStartMillis(), ce_in.getId());
+		}
+	}
+
+	/**
+	 * Mutator method - removes an event's words from the index
+	 * @param ce_in		the CalendarEvent, with the same start, title and description as when it
+	 * 						was added
+	 */
+	void remove(CalendarEvent ce_in)
+	{
+		for(String word : words(ce_in))
+		{
+			Postings postings = index.get(word);
+			if(postings != null && postings.remove(ce_in.getStartMillis(), ce_in.getId()) && postings.size == 0)
+				index.remove(word);
+		}
+	}
+
+	/**
+	 * Accessor method - finds the events matching every prefix in a query
+	 * @param prefixes	the query, as returned by tokenize()
+	 * @param from		the earliest start time of interest, in epoch milliseconds
+	 * @param limit		the most results wanted
+	 * @return			the ids of the first matching events starting at or after from, in
+	 * 						order of start time
+	 */
+	Hits search(List<String> prefixes, long from, int limit)
+	{
+		Hits result = new Hits(Math.max(0, Math.min(limit, 64)));
+		if(prefixes.isEmpty() || limit <= 0) return result;
+
+		PrefixCursor[] cursors = new PrefixCursor[prefixes.size()];
+		for(int i = 0; i < cursors.length; i++)
+		{
+			cursors[i] = new PrefixCursor(index.subMap(prefixes.get(i), prefixes.get(i) + Character.MAX_VALUE).values(), from);
+			if(cursors[i].exhausted()) return result;
+		}
+
+		long targetStart = from, targetId = Long.MIN_VALUE;
+		while(result.size < limit)
+		{
+			// move every list to the target; if they all land on it, it is a match
+			boolean agreed = true;
+			for(PrefixCursor cursor : cursors)
+			{
+				cursor.skipTo(targetStart, targetId);
+				if(cursor.exhausted()) return result;
+				Head head = cursor.current();
+				if(head.start() != targetStart || head.id() != targetId)
+				{
+					targetStart = head.start();
+					targetId = head.id();
+					agreed = false;
+				}
+			}
+			if(!agreed) continue;
+
+			result.add(targetStart, targetId);
+			if(targetId != Long.MAX_VALUE) targetId++;
+			else if(targetStart != Long.MAX_VALUE) {targetStart++; targetId = Long.MIN_VALUE;}
+			else break;
+		}
+		return result;
+	}
+
+	/**
+	 * Utility method - splits text into lower-case words (runs of letters and digits)
+	 * @param text	the text to split (null is treated as empty)
+	 * @return		a List of the words, in the order they appear
+	 */
+	static List<String> tokenize(String text)
+	{
+		List<String> result = new ArrayList<String>();
+		if(text == null) return result;
+
+		String lower = text.toLowerCase(Locale.ROOT);
+		int start = -1;
+		for(int i = 0; i <= lower.length(); i++)
+		{
+			boolean inWord = i < lower.length() && Character.isLetterOrDigit(lower.charAt(i));
+			if(inWord && start < 0) start = i;
+			else if(!inWord && start >= 0)
+			{
+				result.add(lower.substring(start, i));
+				start = -1;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Boolean utility method - checks an event against a query without using the index (for
+	 * 							repeating events, which are not indexed)
+	 * @param ce_in		the CalendarEvent
+	 * @param prefixes	the query, as returned by tokenize()
+	 * @return			true if every prefix begins some word of the event
+	 * 					false otherwise
+	 */
+	static boolean matches(CalendarEvent ce_in, List<String> prefixes)
+	{
+		Set<String> words = words(ce_in);
+		for(String prefix : prefixes)
+		{
+			boolean found = false;
+			for(String word : words)
+			{
+				if(word.startsWith(prefix)) {found = true; break;}
+			}
+			if(!found) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Utility method - gets the distinct words of an event's title and description
+	 */
+	private static Set<String> words(CalendarEvent ce_in)
+	{
+		Set<String> result = new HashSet<String>(tokenize(ce_in.getTitle()));
+		result.addAll(tokenize(ce_in.getDescription()));
+		return result;
+	}
+
+	/**
+	 * The results of a search: the ids of the matching events, each with its start time (by
+	 * 		which CalendarShard pages the event in if need be)
+	 * @author Iain Davis
+	 */
+	static class Hits
+	{
+		private Hits(int capacity)
+		{
+			starts = new long[capacity];
+			ids = new long[capacity];
+		}
+
+		/**
+		 * Accessor method
+		 * @return	the number of matching events
+		 */
+		int size()
+		{return size;}
+
+		/**
+		 * Accessor method
+		 * @param index		the position of a match, in order of start time
+		 * @return			the id of the event
+		 */
+		long getId(int index)
+		{return ids[index];}
+
+		/**
+		 * Accessor method
+		 * @param index		the position of a match, in order of start time
+		 * @return			the start time of the event, in epoch milliseconds
+		 */
+		long getStartMillis(int index)
+		{return starts[index];}
+
+		private void add(long start, long id)
+		{
+			if(size == starts.length)
+			{
+				starts = Arrays.copyOf(starts, Math.max(1, size * 2));
+				ids = Arrays.copyOf(ids, starts.length);
+			}
+			starts[size] = start;
+			ids[size++] = id;
+		}
+
+		private long[] starts;
+		private long[] ids;
+		private int size;
+	}
+
+	/**
+	 * The events using one word, as parallel arrays of start times and ids. Additions are
+	 * 		appended and sorted only when the list is next read, so adding events in any order
+	 * 		costs O(1) each
+	 * @author Iain Davis
+	 */
+	private static class Postings
+	{
+		private void add(long start, long id)
+		{
+			if(size == starts.length)
+			{
+				starts = Arrays.copyOf(starts, size * 2);
+				ids = Arrays.copyOf(ids, size * 2);
+			}
+			if(size > 0 && compare(start, id, starts[size - 1], ids[size - 1]) < 0) sorted = false;
+			starts[size] = start;
+			ids[size++] = id;
+		}
+
+		/**
+		 * @return	true if the event was in the list
+		 */
+		private boolean remove(long start, long id)
+		{
+			sort();
+			int i = lowerBound(start, id, 0);
+			if(i == size || starts[i] != start || ids[i] != id) return false;
+			System.arraycopy(starts, i + 1, starts, i, size - i - 1);
+			System.arraycopy(ids, i + 1, ids, i, size - i - 1);
+			size--;
+			return true;
+		}
+
+		/**
+		 * bottom-up merge sort of the two arrays together, by start time and then id
+		 */
+		private void sort()
+		{
+			if(sorted) return;
+			long[] fromStarts = starts, fromIds = ids;
+			long[] toStarts = new long[starts.length], toIds = new long[ids.length];
+			for(int width = 1; width < size; width *= 2)
+			{
+				for(int low = 0; low < size; low += 2 * width)
+				{
+					int mid = Math.min(low + width, size), high = Math.min(low + 2 * width, size);
+					int i = low, j = mid;
+					for(int k = low; k < high; k++)
+					{
+						boolean left = j >= high || (i < mid && compare(fromStarts[i], fromIds[i], fromStarts[j], fromIds[j]) <= 0);
+						int next = left ? i++ : j++;
+						toStarts[k] = fromStarts[next];
+						toIds[k] = fromIds[next];
+					}
+				}
+				long[] swap = fromStarts; fromStarts = toStarts; toStarts = swap;
+				swap = fromIds; fromIds = toIds; toIds = swap;
+			}
+			starts = fromStarts;
+			ids = fromIds;
+			sorted = true;
+		}
+
+		/**
+		 * @return	the index of the first entry not before (start, id), at or after position from
+		 */
+		private int lowerBound(long start, long id, int from)
+		{
+			int low = from, high = size;
+			while(low < high)
+			{
+				int mid = (low + high) >>> 1;
+				if(compare(starts[mid], ids[mid], start, id) < 0) low = mid + 1;
+				else high = mid;
+			}
+			return low;
+		}
+
+		private long[] starts = new long[2];
+		private long[] ids = new long[2];
+		private int size;
+		private boolean sorted = true;
+	}
+
+	/**
+	 * A position in the merged postings of every word sharing a prefix. A heap holds the
+	 * 		position reached in each word's postings, earliest first
+	 * @author Iain Davis
+	 */
+	private static class PrefixCursor
+	{
+		private PrefixCursor(Collection<Postings> lists, long from)
+		{
+			heads = new PriorityQueue<Head>(Math.max(1, lists.size()), HEAD_ORDER);
+			for(Postings postings : lists)
+			{
+				postings.sort();
+				Head head = new Head(postings, postings.lowerBound(from, Long.MIN_VALUE, 0));
+				if(head.position < postings.size) heads.add(head);
+			}
+		}
+
+		private boolean exhausted()
+		{return heads.isEmpty();}
+
+		private Head current()
+		{return heads.peek();}
+
+		/**
+		 * moves past every entry before (start, id)
+		 */
+		private void skipTo(long start, long id)
+		{
+			while(!heads.isEmpty() && compare(heads.peek().start(), heads.peek().id(), start, id) < 0)
+			{
+				Head head = heads.poll();
+				head.position = head.postings.lowerBound(start, id, head.position + 1);
+				if(head.position < head.postings.size) heads.add(head);
+			}
+		}
+
+		private final PriorityQueue<Head> heads;
+	}
+
+	private static class Head
+	{
+		private Head(Postings postings_in, int position_in)
+		{
+			postings = postings_in;
+			position = position_in;
+		}
+
+		private long start()
+		{return postings.starts[position];}
+
+		private long id()
+		{return postings.ids[position];}
+
+		private final Postings postings;
+		private int position;
+	}
+
+	/**
+	 * Utility method - orders postings entries by start time and then id
+	 */
+	private static int compare(long start, long id, long thatStart, long thatId)
+	{
+		int result = Long.compare(start, thatStart);
+		return result != 0 ? result : Long.compare(id, thatId);
+	}
+
+	private static final Comparator<Head> HEAD_ORDER = new
+			Comparator<Head>()
+			{@Override
+				public int compare(Head a, Head b) {return SearchIndex.compare(a.start(), a.id(), b.start(), b.id());}
+			};
+
+	private final TreeMap<String, Postings> index = new TreeMap<String, Postings>();
+}
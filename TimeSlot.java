@@ -0,0 +1,78 @@
+import java.util.GregorianCalendar;
+
+/**
+ * A span of free time, as found by CalendarModel.findFreeSlots(). Time slots are immutable.
+ *
+ * @author Iain Davis
+ */
+public final class TimeSlot {
+	/**
+	 * Constructor
+	 * @param start_in	the start of the slot in epoch milliseconds (inclusive)
+	 * @param end_in	the end of the slot in epoch milliseconds (exclusive)
+	 * @throws IllegalArgumentException if end_in is before start_in
+	 */
+	public TimeSlot(long start_in, long end_in)
+	{
+		if(end_in < start_in) throw new IllegalArgumentException("slot ends before it starts: " + start_in + " > " + end_in);
+		start = start_in;
+		end = end_in;
+	}
+
+	/**
+	 * Accessor method
+	 * @return	the start of the slot in epoch milliseconds
+	 */
+	public long getStartMillis()
+	{return start;}
+
+	/**
+	 * Accessor method
+	 * @return	the end of the slot in epoch milliseconds
+	 */
+	public long getEndMillis()
+	{return end;}
+
+	/**
+	 * Accessor method
+	 * @return	the length of the slot in milliseconds
+	 */
+	public long getDurationMillis()
+	{return end - start;}
+
+	/**
+	 * Accessor method
+	 * @return	a new GregorianCalendar set to the start of the slot
+	 */
+	public GregorianCalendar getStart()
+	{
+		GregorianCalendar gc = new GregorianCalendar();
+		gc.setTimeInMillis(start);
+		return gc;
+	}
+
+	/**
+	 * Accessor method
+	 * @return	a new GregorianCalendar set to the end of the slot
+	 */
+	public GregorianCalendar getEnd()
+	{
+		GregorianCalendar gc = new GregorianCalendar();
+		gc.setTimeInMillis(end);
+		return gc;
+	}
+
+	/**
+	 * Utility method - describes the slot, e.g. "14-Nov-2023 09:00 - 14-Nov-2023 10:30"
+	 * @return	a String describing this slot
+	 */
+	public String toString()
+	{
+		GregorianCalendar startGc = getStart(), endGc = getEnd();
+		return CalendarModel.getFormattedDate(startGc) + " " + CalendarModel.getFormattedTime(startGc) + " - "
+				+ CalendarModel.getFormattedDate(endGc) + " " + CalendarModel.getFormattedTime(endGc);
+	}
+
+	private final long start;
+	private final long end;
+}
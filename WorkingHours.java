@@ -0,0 +1,138 @@
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.List;
+import java.util.TimeZone;
+
+/**
+ * Restricts a search for free time (see CalendarModel.findFreeSlots()) to the same hours of
+ * 		every working day, e.g. 09:00 to 17:00 Monday to Friday. The hours are local times,
+ * 		so they keep their place on the clock across daylight saving changes.
+ *
+ * Working hours are immutable.
+ *
+ * @author Iain Davis
+ */
+public final class WorkingHours {
+	/**
+	 * Constructor
+	 * @param startMinute_in	the start of the working day, in minutes after midnight
+	 * @param endMinute_in		the end of the working day, in minutes after midnight (24 * 60
+	 * 								for midnight at the end of the day)
+	 * @param daysOfWeek_in		the working days, as Calendar.SUNDAY to Calendar.SATURDAY
+	 * 								(none for every day)
+	 * @throws IllegalArgumentException if the day does not start before it ends within 24
+	 * 								hours, or a day of the week is out of range
+	 */
+	public WorkingHours(int startMinute_in, int endMinute_in, int... daysOfWeek_in)
+	{
+		if(startMinute_in < 0 || endMinute_in <= startMinute_in || endMinute_in > MINUTES_PER_DAY)
+			throw new IllegalArgumentException("bad working hours: minute " + startMinute_in + " to " + endMinute_in);
+		startMinute = startMinute_in;
+		endMinute = endMinute_in;
+
+		workingDays = new boolean[Calendar.SATURDAY + 1];
+		for(int day : daysOfWeek_in)
+		{
+			if(day < Calendar.SUNDAY || day > Calendar.SATURDAY)
+				throw new IllegalArgumentException("bad day of the week: " + day);
+			workingDays[day] = true;
+		}
+		if(daysOfWeek_in.length == 0)
+		{
+			for(int day = Calendar.SUNDAY; day <= Calendar.SATURDAY; day++) {workingDays[day] = true;}
+		}
+	}
+
+	/**
+	 * Accessor method
+	 * @return	the start of the working day, in minutes after midnight
+	 */
+	public int getStartMinute()
+	{return startMinute;}
+
+	/**
+	 * Accessor method
+	 * @return	the end of the working day, in minutes after midnight
+	 */
+	public int getEndMinute()
+	{return endMinute;}
+
+	/**
+	 * Boolean accessor method
+	 * @param dayOfWeek		a day of the week, as Calendar.SUNDAY to Calendar.SATURDAY
+	 * @return				true if the day is a working day
+	 * 						false otherwise
+	 */
+	public boolean isWorkingDay(int dayOfWeek)
+	{return dayOfWeek >= Calendar.SUNDAY && dayOfWeek <= Calendar.SATURDAY && workingDays[dayOfWeek];}
+
+	/**
+	 * Utility method - describes the working hours, e.g. "09:00-17:00 MO TU WE TH FR"
+	 * @return	a String describing these working hours
+	 */
+	public String toString()
+	{
+		StringBuffer sb = new StringBuffer(String.format("%02d:%02d-%02d:%02d",
+				startMinute / 60, startMinute % 60, endMinute / 60, endMinute % 60));
+		String[] names = {"SU", "MO", "TU", "WE", "TH", "FR", "SA"};
+		for(int day = Calendar.SUNDAY; day <= Calendar.SATURDAY; day++)
+		{
+			if(workingDays[day]) sb.append(" " + names[day - Calendar.SUNDAY]);
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Accessor method - finds the working time within a span of time
+	 * @param from	the start of the span in epoch milliseconds (inclusive)
+	 * @param to	the end of the span in epoch milliseconds (exclusive)
+	 * @param zone	the time zone whose clock the hours are kept by
+	 * @return		a List of the parts of [from, to) that fall in working hours, in order
+	 */
+	List<TimeSlot> clip(long from, long to, TimeZone zone)
+	{
+		List<TimeSlot> result = new ArrayList<TimeSlot>();
+		GregorianCalendar day = new GregorianCalendar(zone);
+		day.setTimeInMillis(from);
+		day.set(Calendar.HOUR_OF_DAY, 0);
+		day.set(Calendar.MINUTE, 0);
+		day.set(Calendar.SECOND, 0);
+		day.set(Calendar.MILLISECOND, 0);
+
+		while(day.getTimeInMillis() < to)
+		{
+			if(workingDays[day.get(Calendar.DAY_OF_WEEK)])
+			{
+				long start = Math.max(from, timeOfDay(day, startMinute));
+				long end = Math.min(to, timeOfDay(day, endMinute));
+				if(start < end) result.add(new TimeSlot(start, end));
+			}
+			day.add(Calendar.DAY_OF_MONTH, 1);
+		}
+		return result;
+	}
+
+	/**
+	 * Utility method - gets the instant a number of minutes after midnight on a day, by the
+	 * 						clock (midnight at the end of the day is the start of the next)
+	 */
+	private static long timeOfDay(GregorianCalendar day, int minute)
+	{
+		GregorianCalendar gc = (GregorianCalendar) day.clone();
+		if(minute == MINUTES_PER_DAY)
+		{
+			gc.add(Calendar.DAY_OF_MONTH, 1);
+			return gc.getTimeInMillis();
+		}
+		gc.set(Calendar.HOUR_OF_DAY, minute / 60);
+		gc.set(Calendar.MINUTE, minute % 60);
+		return gc.getTimeInMillis();
+	}
+
+	private static final int MINUTES_PER_DAY = 24 * 60;
+
+	private final int startMinute;
+	private final int endMinute;
+	private final boolean[] workingDays;	// indexed by Calendar.SUNDAY to Calendar.SATURDAY
+}
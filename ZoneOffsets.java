@@ -0,0 +1,204 @@
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.zone.ZoneOffsetTransition;
+import java.time.zone.ZoneRules;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The UTC offsets of one time zone, worked out once as a table of its transitions (the
+ * 		instants at which the offset changes, e.g. for daylight saving) so that converting an
+ * 		instant to local time is a binary search of the table rather than a GregorianCalendar
+ * 		recomputing every calendar field. Used wherever many events are placed on the clock
+ * 		at once, such as the day view and the occupancy counts.
+ *
+ * The table covers TABLE_FIRST_YEAR to TABLE_LAST_YEAR; outside it the zone is asked
+ * 		directly. Tables are immutable and shared: of() builds each zone's table the first
+ * 		time it is asked for and returns the same one after that.
+ *
+ * @author Iain Davis
+ */
+final class ZoneOffsets {
+	/**
+	 * Constructor - builds the transition table of a zone
+	 * @param zone_in	the TimeZone, which must not be changed afterwards
+	 */
+	private ZoneOffsets(TimeZone zone_in)
+	{
+		zone = zone_in;
+		ZoneRules rules = zone.toZoneId().getRules();
+
+		long[] instants = new long[64];
+		int[] offsetsAfter = new int[64];
+		int size = 0;
+		Instant instant = Instant.ofEpochMilli(TABLE_START);
+		ZoneOffsetTransition transition;
+		while((transition = rules.nextTransition(instant)) != null && transition.toEpochSecond() * 1000 < TABLE_END)
+		{
+			if(size == instants.length)
+			{
+				instants = Arrays.copyOf(instants, size * 2);
+				offsetsAfter = Arrays.copyOf(offsetsAfter, size * 2);
+			}
+			instant = transition.getInstant();
+			instants[size] = instant.toEpochMilli();
+			offsetsAfter[size++] = transition.getOffsetAfter().getTotalSeconds() * 1000;
+		}
+
+		transitions = Arrays.copyOf(instants, size);
+		offsets = new int[size + 1];
+		offsets[0] = rules.getOffset(Instant.ofEpochMilli(TABLE_START)).getTotalSeconds() * 1000;
+		System.arraycopy(offsetsAfter, 0, offsets, 1, size);
+	}
+
+	/**
+	 * Utility method - gets the offset table of a zone
+	 * @param zoneId	the id of the zone, e.g. "Europe/London" (see TimeZone.getTimeZone())
+	 * @return			the shared ZoneOffsets
+	 */
+	static ZoneOffsets of(String zoneId)
+	{
+		ZoneOffsets table = tables.get(zoneId);
+		if(table == null)
+		{
+			table = new ZoneOffsets(TimeZone.getTimeZone(zoneId));
+			ZoneOffsets raced = tables.putIfAbsent(zoneId, table);
+			if(raced != null) table = raced;
+		}
+		return table;
+	}
+
+	/**
+	 * Utility method - gets the offset table of a zone
+	 * @param zone_in	the TimeZone
+	 * @return			the shared ZoneOffsets
+	 */
+	static ZoneOffsets of(TimeZone zone_in)
+	{return of(zone_in.getID());}
+
+	/**
+	 * Accessor method
+	 * @return	the id of the zone
+	 */
+	String getId()
+	{return zone.getID();}
+
+	/**
+	 * Accessor method - the TimeZone is shared by every user of the table, so it is only to be
+	 * 						handed to a GregorianCalendar (which never changes its zone), not
+	 * 						changed
+	 * @return	the TimeZone
+	 */
+	TimeZone getTimeZone()
+	{return zone;}
+
+	/**
+	 * Accessor method - gets the offset from UTC at an instant
+	 * @param millis	the instant, in epoch milliseconds
+	 * @return			the offset in milliseconds, to add to UTC to get local time
+	 */
+	int getOffset(long millis)
+	{
+		if(millis < TABLE_START || millis >= TABLE_END) return zone.getOffset(millis);
+		return offsets[periodOf(millis)];
+	}
+
+	/**
+	 * Accessor method - gets the time of day of an instant by the clock
+	 * @param millis	the instant, in epoch milliseconds
+	 * @return			the minutes since (local) midnight, 0 to 1439
+	 */
+	int getMinuteOfDay(long millis)
+	{return (int) (Math.floorMod(millis + getOffset(millis), DAY) / MINUTE);}
+
+	/**
+	 * Accessor method - gets the first instant of the day containing an instant, as
+	 * 						GregorianCalendar works it out: the instant the clock shows
+	 * 						midnight, the end of the gap when the clocks go forward over
+	 * 						midnight, and the later midnight when they go back over it (if
+	 * 						the instant is not before it)
+	 * @param millis	the instant, in epoch milliseconds
+	 * @return			the start of its day, in epoch milliseconds
+	 */
+	long getDayStart(long millis)
+	{
+		long localMidnight = Math.floorDiv(millis + getOffset(millis), DAY) * DAY;
+		if(millis < TABLE_START + 2 * DAY || millis >= TABLE_END)
+		{
+			GregorianCalendar gc = new GregorianCalendar(zone);
+			gc.setTimeInMillis(millis);
+			gc.set(Calendar.HOUR_OF_DAY, 0);
+			gc.set(Calendar.MINUTE, 0);
+			gc.set(Calendar.SECOND, 0);
+			gc.set(Calendar.MILLISECOND, 0);
+			return gc.getTimeInMillis();
+		}
+
+		// look period by period from well before the midnight (no zone has ever moved its clock
+		// by two days at once) for the last period in which the clock shows it, or failing
+		// that the period whose start the clock jumped over it to
+		long dayStart = Long.MIN_VALUE;
+		boolean reached = false;
+		for(int period = periodOf(millis - 2 * DAY), last = periodOf(millis); period <= last; period++)
+		{
+			long candidate = localMidnight - offsets[period];
+			long periodStart = period == 0 ? Long.MIN_VALUE : transitions[period - 1];
+			if(period < transitions.length && candidate >= transitions[period]) continue;	// not yet midnight
+
+			if(candidate >= periodStart) dayStart = candidate;
+			else if(!reached) dayStart = periodStart;
+			reached = true;
+		}
+		return dayStart;
+	}
+
+	/**
+	 * Accessor method - formats the time of day of an instant by the clock
+	 * @param millis	the instant, in epoch milliseconds
+	 * @return			the time as "HH:mm" (24 hr clock)
+	 */
+	String formatTime(long millis)
+	{
+		int minute = getMinuteOfDay(millis);
+		char[] text = {(char) ('0' + minute / 600), (char) ('0' + minute / 60 % 10), ':',
+				(char) ('0' + minute % 60 / 10), (char) ('0' + minute % 10)};
+		return new String(text);
+	}
+
+	/**
+	 * Utility method - builds a GregorianCalendar in this zone
+	 * @param millis	the instant to set it to, in epoch milliseconds
+	 * @return			a new GregorianCalendar
+	 */
+	GregorianCalendar toCalendar(long millis)
+	{
+		GregorianCalendar gc = new GregorianCalendar(zone);
+		gc.setTimeInMillis(millis);
+		return gc;
+	}
+
+	/**
+	 * Utility method - finds the index of the offset in effect at an instant within the table
+	 */
+	private int periodOf(long millis)
+	{
+		int index = Arrays.binarySearch(transitions, millis);
+		return index >= 0 ? index + 1 : -index - 1;
+	}
+
+	static final int TABLE_FIRST_YEAR = 1900;
+	static final int TABLE_LAST_YEAR = 2037;		// as far as TimeZone itself keeps transitions
+	private static final long DAY = 24 * 60 * 60 * 1000;
+	private static final long MINUTE = 60 * 1000;
+	private static final long TABLE_START = LocalDate.of(TABLE_FIRST_YEAR, 1, 1).toEpochDay() * DAY - 2 * DAY;	// margins cover any offset
+	private static final long TABLE_END = LocalDate.of(TABLE_LAST_YEAR + 1, 1, 1).toEpochDay() * DAY + 2 * DAY;
+
+	private static final ConcurrentHashMap<String, ZoneOffsets> tables = new ConcurrentHashMap<String, ZoneOffsets>();	// by zone id
+
+	private final TimeZone zone;
+	private final long[] transitions;	// ascending instants at which the offset changes
+	private final int[] offsets;		// offsets[i] is in effect before transitions[i] (and after transitions[i - 1])
+}
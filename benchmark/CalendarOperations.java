@@ -0,0 +1,42 @@
+package benchmark;
+
+import java.io.IOException;
+
+/**
+ * The operations ModelBenchmark times, as implemented by CalendarBenchmark (in the default
+ * 		package, beside the model, which is why ModelBenchmark can reach it only through
+ * 		this interface).
+ *
+ * @author Iain Davis
+ */
+public interface CalendarOperations {
+	/** @return the number of events on a random date */
+	int getEvents();
+
+	/** @return whether a random date has events */
+	boolean hasEvents();
+
+	/** @return the per-day counts of the month grid around a random date */
+	int[] getMonthGridOccupancy();
+
+	/** @return whether a half-hour event at a random time conflicts with another */
+	boolean hasConflictingEvent();
+
+	/** @return whether an event added into a free slot could be deleted again */
+	boolean addAndDeleteEvent();
+
+	/** @return the comparison of two random events by start time */
+	int compareByStart();
+
+	/** @return the comparison of two random events by end time */
+	int compareByEnd();
+
+	/** Writes the whole calendar to disk */
+	void flushToDisk();
+
+	/** @return the number of events read back from the events file */
+	int readInEvents() throws IOException;
+
+	/** Removes the calendar's files */
+	void close();
+}
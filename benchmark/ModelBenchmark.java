@@ -0,0 +1,111 @@
+package benchmark;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * JMH benchmarks of the model (see CalendarBenchmark, which builds the calendar for each size
+ * 		from CalendarBenchmark.syntheticEvents() and implements the operations).
+ *
+ * JMH runs every benchmark and size in its own forked JVM, and the calendar's files are kept
+ * 		in a scratch directory made for the fork, so neither the files nor the JIT profile of
+ * 		one run can leak into another. main() adds the GC profiler, so alongside the mean
+ * 		time per operation every benchmark reports the bytes allocated per operation
+ * 		(gc.alloc.rate.norm), as "-prof gc" would.
+ *
+ * @author Iain Davis
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+@State(Scope.Benchmark)
+public class ModelBenchmark {
+	public static void main(String[] args) throws RunnerException, CommandLineOptionException
+	{
+		new Runner(new OptionsBuilder()
+				.parent(new CommandLineOptions(args))
+				.addProfiler(GCProfiler.class)
+				.build()).run();
+	}
+
+	/**
+	 * Fixture - builds the calendar (CalendarBenchmark, looked up by name since it is in the
+	 * 		default package)
+	 */
+	@Setup(Level.Trial)
+	public void setUp() throws ReflectiveOperationException
+	{
+		calendar = (CalendarOperations) Class.forName("CalendarBenchmark")
+				.getConstructor(int.class).newInstance(size);
+	}
+
+	/**
+	 * Fixture - removes the calendar's files
+	 */
+	@TearDown(Level.Trial)
+	public void tearDown()
+	{calendar.close();}
+
+	@Benchmark
+	public int getEvents()
+	{return calendar.getEvents();}
+
+	@Benchmark
+	public boolean hasEvents()
+	{return calendar.hasEvents();}
+
+	@Benchmark
+	public int[] getMonthGridOccupancy()
+	{return calendar.getMonthGridOccupancy();}
+
+	@Benchmark
+	public boolean hasConflictingEvent()
+	{return calendar.hasConflictingEvent();}
+
+	@Benchmark
+	public boolean addAndDeleteEvent()
+	{return calendar.addAndDeleteEvent();}
+
+	@Benchmark
+	public int compareByStart()
+	{return calendar.compareByStart();}
+
+	@Benchmark
+	public int compareByEnd()
+	{return calendar.compareByEnd();}
+
+	@Benchmark
+	public void flushToDisk()
+	{calendar.flushToDisk();}
+
+	@Benchmark
+	public int readInEvents() throws IOException
+	{return calendar.readInEvents();}
+
+	@Param({"1000", "100000", "1000000"})
+	public int size;				// events in the calendar
+
+	private CalendarOperations calendar;
+}